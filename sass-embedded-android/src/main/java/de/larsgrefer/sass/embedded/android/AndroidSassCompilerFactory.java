@@ -16,7 +16,7 @@ public class AndroidSassCompilerFactory {
     @NonNull
     @CheckResult
     public static SassCompiler bundled(@NonNull Context context) throws IOException {
-        SassCompiler sassCompiler = new SassCompiler(AndroidConnectionFactory.bundled(context));
+        SassCompiler sassCompiler = new SassCompiler(() -> AndroidConnectionFactory.bundled(context));
         sassCompiler.setLoggingHandler(new AndroidLoggingHandler());
         return sassCompiler;
     }
@@ -0,0 +1,53 @@
+package de.larsgrefer.sass.embedded.daemon;
+
+import de.larsgrefer.sass.embedded.connection.CompilerConnection;
+import de.larsgrefer.sass.embedded.connection.PacketDispatcher;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A warm compiler process of a {@link SassDaemon}, which is shared by the compilations of all clients.
+ *
+ * @author Lars Grefer
+ */
+class Backend implements Closeable {
+
+    @Getter
+    private final PacketDispatcher dispatcher;
+
+    /**
+     * The number of compilations which are currently running on this compiler.
+     */
+    final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile boolean failed;
+
+    /**
+     * Whether a replacement for this failed compiler is being started. Guarded by the {@link SassDaemon}.
+     */
+    boolean replacing;
+
+    Backend(CompilerConnection connection) {
+        this.dispatcher = new PacketDispatcher(connection);
+    }
+
+    void markFailed() {
+        failed = true;
+    }
+
+    /**
+     * @return {@code true} if this compiler was {@link #markFailed() marked as failed} or its connection failed,
+     * e.g. because the process died while it was idle.
+     */
+    boolean isFailed() {
+        return failed || dispatcher.isFailed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        dispatcher.close();
+    }
+}
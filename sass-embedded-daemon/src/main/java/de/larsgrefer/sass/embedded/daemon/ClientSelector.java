@@ -0,0 +1,151 @@
+package de.larsgrefer.sass.embedded.daemon;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread which reads and writes the channels of all {@link ClientSession client sessions} of a
+ * {@link SassDaemon}, so the daemon doesn't need a thread per client.
+ * <p>
+ * The selection keys are only touched by the selector thread. Other threads request changes of the interest set of a
+ * session through {@link #updateInterest(ClientSession)}.
+ *
+ * @author Lars Grefer
+ * @see de.larsgrefer.sass.embedded.connection.ConnectionSelector
+ */
+@Slf4j
+class ClientSelector implements Closeable {
+
+    /**
+     * How often the sessions are checked for an expired {@link ClientSession#closeIfOverdue(long) flush timeout}.
+     */
+    private static final long TIMEOUT_CHECK_MILLIS = 100;
+
+    private final Selector selector;
+
+    private final Queue<ClientSession> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+    private final Queue<ClientSession> pendingUpdates = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    ClientSelector() throws IOException {
+        this.selector = Selector.open();
+
+        Thread thread = new Thread(this::selectLoop, "sass-daemon-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registers the (non-blocking) channel of the given session.
+     */
+    void register(ClientSession session) throws IOException {
+        if (closed) {
+            throw new IOException("The daemon has been closed");
+        }
+
+        pendingRegistrations.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Lets the selector thread apply {@link ClientSession#updateInterest()}.
+     */
+    void updateInterest(ClientSession session) {
+        pendingUpdates.add(session);
+        selector.wakeup();
+    }
+
+    private void selectLoop() {
+        try {
+            while (!closed) {
+                selector.select(TIMEOUT_CHECK_MILLIS);
+
+                registerPending();
+                updatePending();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    ClientSession session = (ClientSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            session.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            session.onReadable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        // The session has been closed by another thread.
+                    }
+                }
+
+                long now = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    ((ClientSession) key.attachment()).closeIfOverdue(now);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                log.error("The selector of the sass daemon failed", e);
+            }
+        } finally {
+            closed = true;
+
+            for (SelectionKey key : selector.keys()) {
+                ((ClientSession) key.attachment()).close();
+            }
+            ClientSession session;
+            while ((session = pendingRegistrations.poll()) != null) {
+                session.close();
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the selector", e);
+            }
+        }
+    }
+
+    private void registerPending() {
+        ClientSession session;
+        while ((session = pendingRegistrations.poll()) != null) {
+            try {
+                session.setKey(session.getChannel().register(selector, SelectionKey.OP_READ, session));
+                session.updateInterest();
+            } catch (ClosedChannelException | CancelledKeyException e) {
+                session.close();
+            }
+        }
+    }
+
+    private void updatePending() {
+        ClientSession session;
+        while ((session = pendingUpdates.poll()) != null) {
+            try {
+                session.updateInterest();
+            } catch (CancelledKeyException e) {
+                // The session has been closed in the meantime.
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,730 @@
+package de.larsgrefer.sass.embedded.daemon;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.ProtocolError;
+import com.sass_lang.embedded_protocol.ProtocolErrorType;
+import de.larsgrefer.sass.embedded.connection.Packet;
+import de.larsgrefer.sass.embedded.connection.PacketDispatcher;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The connection of a single client to a {@link SassDaemon}.
+ * <p>
+ * Every compilation of the client gets a daemon-wide compilation id, under which it's forwarded to a {@link Backend}.
+ * The messages of the compiler are sent back to the client with the compilation id the client has chosen.
+ * <p>
+ * The channel of the client is non-blocking and is read and written by the {@link ClientSelector} of the daemon.
+ * Outgoing messages are mostly produced by the reader threads of the backends, which are shared by all clients, so
+ * they are queued until the channel is writable. A client which doesn't read its messages is disconnected once more
+ * than {@value #MAX_PENDING_BYTES} bytes are queued for it.
+ * <p>
+ * Incoming messages are queued as well and handled in order by a {@link SassDaemon#execute(Runnable) worker thread},
+ * as forwarding them may block on a compiler which is slow to read its input or which is being replaced.
+ * The session stops reading from the client while more than {@value #MAX_INBOX_BYTES} bytes are queued.
+ * <p>
+ * Frames larger than {@link SassDaemon#getMaxFrameSize()} are rejected with a {@link ProtocolErrorType#PARSE} error
+ * before they are read, and the client is disconnected.
+ *
+ * @author Lars Grefer
+ */
+@Slf4j
+class ClientSession implements Closeable {
+
+    private static final String CLIENT_GONE = "The client disconnected from the sass daemon";
+
+    static final int MAX_PENDING_BYTES = 32 * 1024 * 1024;
+
+    static final int MAX_INBOX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * How long the queued messages of a client which is disconnected by the daemon may take to be written.
+     */
+    private static final long FLUSH_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The error id for errors which can't be attributed to a compilation.
+     */
+    private static final int UNKNOWN_COMPILATION_ID = 0xffffffff;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Frames of at least this size are read into their own buffer. Smaller frames always fit into the read buffer.
+     */
+    private static final int LARGE_FRAME_THRESHOLD = 32 * 1024;
+
+    private final SassDaemon daemon;
+
+    @Getter(AccessLevel.PACKAGE)
+    private final SocketChannel channel;
+
+    private final ClientSelector selector;
+
+    @Setter(AccessLevel.PACKAGE)
+    @Nullable
+    private SelectionKey key;
+
+    // The buffers are only used by the selector thread.
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * The frame which is currently read, if it's too large for the read buffer.
+     */
+    @Nullable
+    private ByteBuffer largeFrame;
+
+    /**
+     * The remainder of {@link #writing}, which still has to be written.
+     */
+    @Nullable
+    private ByteBuffer writeBuffer;
+
+    /**
+     * Messages which still have to be written to the client. Guarded by itself.
+     */
+    private final Deque<Outgoing> outbox = new ArrayDeque<>();
+
+    /**
+     * The message which is currently written. Guarded by {@link #outbox}.
+     */
+    @Nullable
+    private Outgoing writing;
+
+    private long pendingBytes;
+
+    /**
+     * Whether the selector should wait for the channel to become writable. Guarded by {@link #outbox}.
+     */
+    private boolean writeInterest;
+
+    /**
+     * Messages of the client which still have to be handled by a worker thread. Guarded by itself.
+     */
+    private final Deque<Packet<InboundMessage>> inbox = new ArrayDeque<>();
+
+    /**
+     * The serialized size of the messages in the {@link #inbox}. Guarded by {@link #inbox}.
+     */
+    private long inboxBytes;
+
+    /**
+     * Whether a worker thread is handling the {@link #inbox}. Guarded by {@link #inbox}.
+     */
+    private boolean handling;
+
+    /**
+     * The running compilations of the client, by the compilation id of the client.
+     */
+    private final Map<Integer, Compilation> compilations = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Set when the session should be closed as soon as the outbox is empty. Guarded by {@link #outbox}.
+     */
+    private volatile boolean closing;
+
+    /**
+     * The {@link System#nanoTime()} at which a {@link #closing} session is closed, even if the outbox is not empty.
+     */
+    private volatile long closingDeadline;
+
+    ClientSession(SassDaemon daemon, SocketChannel channel, ClientSelector selector) {
+        this.daemon = daemon;
+        this.channel = channel;
+        this.selector = selector;
+    }
+
+    void start() throws IOException {
+        channel.configureBlocking(false);
+        selector.register(this);
+    }
+
+    /**
+     * Called by the selector thread when the channel is readable.
+     */
+    void onReadable() {
+        try {
+            while (!closed && !closing && !isInboxFull()) {
+                if (largeFrame != null) {
+                    int read = channel.read(largeFrame);
+                    if (read < 0) {
+                        throw new EOFException();
+                    }
+                    if (largeFrame.hasRemaining()) {
+                        if (read == 0) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    byte[] frame = largeFrame.array();
+                    largeFrame = null;
+                    enqueue(Packet.parseFrom(frame, 0, frame.length, InboundMessage.parser()));
+                    continue;
+                }
+
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+
+                readBuffer.flip();
+                try {
+                    decodeFrames();
+                } finally {
+                    readBuffer.compact();
+                }
+
+                if (read == 0) {
+                    return;
+                }
+            }
+        } catch (EOFException e) {
+            log.debug("Client {} disconnected", channel);
+            close();
+        } catch (IOException e) {
+            if (!closed) {
+                log.warn("Connection to client {} failed", channel, e);
+            }
+            close();
+        } catch (RuntimeException e) {
+            log.error("Unexpected error while handling client {}", channel, e);
+            close();
+        }
+    }
+
+    /**
+     * Handles all complete frames of the (flipped) read buffer.
+     */
+    private void decodeFrames() throws IOException {
+        int maxFrameSize = daemon.getMaxFrameSize();
+
+        while (!closed && !closing) {
+            int start = readBuffer.position();
+            long size = readFrameSize();
+            if (size < 0) {
+                return;
+            }
+
+            // The size is chosen by the client, so it's checked before anything is allocated.
+            if (size > maxFrameSize) {
+                log.warn("Client {} sent a frame of {} bytes, disconnecting it", channel, size);
+                sendError(UNKNOWN_COMPILATION_ID, ProtocolErrorType.PARSE,
+                        "Frame size " + size + " exceeds the limit of " + maxFrameSize + " bytes");
+                closeAfterFlush();
+                return;
+            }
+
+            int frameSize = (int) size;
+            if (frameSize >= LARGE_FRAME_THRESHOLD) {
+                byte[] frame = new byte[frameSize];
+                int available = Math.min(readBuffer.remaining(), frameSize);
+                readBuffer.get(frame, 0, available);
+
+                if (available < frameSize) {
+                    largeFrame = ByteBuffer.wrap(frame);
+                    largeFrame.position(available);
+                    return;
+                }
+
+                enqueue(Packet.parseFrom(frame, 0, frameSize, InboundMessage.parser()));
+            } else if (readBuffer.remaining() >= frameSize) {
+                int offset = readBuffer.arrayOffset() + readBuffer.position();
+                readBuffer.position(readBuffer.position() + frameSize);
+                enqueue(Packet.parseFrom(readBuffer.array(), offset, frameSize, InboundMessage.parser()));
+            } else {
+                readBuffer.position(start);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues a message of the client for a worker thread. Called by the selector thread.
+     */
+    private void enqueue(Packet<InboundMessage> packet) {
+        boolean full;
+        boolean startWorker;
+        synchronized (inbox) {
+            inbox.addLast(packet);
+            inboxBytes += packet.getMessage().getSerializedSize();
+            full = inboxBytes >= MAX_INBOX_BYTES;
+            startWorker = !handling;
+            handling = true;
+        }
+
+        if (full) {
+            // Stop reading until the worker has caught up.
+            updateInterest();
+        }
+        if (startWorker) {
+            daemon.execute(this::handleInbox);
+        }
+    }
+
+    private boolean isInboxFull() {
+        synchronized (inbox) {
+            return inboxBytes >= MAX_INBOX_BYTES;
+        }
+    }
+
+    /**
+     * Handles the queued messages of the client in order. Runs on a worker thread of the daemon, so the selector
+     * thread is never blocked by a compiler.
+     * <p>
+     * Messages which are still queued when the session is closed are handled as well, as they may answer callbacks
+     * the compiler is waiting for.
+     */
+    private void handleInbox() {
+        while (true) {
+            Packet<InboundMessage> packet;
+            boolean resume;
+            synchronized (inbox) {
+                packet = inbox.pollFirst();
+                if (packet == null) {
+                    handling = false;
+                    return;
+                }
+
+                boolean wasFull = inboxBytes >= MAX_INBOX_BYTES;
+                inboxBytes -= packet.getMessage().getSerializedSize();
+                resume = wasFull && inboxBytes < MAX_INBOX_BYTES;
+            }
+
+            if (resume) {
+                selector.updateInterest(this);
+            }
+
+            try {
+                handle(packet);
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Failed to handle a message of client {}", channel, e);
+                    close();
+                }
+            } catch (RuntimeException e) {
+                log.error("Unexpected error while handling client {}", channel, e);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Reads the length prefix of the next frame.
+     *
+     * @return The (unsigned) size of the next frame or {@code -1} if the length prefix is not complete yet.
+     */
+    private long readFrameSize() throws IOException {
+        int start = readBuffer.position();
+        long size = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!readBuffer.hasRemaining()) {
+                readBuffer.position(start);
+                return -1;
+            }
+
+            byte b = readBuffer.get();
+            size |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return size;
+            }
+        }
+
+        throw new IOException("Malformed packet size");
+    }
+
+    /**
+     * Stops reading from the client and closes the session once the queued messages (e.g. a final error) have been
+     * written, or {@value #FLUSH_TIMEOUT_MILLIS} ms have passed.
+     */
+    private void closeAfterFlush() {
+        synchronized (outbox) {
+            closingDeadline = System.nanoTime() + FLUSH_TIMEOUT_MILLIS * 1_000_000;
+            closing = true;
+        }
+        selector.updateInterest(this);
+    }
+
+    /**
+     * Called by the selector thread, to close a {@link #closing} session whose flush timeout has expired.
+     */
+    void closeIfOverdue(long now) {
+        if (closing && now - closingDeadline >= 0) {
+            log.debug("Client {} did not read its last messages", channel);
+            close();
+        }
+    }
+
+    /**
+     * Called by the selector thread to apply the current interest set to the selection key.
+     */
+    void updateInterest() {
+        SelectionKey key = this.key;
+        if (key == null || !key.isValid()) {
+            return;
+        }
+
+        synchronized (outbox) {
+            int ops = closing || isInboxFull() ? 0 : SelectionKey.OP_READ;
+            if (writeInterest) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+    }
+
+    private void handle(Packet<InboundMessage> packet) throws IOException {
+        int clientId = packet.getCompilationId();
+        InboundMessage message = packet.getMessage();
+
+        switch (message.getMessageCase()) {
+            case VERSION_REQUEST:
+                OutboundMessage.VersionResponse versionResponse = daemon.getVersionResponse().toBuilder()
+                        .setId(message.getVersionRequest().getId())
+                        .build();
+                send(new Packet<>(0, OutboundMessage.newBuilder().setVersionResponse(versionResponse).build()));
+                break;
+            case COMPILE_REQUEST:
+                startCompilation(clientId, message);
+                break;
+            case MESSAGE_NOT_SET:
+                sendError(clientId, ProtocolErrorType.PARSE, "Empty message");
+                break;
+            default:
+                // Responses to callbacks of a running compilation.
+                Compilation compilation = compilations.get(clientId);
+                if (compilation == null) {
+                    sendError(clientId, ProtocolErrorType.PARAMS, "Unknown compilation id " + clientId);
+                } else {
+                    compilation.sendToCompiler(message);
+                }
+        }
+    }
+
+    private void startCompilation(int clientId, InboundMessage compileRequest) throws IOException {
+        if (closed) {
+            // Nobody would receive the result.
+            return;
+        }
+
+        if (compilations.containsKey(clientId)) {
+            sendError(clientId, ProtocolErrorType.PARAMS, "Compilation id " + clientId + " is already in use");
+            return;
+        }
+
+        IOException failure = null;
+
+        // Retry once, as the backend might have died since its last compilation.
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Backend backend;
+            try {
+                // Keeps the request queued, while all compilers are being replaced.
+                backend = daemon.pickBackend();
+            } catch (IOException e) {
+                failure = e;
+                break;
+            }
+
+            Compilation compilation = new Compilation(clientId, daemon.nextCompilationId(), backend);
+            compilations.put(clientId, compilation);
+            backend.outstanding.incrementAndGet();
+
+            try {
+                backend.getDispatcher().register(compilation.globalId, compilation);
+                backend.getDispatcher().getConnection().sendMessage(compilation.globalId, compileRequest);
+                return;
+            } catch (IOException e) {
+                failure = e;
+                backend.markFailed();
+                compilation.finish();
+            }
+        }
+
+        log.warn("Failed to start compilation {} of client {}", clientId, channel, failure);
+        sendError(clientId, ProtocolErrorType.INTERNAL, "No compiler available: " + failure.getMessage());
+    }
+
+    private void send(Packet<OutboundMessage> packet) throws IOException {
+        send(packet, null);
+    }
+
+    /**
+     * Queues the given packet for the selector thread. This never blocks.
+     *
+     * @param compilation The compilation which has to be answered, if the packet can't be delivered any more.
+     * @throws IOException If the session is closed, or the client has too many pending messages.
+     */
+    private void send(Packet<OutboundMessage> packet, @Nullable Compilation compilation) throws IOException {
+        int size = packet.getDelimitedSize();
+        boolean overflow;
+        boolean wakeUp = false;
+
+        synchronized (outbox) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+
+            overflow = pendingBytes + size > MAX_PENDING_BYTES && !outbox.isEmpty();
+            if (!overflow) {
+                pendingBytes += size;
+                outbox.addLast(new Outgoing(packet, compilation));
+                if (!writeInterest) {
+                    writeInterest = true;
+                    wakeUp = true;
+                }
+            }
+        }
+
+        if (overflow) {
+            log.warn("Client {} does not read its messages, disconnecting it", channel);
+            close();
+            throw new IOException("Too many pending messages for client " + channel);
+        }
+
+        if (wakeUp) {
+            selector.updateInterest(this);
+        }
+    }
+
+    /**
+     * Called by the selector thread when the channel is writable. Writes as many queued messages as possible.
+     */
+    void onWritable() {
+        try {
+            while (true) {
+                if (writeBuffer == null) {
+                    Outgoing next;
+                    synchronized (outbox) {
+                        if (closed) {
+                            return;
+                        }
+                        next = outbox.pollFirst();
+                        writing = next;
+                        if (next == null) {
+                            writeInterest = false;
+                            if (!closing) {
+                                updateInterest();
+                                return;
+                            }
+                        }
+                    }
+
+                    if (next == null) {
+                        // Everything has been flushed.
+                        close();
+                        return;
+                    }
+
+                    byte[] buffer = new byte[next.packet.getDelimitedSize()];
+                    next.packet.writeDelimitedTo(buffer, 0);
+                    writeBuffer = ByteBuffer.wrap(buffer);
+                }
+
+                channel.write(writeBuffer);
+                if (writeBuffer.hasRemaining()) {
+                    // Wait until the client has read some more.
+                    return;
+                }
+
+                synchronized (outbox) {
+                    pendingBytes -= writeBuffer.limit();
+                    writing = null;
+                }
+                writeBuffer = null;
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                log.debug("Failed to send to client {}", channel, e);
+            }
+            close();
+        }
+    }
+
+    private void sendError(int clientId, ProtocolErrorType type, String message) throws IOException {
+        ProtocolError protocolError = ProtocolError.newBuilder()
+                .setType(type)
+                .setId(clientId)
+                .setMessage(message)
+                .build();
+
+        send(new Packet<>(clientId, OutboundMessage.newBuilder().setError(protocolError).build()));
+    }
+
+    /**
+     * Closes the connection to the client. The callbacks which could not be delivered to the client any more are
+     * answered, so the compiler can finish the compilations.
+     */
+    @Override
+    public void close() {
+        Outgoing[] undelivered;
+        synchronized (outbox) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (writing != null) {
+                outbox.addFirst(writing);
+                writing = null;
+            }
+            undelivered = outbox.toArray(new Outgoing[0]);
+            outbox.clear();
+            pendingBytes = 0;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}", channel, e);
+        }
+
+        // The running compilations stay registered, so their callbacks can still be answered.
+        daemon.onSessionClosed(this);
+
+        for (Outgoing outgoing : undelivered) {
+            if (outgoing.compilation != null) {
+                outgoing.compilation.answerOrphaned(outgoing.packet.getMessage());
+            }
+        }
+    }
+
+    private static class Outgoing {
+
+        private final Packet<OutboundMessage> packet;
+
+        @Nullable
+        private final Compilation compilation;
+
+        private Outgoing(Packet<OutboundMessage> packet, @Nullable Compilation compilation) {
+            this.packet = packet;
+            this.compilation = compilation;
+        }
+    }
+
+    /**
+     * A compilation of the client, which runs on a {@link Backend} using a daemon-wide compilation id.
+     */
+    private class Compilation implements PacketDispatcher.PacketListener {
+
+        private final int clientId;
+
+        private final int globalId;
+
+        private final Backend backend;
+
+        private Compilation(int clientId, int globalId, Backend backend) {
+            this.clientId = clientId;
+            this.globalId = globalId;
+            this.backend = backend;
+        }
+
+        void sendToCompiler(InboundMessage message) throws IOException {
+            backend.getDispatcher().getConnection().sendMessage(globalId, message);
+        }
+
+        @Override
+        public void onMessage(OutboundMessage outboundMessage) {
+            if (outboundMessage.hasCompileResponse()) {
+                finish();
+            }
+
+            try {
+                send(new Packet<>(clientId, outboundMessage), this);
+            } catch (IOException e) {
+                log.debug("Failed to send to client {}", channel, e);
+                answerOrphaned(outboundMessage);
+            }
+        }
+
+        @Override
+        public void onFailure(IOException exception) {
+            backend.markFailed();
+
+            if (!finish() || closed) {
+                return;
+            }
+
+            try {
+                sendError(clientId, ProtocolErrorType.INTERNAL, "The compiler failed: " + exception.getMessage());
+            } catch (IOException e) {
+                log.debug("Failed to send to client {}", channel, e);
+                close();
+            }
+        }
+
+        /**
+         * @return {@code false}, if the compilation was already finished.
+         */
+        boolean finish() {
+            if (!compilations.remove(clientId, this)) {
+                return false;
+            }
+
+            backend.getDispatcher().unregister(globalId, this);
+            backend.outstanding.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * Answers the callbacks of a compilation whose client is gone, so the compiler can finish it.
+         * The answer is written by a worker thread, as this may be called by the selector thread.
+         */
+        void answerOrphaned(OutboundMessage outboundMessage) {
+            InboundMessage.Builder response = InboundMessage.newBuilder();
+
+            switch (outboundMessage.getMessageCase()) {
+                case CANONICALIZE_REQUEST:
+                    response.getCanonicalizeResponseBuilder()
+                            .setId(outboundMessage.getCanonicalizeRequest().getId())
+                            .setError(CLIENT_GONE);
+                    break;
+                case IMPORT_REQUEST:
+                    response.getImportResponseBuilder()
+                            .setId(outboundMessage.getImportRequest().getId())
+                            .setError(CLIENT_GONE);
+                    break;
+                case FILE_IMPORT_REQUEST:
+                    response.getFileImportResponseBuilder()
+                            .setId(outboundMessage.getFileImportRequest().getId())
+                            .setError(CLIENT_GONE);
+                    break;
+                case FUNCTION_CALL_REQUEST:
+                    response.getFunctionCallResponseBuilder()
+                            .setId(outboundMessage.getFunctionCallRequest().getId())
+                            .setError(CLIENT_GONE);
+                    break;
+                default:
+                    return;
+            }
+
+            InboundMessage answer = response.build();
+            daemon.execute(() -> {
+                try {
+                    sendToCompiler(answer);
+                } catch (IOException e) {
+                    log.debug("Failed to answer an orphaned callback", e);
+                }
+            });
+        }
+    }
+}
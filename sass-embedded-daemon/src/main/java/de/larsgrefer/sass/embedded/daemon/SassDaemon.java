@@ -0,0 +1,461 @@
+package de.larsgrefer.sass.embedded.daemon;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
+import de.larsgrefer.sass.embedded.connection.ConnectionSupplier;
+import de.larsgrefer.sass.embedded.connection.PacketDispatcher;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A daemon which owns a fixed number of warm compiler processes and shares them with all its clients.
+ * <p>
+ * Clients speak the embedded sass protocol over TCP or Unix domain sockets, so any host can use the daemon instead
+ * of starting its own compiler:
+ * <pre>{@code
+ * SassCompiler sassCompiler = new SassCompiler(() -> ConnectionFactory.ofSocket(new InetSocketAddress("localhost", 9876)));
+ * }</pre>
+ * The compilation ids chosen by the clients are remapped to ids which are unique within the daemon, so the
+ * compilations of all clients can be multiplexed over the same compilers.
+ * Every compilation is started on the compiler with the fewest running compilations. Version requests are answered
+ * by the daemon itself.
+ * <p>
+ * The channels of all clients are read and written by a single selector thread, which never blocks.
+ * The messages of the clients are forwarded to the compilers by worker threads, so a compiler which is slow to read
+ * its input, or a compilation which waits for all failed compilers to be replaced, only delays the client which sent
+ * it.
+ * <p>
+ * If a client disconnects while its compilations are still running, the callbacks of these compilations are answered
+ * with errors, so the compilers don't wait for the client forever.
+ *
+ * @author Lars Grefer
+ */
+@Slf4j
+public class SassDaemon implements Closeable {
+
+    public static final int DEFAULT_PORT = 9876;
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final ConnectionSupplier connectionSupplier;
+
+    private final Backend[] backends;
+
+    private final AtomicInteger nextCompilationId = new AtomicInteger(1);
+
+    /**
+     * The number of compilers which had to be replaced, because they failed.
+     */
+    private final AtomicLong restartCount = new AtomicLong();
+
+    @Getter
+    private final OutboundMessage.VersionResponse versionResponse;
+
+    private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+
+    private final Set<ClientSession> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Reads and writes the channels of all clients.
+     */
+    private final ClientSelector selector;
+
+    /**
+     * Forwards the messages of the clients to the compilers.
+     */
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "sass-daemon-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CountDownLatch closedLatch = new CountDownLatch(1);
+
+    private volatile boolean closed;
+
+    /**
+     * The number of failed attempts to replace a compiler. Guarded by {@code this}.
+     */
+    private long replacementFailures;
+
+    /**
+     * The maximum size of a single message a client may send. Larger messages are rejected before they are read and
+     * the client is disconnected, so a misbehaving client can't make the daemon allocate huge buffers.
+     */
+    @Getter
+    @Setter
+    private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * @param connectionSupplier Creates the compilers of the daemon.
+     * @param compilerCount      The number of compilers which are started (and kept running) by the daemon.
+     */
+    public SassDaemon(@NonNull ConnectionSupplier connectionSupplier, int compilerCount) throws IOException {
+        if (compilerCount < 1) {
+            throw new IllegalArgumentException("compilerCount must be positive");
+        }
+
+        this.connectionSupplier = connectionSupplier;
+        this.backends = new Backend[compilerCount];
+        this.selector = new ClientSelector();
+
+        try {
+            for (int i = 0; i < compilerCount; i++) {
+                backends[i] = new Backend(connectionSupplier.get());
+            }
+            this.versionResponse = fetchVersion(backends[0]);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a daemon with the given number of bundled compilers.
+     */
+    public SassDaemon(int compilerCount) throws IOException {
+        this(ConnectionFactory::bundled, compilerCount);
+    }
+
+    private static OutboundMessage.VersionResponse fetchVersion(Backend backend) throws IOException {
+        try (PacketDispatcher.Mailbox mailbox = backend.getDispatcher().open(0)) {
+            mailbox.send(InboundMessage.newBuilder()
+                    .setVersionRequest(InboundMessage.VersionRequest.getDefaultInstance())
+                    .build()
+            );
+            return mailbox.receive().getVersionResponse();
+        }
+    }
+
+    /**
+     * Accept clients on the given TCP port of the loopback interface.
+     *
+     * @return The actual address, which is useful if port {@code 0} was requested.
+     */
+    public InetSocketAddress listen(int port) throws IOException {
+        return listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Accept clients on the given TCP address.
+     * <p>
+     * <b>The daemon does not authenticate its clients.</b> Every client can compile arbitrary files and read
+     * every file the daemon has access to, so only use addresses which are not reachable by untrusted peers.
+     * Use {@link #listen(int)} to listen on the loopback interface or {@link #listen(Path)} for a Unix domain socket,
+     * whose access can be restricted with file permissions.
+     *
+     * @return The actual address, which is useful if port {@code 0} was requested.
+     */
+    public InetSocketAddress listen(@NonNull InetSocketAddress address) throws IOException {
+        if (!address.getAddress().isLoopbackAddress()) {
+            log.warn("Listening on {}, which is not a loopback address. The daemon does not authenticate its clients.", address);
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        startAccepting(serverChannel);
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Accept clients on a Unix domain socket at the given path.
+     * A stale socket file at this path is replaced.
+     */
+    public void listen(@NonNull Path socketFile) throws IOException {
+        Files.deleteIfExists(socketFile);
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(socketFile));
+        startAccepting(serverChannel);
+    }
+
+    private void startAccepting(ServerSocketChannel serverChannel) throws IOException {
+        if (closed) {
+            serverChannel.close();
+            throw new IOException("The daemon has been closed");
+        }
+
+        serverChannels.add(serverChannel);
+        log.info("Accepting clients on {}", serverChannel.getLocalAddress());
+
+        Thread acceptor = new Thread(() -> acceptLoop(serverChannel), "sass-daemon-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptLoop(ServerSocketChannel serverChannel) {
+        try {
+            while (!closed) {
+                SocketChannel channel = serverChannel.accept();
+
+                ClientSession session = new ClientSession(this, channel, selector);
+                sessions.add(session);
+
+                try {
+                    session.start();
+                } catch (IOException e) {
+                    log.warn("Failed to register client {}", channel, e);
+                    session.close();
+                }
+            }
+        } catch (ClosedChannelException e) {
+            log.debug("Stopped accepting clients on {}", serverChannel);
+        } catch (IOException e) {
+            if (!closed) {
+                log.error("Failed to accept clients on {}", serverChannel, e);
+            }
+        }
+    }
+
+    void onSessionClosed(ClientSession session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * @return A new compilation id, which is unique within this daemon.
+     */
+    int nextCompilationId() {
+        int id;
+        do {
+            // Skip 0 (used for version requests) and 0xffffffff (used for errors which can't be attributed to a compilation).
+            id = nextCompilationId.getAndIncrement() & 0x7fffffff;
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Runs the given task on a worker thread. Everything which may block on a compiler has to be run this way instead
+     * of on the selector thread.
+     */
+    void execute(Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.debug("The daemon has been closed, dropping {}", task);
+        }
+    }
+
+    /**
+     * Returns the compiler with the fewest running compilations.
+     * <p>
+     * Failed compilers are replaced in the background, as starting a compiler takes a while. Only if all compilers
+     * have failed, this waits for a replacement, so it must only be called by {@link #execute(Runnable) worker threads}.
+     */
+    synchronized Backend pickBackend() throws IOException {
+        while (true) {
+            if (closed) {
+                throw new IOException("The daemon has been closed");
+            }
+
+            Backend best = null;
+            for (int i = 0; i < backends.length; i++) {
+                Backend backend = backends[i];
+
+                if (backend.isFailed()) {
+                    if (!backend.replacing) {
+                        backend.replacing = true;
+                        replaceAsync(i, backend);
+                    }
+                } else if (best == null || backend.outstanding.get() < best.outstanding.get()) {
+                    best = backend;
+                }
+            }
+
+            if (best != null) {
+                return best;
+            }
+
+            long failures = replacementFailures;
+            try {
+                // Releases the monitor, until a replacement has been installed or failed.
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a compiler");
+            }
+            if (replacementFailures != failures) {
+                throw new IOException("Failed to replace the failed compilers");
+            }
+        }
+    }
+
+    private void replaceAsync(int index, Backend failed) {
+        log.info("Replacing failed compiler {}", failed.getDispatcher().getConnection());
+
+        Thread thread = new Thread(() -> replace(index, failed), "sass-daemon-restart");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a new compiler without holding the monitor of the daemon and installs it in place of the failed one.
+     */
+    private void replace(int index, Backend failed) {
+        closeQuietly(failed);
+
+        Backend replacement;
+        try {
+            replacement = new Backend(connectionSupplier.get());
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to replace compiler {}", failed.getDispatcher().getConnection(), e);
+            synchronized (this) {
+                // The next compilation tries again.
+                failed.replacing = false;
+                replacementFailures++;
+                notifyAll();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed) {
+                backends[index] = replacement;
+                restartCount.incrementAndGet();
+                notifyAll();
+                return;
+            }
+        }
+
+        closeQuietly(replacement);
+    }
+
+    private static void closeQuietly(Backend backend) {
+        try {
+            backend.close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}", backend, e);
+        }
+    }
+
+    public int getCompilerCount() {
+        return backends.length;
+    }
+
+    public int getClientCount() {
+        return sessions.size();
+    }
+
+    public long getRestartCount() {
+        return restartCount.get();
+    }
+
+    /**
+     * Blocks until the daemon is {@link #close() closed}.
+     */
+    public void awaitClose() throws InterruptedException {
+        closedLatch.await();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        for (ServerSocketChannel serverChannel : serverChannels) {
+            SocketAddress address = serverChannel.isOpen() ? serverChannel.getLocalAddress() : null;
+            serverChannel.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            }
+        }
+
+        for (ClientSession session : sessions) {
+            session.close();
+        }
+        selector.close();
+
+        synchronized (this) {
+            notifyAll();
+            for (Backend backend : backends) {
+                if (backend != null) {
+                    backend.close();
+                }
+            }
+        }
+        workers.shutdown();
+
+        closedLatch.countDown();
+    }
+
+    /**
+     * Starts a daemon.
+     * <p>
+     * Options:
+     * <ul>
+     *     <li>{@code --port <port>}: Listen on the given TCP port of the loopback interface (default {@value DEFAULT_PORT})</li>
+     *     <li>{@code --socket <path>}: Listen on a Unix domain socket instead</li>
+     *     <li>{@code --compilers <n>}: The number of compilers (default: the number of processors)</li>
+     *     <li>{@code --max-frame-size <bytes>}: The maximum size of a message of a client (default {@value DEFAULT_MAX_FRAME_SIZE})</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        Path socket = null;
+        int compilers = Runtime.getRuntime().availableProcessors();
+        int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--socket":
+                    socket = Paths.get(args[++i]);
+                    break;
+                case "--compilers":
+                    compilers = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-frame-size":
+                    maxFrameSize = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        SassDaemon daemon = new SassDaemon(compilers);
+        daemon.setMaxFrameSize(maxFrameSize);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                daemon.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the daemon", e);
+            }
+        }, "sass-daemon-shutdown"));
+
+        if (socket != null) {
+            daemon.listen(socket);
+        } else {
+            daemon.listen(port);
+        }
+
+        daemon.awaitClose();
+    }
+}
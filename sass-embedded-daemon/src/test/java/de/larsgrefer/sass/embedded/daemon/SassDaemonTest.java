@@ -0,0 +1,257 @@
+package de.larsgrefer.sass.embedded.daemon;
+
+import com.google.protobuf.CodedOutputStream;
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.ProtocolErrorType;
+import com.sass_lang.embedded_protocol.Value;
+import de.larsgrefer.sass.embedded.CompileSuccess;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import de.larsgrefer.sass.embedded.connection.ChannelConnection;
+import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
+import de.larsgrefer.sass.embedded.connection.Packet;
+import de.larsgrefer.sass.embedded.connection.ProcessConnection;
+import de.larsgrefer.sass.embedded.functions.HostFunction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SassDaemonTest {
+
+    private SassDaemon daemon;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        daemon = new SassDaemon(2);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        daemon.close();
+    }
+
+    @Test
+    void clientsShareTheCompilers() throws Exception {
+        InetSocketAddress address = daemon.listen(0);
+
+        List<SassCompiler> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            SassCompiler client = new SassCompiler(() -> ConnectionFactory.ofSocket(address));
+            client.registerFunction(clientNumber(i));
+            clients.add(client);
+        }
+
+        try {
+            assertThat(clients.get(0).getVersion().getCompilerVersion())
+                    .isEqualTo(daemon.getVersionResponse().getCompilerVersion());
+
+            // All clients use the same compilation ids, the daemon has to keep them apart.
+            List<CompletableFuture<CompileSuccess>> futures = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                futures.add(clients.get(i % 3).compileScssStringAsync(".a { b: client-number() }"));
+            }
+
+            for (int i = 0; i < 30; i++) {
+                assertThat(futures.get(i).get().getCss()).contains("b: " + i % 3);
+            }
+
+            assertThat(daemon.getClientCount()).isEqualTo(3);
+        } finally {
+            for (SassCompiler client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    void stalledClientDoesNotBlockOthers() throws Exception {
+        InetSocketAddress address = daemon.listen(0);
+
+        InboundMessage largeCompilation = InboundMessage.newBuilder()
+                .setCompileRequest(InboundMessage.CompileRequest.newBuilder()
+                        .setString(InboundMessage.CompileRequest.StringInput.newBuilder()
+                                .setSource("@for $i from 1 through 200000 { .item-#{$i} { width: $i * 1px; } }")))
+                .build();
+
+        // This client never reads its responses, which don't fit into the socket buffers.
+        try (Socket stalledClient = new Socket()) {
+            stalledClient.setReceiveBufferSize(4096);
+            stalledClient.connect(address);
+
+            for (int id = 1; id <= daemon.getCompilerCount(); id++) {
+                new Packet<>(id, largeCompilation).writeDelimitedTo(stalledClient.getOutputStream());
+            }
+            stalledClient.getOutputStream().flush();
+
+            try (SassCompiler client = new SassCompiler(() -> ConnectionFactory.ofSocket(address))) {
+                // Keep compiling until the large compilations are done and their responses are stuck.
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (System.nanoTime() < end) {
+                    CompileSuccess success = client.compileScssStringAsync("a { b: 1 + 2 }").get(10, TimeUnit.SECONDS);
+                    assertThat(success.getCss()).contains("b: 3");
+                    Thread.sleep(50);
+                }
+            }
+        }
+    }
+
+    @Test
+    void oversizedFramesAreRejected() throws Exception {
+        daemon.setMaxFrameSize(1024);
+        InetSocketAddress address = daemon.listen(0);
+
+        try (Socket client = new Socket()) {
+            client.connect(address);
+            client.setSoTimeout(10_000);
+
+            // Only the length prefix of a 1 GiB frame.
+            CodedOutputStream out = CodedOutputStream.newInstance(client.getOutputStream());
+            out.writeUInt32NoTag(1024 * 1024 * 1024);
+            out.flush();
+
+            Packet<OutboundMessage> response = Packet.parseDelimitedFrom(client.getInputStream(), OutboundMessage.parser());
+            assertThat(response.getMessage().getError().getType()).isEqualTo(ProtocolErrorType.PARSE);
+
+            // The client is disconnected afterwards.
+            assertThat(client.getInputStream().read()).isEqualTo(-1);
+        }
+
+        try (SassCompiler client = new SassCompiler(() -> ConnectionFactory.ofSocket(address))) {
+            assertThat(client.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+        }
+    }
+
+    @Test
+    void failedCompilerIsReplacedInTheBackground() throws Exception {
+        List<ProcessConnection> connections = new CopyOnWriteArrayList<>();
+        CountDownLatch replacementAllowed = new CountDownLatch(1);
+
+        try (SassDaemon restartingDaemon = new SassDaemon(() -> {
+            if (connections.size() >= 2) {
+                try {
+                    replacementAllowed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            ProcessConnection connection = ConnectionFactory.bundled();
+            connections.add(connection);
+            return connection;
+        }, 2)) {
+            InetSocketAddress address = restartingDaemon.listen(0);
+
+            // The compiler dies while it's idle.
+            connections.get(0).close();
+
+            try (SassCompiler client = new SassCompiler(() -> ConnectionFactory.ofSocket(address))) {
+                // The remaining compiler is used, while the replacement is still starting.
+                for (int i = 0; i < 5; i++) {
+                    CompileSuccess success = client.compileScssStringAsync("a { b: " + i + " + 2 }").get(10, TimeUnit.SECONDS);
+                    assertThat(success.getCss()).contains("b: " + (i + 2));
+                }
+
+                replacementAllowed.countDown();
+
+                long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (restartingDaemon.getRestartCount() == 0 && System.nanoTime() < end) {
+                    Thread.sleep(10);
+                }
+                assertThat(restartingDaemon.getRestartCount()).isEqualTo(1);
+                assertThat(connections).hasSize(3);
+            }
+        } finally {
+            replacementAllowed.countDown();
+        }
+    }
+
+    @Test
+    void waitingForReplacementDoesNotBlockOtherClients() throws Exception {
+        List<ProcessConnection> connections = new CopyOnWriteArrayList<>();
+        CountDownLatch replacementAllowed = new CountDownLatch(1);
+
+        try (SassDaemon restartingDaemon = new SassDaemon(() -> {
+            if (!connections.isEmpty()) {
+                try {
+                    replacementAllowed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            ProcessConnection connection = ConnectionFactory.bundled();
+            connections.add(connection);
+            return connection;
+        }, 1)) {
+            InetSocketAddress address = restartingDaemon.listen(0);
+
+            // The only compiler dies, so the next compilation has to wait for its replacement.
+            connections.get(0).close();
+
+            try (SassCompiler waitingClient = new SassCompiler(() -> ConnectionFactory.ofSocket(address));
+                 SassCompiler otherClient = new SassCompiler(() -> ConnectionFactory.ofSocket(address))) {
+                CompletableFuture<CompileSuccess> pending = waitingClient.compileScssStringAsync("a { b: 1 + 2 }");
+
+                // The daemon keeps serving the other client in the meantime.
+                CompletableFuture<String> version = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return otherClient.getVersion().getCompilerVersion();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                assertThat(version.get(10, TimeUnit.SECONDS))
+                        .isEqualTo(restartingDaemon.getVersionResponse().getCompilerVersion());
+                assertThat(pending).isNotDone();
+
+                replacementAllowed.countDown();
+
+                assertThat(pending.get(10, TimeUnit.SECONDS).getCss()).contains("b: 3");
+            }
+        } finally {
+            replacementAllowed.countDown();
+        }
+    }
+
+    @Test
+    void unixDomainSocket() throws Exception {
+        Path socket = tempDir.resolve("sass.sock");
+        daemon.listen(socket);
+
+        try (SassCompiler client = new SassCompiler(new ChannelConnection(SocketChannel.open(UnixDomainSocketAddress.of(socket))))) {
+            assertThat(client.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+        }
+    }
+
+    private static HostFunction clientNumber(int number) {
+        return new HostFunction("client-number", Collections.emptyList()) {
+            @Override
+            public Value invoke(List<Value> arguments) {
+                return Value.newBuilder()
+                        .setNumber(Value.Number.newBuilder().setValue(number))
+                        .build();
+            }
+        };
+    }
+}
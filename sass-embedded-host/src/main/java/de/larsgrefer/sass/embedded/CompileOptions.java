@@ -0,0 +1,221 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest;
+import com.sass_lang.embedded_protocol.OutputStyle;
+import de.larsgrefer.sass.embedded.functions.HostFunction;
+import de.larsgrefer.sass.embedded.importer.CustomImporter;
+import de.larsgrefer.sass.embedded.importer.FileImporter;
+import lombok.*;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of options for a compilation.
+ * <p>
+ * The parts of the {@link CompileRequest} which do not depend on the input are built once per {@link CompileOptions}
+ * instance, so instances should be re-used.
+ *
+ * @author Lars Grefer
+ * @see SassCompiler#getCompileOptions()
+ * @see SassCompiler#compileFile(File, CompileOptions)
+ * @see SassCompiler#compileString(CompileRequest.StringInput, CompileOptions)
+ */
+@Value
+@Builder(toBuilder = true)
+@With
+public class CompileOptions {
+
+    /**
+     * How to format the CSS output.
+     *
+     * @see CompileRequest#getStyle()
+     */
+    @NonNull
+    @Builder.Default
+    OutputStyle outputStyle = OutputStyle.EXPANDED;
+
+    /**
+     * Whether to generate a source map. Note that this will *not* add a source
+     * map comment to the stylesheet; that's up to the host or its users.
+     *
+     * @see CompileRequest#getSourceMap()
+     */
+    boolean generateSourceMaps;
+
+    /**
+     * Whether to use terminal colors in the formatted message of errors and
+     * logs.
+     *
+     * @see CompileRequest#getAlertColor()
+     */
+    boolean alertColor;
+
+    /**
+     * Whether to encode the formatted message of errors and logs in ASCII.
+     *
+     * @see CompileRequest#getAlertAscii()
+     */
+    boolean alertAscii;
+
+    /**
+     * Whether to report all deprecation warnings or only the first few ones.
+     * If this is `false`, the compiler may choose not to send events for
+     * repeated deprecation warnings. If this is `true`, the compiler must emit
+     * an event for every deprecation warning it encounters.
+     *
+     * @see CompileRequest#getVerbose()
+     */
+    boolean verbose;
+
+    /**
+     * Whether to omit events for deprecation warnings coming from dependencies
+     * (files loaded from a different importer than the input).
+     *
+     * @see CompileRequest#getQuietDeps()
+     */
+    boolean quietDeps;
+
+    /**
+     * Whether to include sources in the generated sourcemap
+     *
+     * @see CompileRequest#getSourceMapIncludeSources()
+     */
+    boolean sourceMapIncludeSources;
+
+    /**
+     * Whether to emit a `@charset`/BOM for non-ASCII stylesheets.
+     *
+     * @see CompileRequest#getCharset()
+     */
+    boolean emitCharset;
+
+    /**
+     * Whether to silently suppresses all {@link com.sass_lang.embedded_protocol.OutboundMessage.LogEvent `LogEvent`s}.
+     *
+     * @see CompileRequest#getSilent()
+     */
+    boolean silent;
+
+    /**
+     * How long to wait for the compilation to finish, or {@code null} to wait forever.
+     * <p>
+     * As the protocol has no way to abort a single compilation, the compiler process is restarted when the timeout elapses.
+     * Other compilations which were running on that process are retried on the new one.
+     * <p>
+     * Callbacks which run on the calling thread can not be interrupted, so use a separate
+     * {@link SassCompiler#setCallbackExecutor(java.util.concurrent.Executor) callbackExecutor} if your importers or functions might hang.
+     */
+    @Nullable
+    Duration timeout;
+
+    @Singular
+    List<File> loadPaths;
+
+    @Singular
+    List<CustomImporter> customImporters;
+
+    @Singular
+    List<FileImporter> fileImporters;
+
+    @Singular
+    List<HostFunction> functions;
+
+    @Getter(value = AccessLevel.PACKAGE, lazy = true)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    Map<Integer, CustomImporter> customImportersById = indexCustomImporters();
+
+    @Getter(value = AccessLevel.PACKAGE, lazy = true)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    Map<Integer, FileImporter> fileImportersById = indexFileImporters();
+
+    /**
+     * The functions by name. If multiple functions share a name, the last one wins.
+     */
+    @Getter(value = AccessLevel.PACKAGE, lazy = true)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    Map<String, HostFunction> functionsByName = indexFunctions();
+
+    /**
+     * The input-independent part of the {@link CompileRequest}.
+     */
+    @Getter(value = AccessLevel.PACKAGE, lazy = true)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    CompileRequest requestTemplate = buildRequestTemplate();
+
+    /**
+     * @return A new {@link CompileRequest.Builder} which already contains all options, but no input.
+     */
+    public CompileRequest.Builder newRequestBuilder() {
+        return getRequestTemplate().toBuilder();
+    }
+
+    private Map<Integer, CustomImporter> indexCustomImporters() {
+        Map<Integer, CustomImporter> result = new LinkedHashMap<>();
+        customImporters.forEach(importer -> result.put(importer.getId(), importer));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private Map<Integer, FileImporter> indexFileImporters() {
+        Map<Integer, FileImporter> result = new LinkedHashMap<>();
+        fileImporters.forEach(importer -> result.put(importer.getId(), importer));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private Map<String, HostFunction> indexFunctions() {
+        Map<String, HostFunction> result = new LinkedHashMap<>();
+        functions.forEach(function -> result.put(function.getName(), function));
+        return Collections.unmodifiableMap(result);
+    }
+
+    private CompileRequest buildRequestTemplate() {
+        CompileRequest.Builder builder = CompileRequest.newBuilder();
+
+        builder.setStyle(outputStyle);
+        builder.setSourceMap(generateSourceMaps);
+
+        for (File loadPath : loadPaths) {
+            CompileRequest.Importer importer = CompileRequest.Importer.newBuilder()
+                    .setPath(loadPath.getAbsolutePath())
+                    .build();
+            builder.addImporters(importer);
+        }
+
+        for (CustomImporter value : getCustomImportersById().values()) {
+            CompileRequest.Importer importer = CompileRequest.Importer.newBuilder()
+                    .setImporterId(value.getId())
+                    .build();
+            builder.addImporters(importer);
+        }
+
+        for (FileImporter value : getFileImportersById().values()) {
+            CompileRequest.Importer importer = CompileRequest.Importer.newBuilder()
+                    .setFileImporterId(value.getId())
+                    .build();
+            builder.addImporters(importer);
+        }
+
+        for (HostFunction sassFunction : getFunctionsByName().values()) {
+            builder.addGlobalFunctions(sassFunction.getSignature());
+        }
+
+        builder.setAlertColor(alertColor);
+        builder.setAlertAscii(alertAscii);
+        builder.setVerbose(verbose);
+        builder.setQuietDeps(quietDeps);
+        builder.setSourceMapIncludeSources(sourceMapIncludeSources);
+        builder.setCharset(emitCharset);
+        builder.setSilent(silent);
+
+        return builder.build();
+    }
+}
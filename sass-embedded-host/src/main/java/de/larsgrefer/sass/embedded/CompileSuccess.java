@@ -1,9 +1,18 @@
 package de.larsgrefer.sass.embedded;
 
+import androidx.annotation.RequiresApi;
 import com.google.protobuf.ByteString;
 import com.sass_lang.embedded_protocol.OutboundMessage;
+import de.larsgrefer.sass.embedded.util.IOUtils;
 import lombok.Getter;
+import lombok.NonNull;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
 import java.util.List;
 
 /**
@@ -32,6 +41,9 @@ public class CompileSuccess implements CompilationResult {
 
     /**
      * The compiled CSS.
+     * <p>
+     * For large outputs, this is a zero-copy view of the bytes received from the compiler.
+     * Prefer {@link ByteString#writeTo(java.io.OutputStream)} or {@link ByteString#newInput()} over {@link ByteString#toByteArray()}.
      */
     public ByteString getCssBytes() {
         return compileResponse.getSuccess().getCssBytes();
@@ -57,6 +69,94 @@ public class CompileSuccess implements CompilationResult {
         return compileResponse.getSuccess().getSourceMapBytes();
     }
 
+    /**
+     * Writes the compiled CSS to the given stream, without creating an intermediate copy.
+     * <p>
+     * The stream is neither flushed nor closed.
+     */
+    public void writeCssTo(@NonNull OutputStream outputStream) throws IOException {
+        getCssBytes().writeTo(outputStream);
+    }
+
+    /**
+     * Writes the compiled CSS to the given channel, without creating an intermediate copy.
+     * <p>
+     * The channel is not closed.
+     */
+    public void writeCssTo(@NonNull WritableByteChannel channel) throws IOException {
+        write(getCssBytes(), channel);
+    }
+
+    /**
+     * Atomically writes the compiled CSS to the given file.
+     * <p>
+     * The CSS is written to a temporary file in the same directory first, which then replaces the target file,
+     * so readers of the target file never see partially written CSS.
+     */
+    @RequiresApi(26)
+    public void writeCssTo(@NonNull Path file) throws IOException {
+        writeAtomically(getCssBytes(), file);
+    }
+
+    /**
+     * Writes the source map to the given stream, without creating an intermediate copy.
+     * <p>
+     * The stream is neither flushed nor closed.
+     *
+     * @see #getSourceMapBytes()
+     */
+    public void writeSourceMapTo(@NonNull OutputStream outputStream) throws IOException {
+        getSourceMapBytes().writeTo(outputStream);
+    }
+
+    /**
+     * Writes the source map to the given channel, without creating an intermediate copy.
+     * <p>
+     * The channel is not closed.
+     *
+     * @see #getSourceMapBytes()
+     */
+    public void writeSourceMapTo(@NonNull WritableByteChannel channel) throws IOException {
+        write(getSourceMapBytes(), channel);
+    }
+
+    /**
+     * Atomically writes the source map to the given file.
+     *
+     * @see #writeCssTo(Path)
+     * @see #getSourceMapBytes()
+     */
+    @RequiresApi(26)
+    public void writeSourceMapTo(@NonNull Path file) throws IOException {
+        writeAtomically(getSourceMapBytes(), file);
+    }
+
+    private static void write(ByteString bytes, WritableByteChannel channel) throws IOException {
+        for (ByteBuffer buffer : bytes.asReadOnlyByteBufferList()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    @RequiresApi(26)
+    private static void writeAtomically(ByteString bytes, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+
+        Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                write(bytes, channel);
+                channel.force(false);
+            }
+
+            IOUtils.move(tempFile, file);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
     /**
      * The canonical URLs of all source files loaded during the compilation.
      */
@@ -0,0 +1,181 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest.StringInput;
+import com.sass_lang.embedded_protocol.OutputStyle;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles a batch of entrypoints in parallel, using the compilers of a {@link SassCompilerPool}.
+ * <p>
+ * A failing entrypoint does not abort the batch. Its failure is recorded in the {@link Result} instead.
+ *
+ * @author Lars Grefer
+ * @see SassCompilerPool
+ */
+public class SassBatchCompiler {
+
+    private final SassCompilerPool pool;
+
+    /**
+     * How to format the CSS output.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private OutputStyle outputStyle = OutputStyle.EXPANDED;
+
+    /**
+     * How many entrypoints are compiled at the same time.
+     */
+    @Getter
+    @Setter
+    private int parallelism;
+
+    public SassBatchCompiler(@NonNull SassCompilerPool pool) {
+        this.pool = pool;
+        this.parallelism = pool.getMaxSize();
+    }
+
+    public Result<File> compileFiles(@NonNull Collection<File> files) throws InterruptedIOException {
+        return compileAll(files, SassCompiler::compileFile);
+    }
+
+    public Result<URL> compileUrls(@NonNull Collection<URL> urls) throws InterruptedIOException {
+        return compileAll(urls, SassCompiler::compile);
+    }
+
+    public Result<StringInput> compileStrings(@NonNull Collection<StringInput> stringInputs) throws InterruptedIOException {
+        return compileAll(stringInputs, SassCompiler::compileString);
+    }
+
+    private <T> Result<T> compileAll(Collection<T> inputs, Compilation<T> compilation) throws InterruptedIOException {
+        long batchStart = System.nanoTime();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, inputs.size())), runnable -> {
+            Thread thread = new Thread(runnable, "sass-batch-compiler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<Entry<T>>> futures = new ArrayList<>(inputs.size());
+            for (T input : inputs) {
+                futures.add(executorService.submit(() -> compileEntry(input, compilation)));
+            }
+
+            List<Entry<T>> entries = new ArrayList<>(futures.size());
+            for (Future<Entry<T>> future : futures) {
+                try {
+                    entries.add(future.get());
+                } catch (ExecutionException e) {
+                    // compileEntry() catches everything, so this is not expected to happen.
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+
+            return new Result<>(Collections.unmodifiableList(entries), Duration.ofNanos(System.nanoTime() - batchStart));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the batch to complete");
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private <T> Entry<T> compileEntry(T input, Compilation<T> compilation) {
+        long start = System.nanoTime();
+        try (SassCompiler sassCompiler = pool.lease()) {
+            CompileSuccess compileSuccess = compilation.compile(sassCompiler, input, outputStyle);
+            return new Entry<>(input, compileSuccess, null, Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            return new Entry<>(input, null, e, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Compilation<T> {
+        CompileSuccess compile(SassCompiler sassCompiler, T input, OutputStyle outputStyle) throws IOException, SassCompilationFailedException;
+    }
+
+    /**
+     * The outcome of a whole batch.
+     *
+     * @param <T> The type of the entrypoints.
+     */
+    @lombok.Value
+    public static class Result<T> {
+
+        /**
+         * One entry per entrypoint, in the order of the input collection.
+         */
+        List<Entry<T>> entries;
+
+        /**
+         * The wall-clock time of the whole batch.
+         */
+        Duration totalTime;
+
+        public boolean isSuccessful() {
+            return entries.stream().allMatch(Entry::isSuccessful);
+        }
+
+        public List<Entry<T>> getSuccesses() {
+            return entries.stream().filter(Entry::isSuccessful).collect(Collectors.toList());
+        }
+
+        public List<Entry<T>> getFailures() {
+            return entries.stream().filter(entry -> !entry.isSuccessful()).collect(Collectors.toList());
+        }
+
+        /**
+         * @return The sum of the compilation times of all entries.
+         */
+        public Duration getCumulativeTime() {
+            return entries.stream().map(Entry::getTime).reduce(Duration.ZERO, Duration::plus);
+        }
+    }
+
+    /**
+     * The outcome of a single entrypoint.
+     *
+     * @param <T> The type of the entrypoint.
+     */
+    @lombok.Value
+    public static class Entry<T> {
+
+        T input;
+
+        @Nullable
+        CompileSuccess compileSuccess;
+
+        /**
+         * The {@link SassCompilationFailedException} or {@link IOException} which caused the compilation to fail.
+         */
+        @Nullable
+        Exception failure;
+
+        /**
+         * The time spent on this entrypoint, including the time it took to lease a compiler.
+         */
+        Duration time;
+
+        public boolean isSuccessful() {
+            return compileSuccess != null;
+        }
+    }
+}
@@ -7,8 +7,10 @@ import com.sass_lang.embedded_protocol.OutboundMessage.CanonicalizeRequest;
 import com.sass_lang.embedded_protocol.OutboundMessage.FileImportRequest;
 import com.sass_lang.embedded_protocol.OutboundMessage.FunctionCallRequest;
 import com.sass_lang.embedded_protocol.OutboundMessage.ImportRequest;
+import de.larsgrefer.sass.embedded.cache.CompilationCache;
 import de.larsgrefer.sass.embedded.connection.CompilerConnection;
-import de.larsgrefer.sass.embedded.connection.Packet;
+import de.larsgrefer.sass.embedded.connection.ConnectionSupplier;
+import de.larsgrefer.sass.embedded.connection.PacketDispatcher;
 import de.larsgrefer.sass.embedded.functions.HostFunction;
 import de.larsgrefer.sass.embedded.importer.CustomImporter;
 import de.larsgrefer.sass.embedded.importer.FileImporter;
@@ -17,21 +19,31 @@ import de.larsgrefer.sass.embedded.importer.RelativeUrlImporter;
 import de.larsgrefer.sass.embedded.logging.LoggingHandler;
 import de.larsgrefer.sass.embedded.logging.Slf4jLoggingHandler;
 import de.larsgrefer.sass.embedded.util.SyntaxUtil;
-import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.intellij.lang.annotations.Language;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.*;
 import java.net.URL;
 import java.net.URLConnection;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.UnaryOperator;
 
 import static de.larsgrefer.sass.embedded.util.ProtocolUtil.inboundMessage;
 
 /**
+ * A {@link SassCompiler} can be shared between threads.
+ * Concurrent compilations are multiplexed over the same {@link CompilerConnection} by a {@link PacketDispatcher}.
+ *
  * @author Lars Grefer
  * @see SassCompilerFactory#bundled()
  */
@@ -39,168 +51,442 @@ import static de.larsgrefer.sass.embedded.util.ProtocolUtil.inboundMessage;
 public class SassCompiler implements Closeable {
 
     /**
-     * How to format the CSS output.
-     *
-     * @see CompileRequest#getStyle()
+     * The {@link CompileOptions} used for all compilations which don't specify their own.
+     * <p>
+     * The setters of this class replace this instance with an updated copy, so running compilations are not affected.
      */
-    @Getter
-    @Setter
-    private OutputStyle outputStyle = OutputStyle.EXPANDED;
+    private final AtomicReference<CompileOptions> compileOptions = new AtomicReference<>(CompileOptions.builder().build());
+
+    private final List<File> loadPathsView = new LoadPathsView();
 
     /**
-     * Whether to generate a source map. Note that this will *not* add a source
-     * map comment to the stylesheet; that's up to the host or its users.
-     *
-     * @see CompileRequest#getSourceMap()
+     * Used to replace the compiler process when a compilation has to be aborted. May be {@code null}.
      */
-    @Getter
-    @Setter
-    private boolean generateSourceMaps = false;
+    @Nullable
+    private final ConnectionSupplier connectionSupplier;
+
+    private volatile PacketDispatcher dispatcher;
+
+    private final Object restartLock = new Object();
+
+    private boolean closed;
+
+    private final AtomicLong restartCount = new AtomicLong();
+
+    private final AtomicLong crashCount = new AtomicLong();
 
     /**
-     * Whether to use terminal colors in the formatted message of errors and
-     * logs.
-     *
-     * @see CompileRequest#getAlertColor()
+     * The number of crashes since the last successful compilation, used for the restart back-off.
      */
-    @Getter
-    @Setter
-    private boolean alertColor = false;
+    private volatile int consecutiveCrashes;
 
     /**
-     * Whether to encode the formatted message of errors and logs in ASCII.
-     *
-     * @see CompileRequest#getAlertAscii()
+     * The crashed dispatcher which is about to be replaced, and the earliest {@link System#nanoTime() time} of the
+     * replacement. Guarded by {@link #restartLock}.
      */
-    @Getter
-    @Setter
-    private boolean alertAscii = false;
+    @Nullable
+    private PacketDispatcher crashRestartDispatcher;
+    private long crashRestartNotBefore;
+
+    private final AtomicInteger compilationIds = new AtomicInteger();
+
+    private final AtomicLong compilationCount = new AtomicLong();
+
+    private final Object versionRequestLock = new Object();
 
     /**
-     * Whether to report all deprecation warnings or only the first few ones.
-     * If this is `false`, the compiler may choose not to send events for
-     * repeated deprecation warnings. If this is `true`, the compiler must emit
-     * an event for every deprecation warning it encounters.
+     * The {@link Executor} used to handle the messages of asynchronous compilations.
      *
-     * @see CompileRequest#getVerbose()
+     * @see #compileFileAsync(File)
+     * @see #compileStringAsync(CompileRequest.StringInput, OutputStyle)
      */
-    @Getter
-    @Setter
-    private boolean verbose = false;
+    @NonNull
+    private Executor asyncExecutor = defaultAsyncExecutor();
 
     /**
-     * Whether to omit events for deprecation warnings coming from dependencies
-     * (files loaded from a different importer than the input).
-     *
-     * @see CompileRequest#getQuietDeps()
+     * The {@link Executor} used to run the {@link CustomImporter importers}, {@link FileImporter file importers}
+     * and {@link HostFunction functions} called by the compiler.
+     * <p>
+     * The responses are sent from the thread which ran the callback, so a slow callback only delays the
+     * compilation which called it.
+     * By default, callbacks are run directly on the thread which handles the messages of the compilation.
      */
-    @Getter
-    @Setter
-    private boolean quietDeps = false;
+    @NonNull
+    private Executor callbackExecutor = Runnable::run;
 
     /**
-     * Whether to include sources in the generated sourcemap
+     * The cache for successful compilations, or {@code null} to always compile.
+     */
+    @Nullable
+    private CompilationCache compilationCache;
+
+    private LoggingHandler loggingHandler = new Slf4jLoggingHandler(log);
+
+    /**
+     * Set by the owner of a shared compiler (e.g. a {@link SassCompilerPool}) while it's not handed out.
+     * Every public method checks it, so a reference which is used after {@link #close()} fails instead of
+     * interfering with the owner.
+     */
+    private volatile boolean released;
+
+    /**
+     * Create a new {@link SassCompiler} using the given connection.
+     * <p>
+     * If a compilation has to be aborted, the connection is closed and this compiler can not be used anymore.
      *
-     * @see CompileRequest#getSourceMapIncludeSources()
+     * @see #SassCompiler(ConnectionSupplier)
      */
-    @Getter
-    @Setter
-    private boolean sourceMapIncludeSources = false;
+    public SassCompiler(CompilerConnection connection) {
+        this(connection, null);
+    }
 
     /**
-     * Whether to emit a `@charset`/BOM for non-ASCII stylesheets.
+     * Create a new {@link SassCompiler} using a connection from the given {@link ConnectionSupplier}.
+     * <p>
+     * If a compilation has to be aborted or the compiler process crashes, the process is replaced with a new one from
+     * the same supplier. The compilations which were interrupted by a crash are run again on the new process.
      *
-     * @see CompileRequest#getCharset()
+     * @see #getCrashCount()
      */
-    @Getter
-    @Setter
-    private boolean emitCharset = false;
+    public SassCompiler(@NonNull ConnectionSupplier connectionSupplier) throws IOException {
+        this(connectionSupplier.get(), connectionSupplier);
+    }
 
     /**
-     * Whether to silently suppresses all {@link com.sass_lang.embedded_protocol.OutboundMessage.LogEvent `LogEvent`s}.
+     * @param connection         The connection to use, or {@code null} to get one from the {@link ConnectionSupplier} on first use.
+     * @param connectionSupplier Used to replace the compiler process when a compilation has to be aborted. May only be {@code null}
+     *                           if a connection is given.
+     * @see SassCompilerFactory#lazy(ConnectionSupplier)
+     */
+    protected SassCompiler(@Nullable CompilerConnection connection, @Nullable ConnectionSupplier connectionSupplier) {
+        if (connection == null && connectionSupplier == null) {
+            throw new IllegalArgumentException("Either a connection or a connectionSupplier is required");
+        }
+        this.connectionSupplier = connectionSupplier;
+        this.dispatcher = connection != null ? new PacketDispatcher(connection) : null;
+    }
+
+    void setReleased(boolean released) {
+        this.released = released;
+    }
+
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("The SassCompiler has already been closed");
+        }
+    }
+
+    public OutboundMessage.VersionResponse getVersion() throws IOException {
+        checkNotReleased();
+        return fetchVersion();
+    }
+
+    /**
+     * {@link #getVersion()} for the owner of a {@link #setReleased(boolean) released} compiler.
+     */
+    OutboundMessage.VersionResponse fetchVersion() throws IOException {
+        return exec(inboundMessage(VersionRequest.getDefaultInstance()), null).getVersionResponse();
+    }
+
+    /**
+     * @return The number of compilations which have been started using this compiler.
+     */
+    public long getCompilationCount() {
+        checkNotReleased();
+        return compilationCount.get();
+    }
+
+    /**
+     * Checks whether the compiler process is still alive, without sending a request to it.
      *
-     * @see CompileRequest#getSilent()
+     * @return {@code false} if the compiler process died or the connection to it failed.
      */
-    @Getter
-    @Setter
-    private boolean silent = false;
+    boolean isAlive() {
+        PacketDispatcher current = dispatcher;
+        return current == null || (!current.isFailed() && current.getConnection().isAlive());
+    }
 
-    private final CompilerConnection connection;
+    /**
+     * @return The number of times the compiler process has been replaced, because a compilation had to be aborted
+     * or the process crashed.
+     */
+    public long getRestartCount() {
+        checkNotReleased();
+        return restartCount.get();
+    }
 
-    private final Random compileRequestIds = new Random();
+    /**
+     * @return The number of times the compiler process died unexpectedly.
+     * @see #SassCompiler(ConnectionSupplier)
+     */
+    public long getCrashCount() {
+        checkNotReleased();
+        return crashCount.get();
+    }
 
-    private final Map<String, HostFunction> globalFunctions = new HashMap<>();
-    private final Map<Integer, FileImporter> fileImporters = new HashMap<>();
-    private final Map<Integer, CustomImporter> customImporters = new HashMap<>();
+    //region options
 
-    @Setter
-    @Getter
-    private LoggingHandler loggingHandler = new Slf4jLoggingHandler(log);
+    public CompileOptions getCompileOptions() {
+        checkNotReleased();
+        return compileOptions.get();
+    }
 
-    @Getter
-    @Setter
-    private List<File> loadPaths = new LinkedList<>();
+    public void setCompileOptions(@NonNull CompileOptions compileOptions) {
+        checkNotReleased();
+        this.compileOptions.set(compileOptions);
+    }
 
-    public SassCompiler(CompilerConnection connection) {
-        this.connection = connection;
+    private void updateCompileOptions(UnaryOperator<CompileOptions> update) {
+        checkNotReleased();
+        compileOptions.updateAndGet(update);
     }
 
-    public OutboundMessage.VersionResponse getVersion() throws IOException {
-        return exec(inboundMessage(VersionRequest.getDefaultInstance())).getVersionResponse();
+    public Executor getAsyncExecutor() {
+        checkNotReleased();
+        return asyncExecutor;
     }
 
-    public void registerFunction(@NonNull HostFunction sassFunction) {
-        globalFunctions.put(sassFunction.getName(), sassFunction);
+    public void setAsyncExecutor(@NonNull Executor asyncExecutor) {
+        checkNotReleased();
+        this.asyncExecutor = asyncExecutor;
     }
 
-    public void registerImporter(@NonNull FileImporter fileImporter) {
-        fileImporters.put(fileImporter.getId(), fileImporter);
+    public Executor getCallbackExecutor() {
+        checkNotReleased();
+        return callbackExecutor;
     }
 
-    public void registerImporter(@NonNull CustomImporter customImporter) {
-        customImporters.put(customImporter.getId(), customImporter);
+    public void setCallbackExecutor(@NonNull Executor callbackExecutor) {
+        checkNotReleased();
+        this.callbackExecutor = callbackExecutor;
     }
 
-    protected CompileRequest.Builder compileRequestBuilder() {
-        CompileRequest.Builder builder = CompileRequest.newBuilder();
+    @Nullable
+    public CompilationCache getCompilationCache() {
+        checkNotReleased();
+        return compilationCache;
+    }
 
-        builder.setStyle(outputStyle);
-        builder.setSourceMap(generateSourceMaps);
+    public void setCompilationCache(@Nullable CompilationCache compilationCache) {
+        checkNotReleased();
+        this.compilationCache = compilationCache;
+    }
 
-        for (File loadPath : loadPaths) {
-            CompileRequest.Importer importer = CompileRequest.Importer.newBuilder()
-                    .setPath(loadPath.getAbsolutePath())
-                    .build();
-            builder.addImporters(importer);
-        }
+    public LoggingHandler getLoggingHandler() {
+        checkNotReleased();
+        return loggingHandler;
+    }
 
-        for (Importer value : customImporters.values()) {
-            CompileRequest.Importer importer = CompileRequest.Importer.newBuilder()
-                    .setImporterId(value.getId())
-                    .build();
-            builder.addImporters(importer);
-        }
+    public void setLoggingHandler(LoggingHandler loggingHandler) {
+        checkNotReleased();
+        this.loggingHandler = loggingHandler;
+    }
 
-        for (Importer value : fileImporters.values()) {
-            CompileRequest.Importer importer = CompileRequest.Importer.newBuilder()
-                    .setFileImporterId(value.getId())
-                    .build();
-            builder.addImporters(importer);
-        }
+    /**
+     * @see CompileOptions#getOutputStyle()
+     */
+    public OutputStyle getOutputStyle() {
+        return getCompileOptions().getOutputStyle();
+    }
 
-        for (HostFunction sassFunction : globalFunctions.values()) {
-            builder.addGlobalFunctions(sassFunction.getSignature());
-        }
+    /**
+     * @see CompileOptions#getOutputStyle()
+     */
+    public void setOutputStyle(@NonNull OutputStyle outputStyle) {
+        updateCompileOptions(options -> options.withOutputStyle(outputStyle));
+    }
+
+    /**
+     * @see CompileOptions#isGenerateSourceMaps()
+     */
+    public boolean isGenerateSourceMaps() {
+        return getCompileOptions().isGenerateSourceMaps();
+    }
+
+    /**
+     * @see CompileOptions#isGenerateSourceMaps()
+     */
+    public void setGenerateSourceMaps(boolean generateSourceMaps) {
+        updateCompileOptions(options -> options.withGenerateSourceMaps(generateSourceMaps));
+    }
+
+    /**
+     * @see CompileOptions#isAlertColor()
+     */
+    public boolean isAlertColor() {
+        return getCompileOptions().isAlertColor();
+    }
+
+    /**
+     * @see CompileOptions#isAlertColor()
+     */
+    public void setAlertColor(boolean alertColor) {
+        updateCompileOptions(options -> options.withAlertColor(alertColor));
+    }
+
+    /**
+     * @see CompileOptions#isAlertAscii()
+     */
+    public boolean isAlertAscii() {
+        return getCompileOptions().isAlertAscii();
+    }
+
+    /**
+     * @see CompileOptions#isAlertAscii()
+     */
+    public void setAlertAscii(boolean alertAscii) {
+        updateCompileOptions(options -> options.withAlertAscii(alertAscii));
+    }
+
+    /**
+     * @see CompileOptions#isVerbose()
+     */
+    public boolean isVerbose() {
+        return getCompileOptions().isVerbose();
+    }
+
+    /**
+     * @see CompileOptions#isVerbose()
+     */
+    public void setVerbose(boolean verbose) {
+        updateCompileOptions(options -> options.withVerbose(verbose));
+    }
+
+    /**
+     * @see CompileOptions#isQuietDeps()
+     */
+    public boolean isQuietDeps() {
+        return getCompileOptions().isQuietDeps();
+    }
+
+    /**
+     * @see CompileOptions#isQuietDeps()
+     */
+    public void setQuietDeps(boolean quietDeps) {
+        updateCompileOptions(options -> options.withQuietDeps(quietDeps));
+    }
+
+    /**
+     * @see CompileOptions#isSourceMapIncludeSources()
+     */
+    public boolean isSourceMapIncludeSources() {
+        return getCompileOptions().isSourceMapIncludeSources();
+    }
+
+    /**
+     * @see CompileOptions#isSourceMapIncludeSources()
+     */
+    public void setSourceMapIncludeSources(boolean sourceMapIncludeSources) {
+        updateCompileOptions(options -> options.withSourceMapIncludeSources(sourceMapIncludeSources));
+    }
+
+    /**
+     * @see CompileOptions#isEmitCharset()
+     */
+    public boolean isEmitCharset() {
+        return getCompileOptions().isEmitCharset();
+    }
+
+    /**
+     * @see CompileOptions#isEmitCharset()
+     */
+    public void setEmitCharset(boolean emitCharset) {
+        updateCompileOptions(options -> options.withEmitCharset(emitCharset));
+    }
 
-        builder.setAlertColor(alertColor);
-        builder.setAlertAscii(alertAscii);
-        builder.setVerbose(verbose);
-        builder.setQuietDeps(quietDeps);
-        builder.setSourceMapIncludeSources(sourceMapIncludeSources);
-        builder.setCharset(emitCharset);
-        builder.setSilent(silent);
+    /**
+     * @see CompileOptions#isSilent()
+     */
+    public boolean isSilent() {
+        return getCompileOptions().isSilent();
+    }
 
-        return builder;
+    /**
+     * @see CompileOptions#isSilent()
+     */
+    public void setSilent(boolean silent) {
+        updateCompileOptions(options -> options.withSilent(silent));
+    }
+
+    /**
+     * @see CompileOptions#getTimeout()
+     */
+    @Nullable
+    public Duration getTimeout() {
+        return getCompileOptions().getTimeout();
+    }
+
+    /**
+     * @see CompileOptions#getTimeout()
+     */
+    public void setTimeout(@Nullable Duration timeout) {
+        updateCompileOptions(options -> options.withTimeout(timeout));
+    }
+
+    /**
+     * Returns a live view of the current load paths.
+     * <p>
+     * Changes to the returned list (e.g. {@code getLoadPaths().add(dir)}) are written through: Every change replaces the
+     * {@link #getCompileOptions() compile options} with an updated copy, so running compilations are not affected.
+     *
+     * @return A modifiable view of the current load paths.
+     * @see CompileOptions#getLoadPaths()
+     */
+    public List<File> getLoadPaths() {
+        checkNotReleased();
+        return loadPathsView;
+    }
+
+    /**
+     * @see CompileOptions#getLoadPaths()
+     */
+    public void setLoadPaths(@NonNull List<File> loadPaths) {
+        List<File> copy = Collections.unmodifiableList(new ArrayList<>(loadPaths));
+        updateCompileOptions(options -> options.withLoadPaths(copy));
+    }
+
+    /**
+     * @see CompileOptions#getLoadPaths()
+     */
+    public void addLoadPath(@NonNull File loadPath) {
+        updateCompileOptions(options -> options.toBuilder().loadPath(loadPath).build());
+    }
+
+    /**
+     * @see CompileOptions#getLoadPaths()
+     */
+    public void addLoadPaths(@NonNull File... loadPaths) {
+        addLoadPaths(Arrays.asList(loadPaths));
+    }
+
+    /**
+     * @see CompileOptions#getLoadPaths()
+     */
+    public void addLoadPaths(@NonNull Collection<? extends File> loadPaths) {
+        List<File> copy = new ArrayList<>(loadPaths);
+        updateCompileOptions(options -> options.toBuilder().loadPaths(copy).build());
+    }
+
+    public void registerFunction(@NonNull HostFunction sassFunction) {
+        updateCompileOptions(options -> options.toBuilder().function(sassFunction).build());
+    }
+
+    public void registerImporter(@NonNull FileImporter fileImporter) {
+        updateCompileOptions(options -> options.toBuilder().fileImporter(fileImporter).build());
+    }
+
+    public void registerImporter(@NonNull CustomImporter customImporter) {
+        updateCompileOptions(options -> options.toBuilder().customImporter(customImporter).build());
+    }
+
+    //endregion
+
+    /**
+     * @return A new {@link CompileRequest.Builder} based on the current {@link #getCompileOptions() options}.
+     * @see CompileOptions#newRequestBuilder()
+     */
+    protected CompileRequest.Builder compileRequestBuilder() {
+        return getCompileOptions().newRequestBuilder();
     }
 
     public CompileSuccess compile(@NonNull URL source) throws SassCompilationFailedException, IOException {
@@ -208,11 +494,35 @@ public class SassCompiler implements Closeable {
     }
 
     public CompileSuccess compile(@NonNull URL source, OutputStyle outputStyle) throws SassCompilationFailedException, IOException {
+        return compile(source, getCompileOptions().withOutputStyle(outputStyle));
+    }
+
+    /**
+     * Compile the stylesheet at the given URL.
+     * Relative imports are resolved against the URL using a {@link RelativeUrlImporter} which is only used for this compilation.
+     * Because of this, the {@link #getCompilationCache() compilationCache} is not used for non-file URLs.
+     */
+    public CompileSuccess compile(@NonNull URL source, @NonNull CompileOptions compileOptions) throws SassCompilationFailedException, IOException {
+        checkNotReleased();
         if (source.getProtocol().equals("file")) {
             File file = new File(source.getPath());
-            return compileFile(file);
+            return compileFile(file, compileOptions);
         }
 
+        CustomImporter importer = new RelativeUrlImporter(source).autoCanonicalize();
+
+        CompileRequest.StringInput build = toStringInput(source, importer);
+
+        CompileOptions options = compileOptions.toBuilder().customImporter(importer).build();
+        CompileRequest compileRequest = options.newRequestBuilder()
+                .setString(build)
+                .build();
+
+        // The id of the per-call importer is part of the request, so the cache would never be hit.
+        return execCompileRequest(compileRequest, options, null);
+    }
+
+    private static CompileRequest.StringInput toStringInput(URL source, Importer importer) throws IOException {
         Syntax syntax;
         ByteString content;
         URLConnection urlConnection = source.openConnection();
@@ -221,11 +531,7 @@ public class SassCompiler implements Closeable {
             syntax = SyntaxUtil.guessSyntax(urlConnection);
         }
 
-        CustomImporter importer = new RelativeUrlImporter(source).autoCanonicalize();
-
-        customImporters.put(importer.getId(), importer);
-
-        CompileRequest.StringInput build = CompileRequest.StringInput.newBuilder()
+        return CompileRequest.StringInput.newBuilder()
                 .setUrl(source.toString())
                 .setSourceBytes(content)
                 .setImporter(CompileRequest.Importer.newBuilder()
@@ -233,12 +539,6 @@ public class SassCompiler implements Closeable {
                         .build())
                 .setSyntax(syntax)
                 .build();
-
-        try {
-            return compileString(build, outputStyle);
-        } finally {
-            customImporters.remove(importer.getId());
-        }
     }
 
     //region compileString and overloads
@@ -269,13 +569,23 @@ public class SassCompiler implements Closeable {
 
     @Nonnull
     public CompileSuccess compileString(CompileRequest.StringInput string, @NonNull OutputStyle outputStyle) throws IOException, SassCompilationFailedException {
+        CompileOptions options = getCompileOptions();
 
-        CompileRequest compileRequest = compileRequestBuilder()
+        CompileRequest compileRequest = options.newRequestBuilder()
                 .setString(string)
                 .setStyle(outputStyle)
                 .build();
 
-        return execCompileRequest(compileRequest);
+        return execCompileRequest(compileRequest, options);
+    }
+
+    @Nonnull
+    public CompileSuccess compileString(CompileRequest.StringInput string, @NonNull CompileOptions compileOptions) throws IOException, SassCompilationFailedException {
+        CompileRequest compileRequest = compileOptions.newRequestBuilder()
+                .setString(string)
+                .build();
+
+        return execCompileRequest(compileRequest, compileOptions);
     }
     //endregion
 
@@ -286,20 +596,48 @@ public class SassCompiler implements Closeable {
     }
 
     public CompileSuccess compileFile(@NonNull File file, @NonNull OutputStyle outputStyle) throws IOException, SassCompilationFailedException {
-        CompileRequest compileRequest = compileRequestBuilder()
+        CompileOptions options = getCompileOptions();
+
+        CompileRequest compileRequest = options.newRequestBuilder()
                 .setPath(file.getPath())
                 .setStyle(outputStyle)
                 .build();
 
-        return execCompileRequest(compileRequest);
+        return execCompileRequest(compileRequest, options);
+    }
+
+    public CompileSuccess compileFile(@NonNull File file, @NonNull CompileOptions compileOptions) throws IOException, SassCompilationFailedException {
+        CompileRequest compileRequest = compileOptions.newRequestBuilder()
+                .setPath(file.getPath())
+                .build();
+
+        return execCompileRequest(compileRequest, compileOptions);
     }
 
     //endregion
 
-    private CompileSuccess execCompileRequest(CompileRequest compileRequest) throws IOException, SassCompilationFailedException {
+    private CompileSuccess execCompileRequest(CompileRequest compileRequest, CompileOptions compileOptions) throws IOException, SassCompilationFailedException {
+        return execCompileRequest(compileRequest, compileOptions, compilationCache);
+    }
 
-        OutboundMessage outboundMessage = exec(inboundMessage(compileRequest));
+    private CompileSuccess execCompileRequest(CompileRequest compileRequest, CompileOptions compileOptions, @Nullable CompilationCache cache) throws IOException, SassCompilationFailedException {
+        checkNotReleased();
+        if (cache == null) {
+            return toCompileSuccess(exec(inboundMessage(compileRequest), compileOptions));
+        }
 
+        CompileSuccess cached = cache.get(compileRequest);
+        if (cached != null) {
+            return cached;
+        }
+
+        long start = System.currentTimeMillis();
+        CompileSuccess compileSuccess = toCompileSuccess(exec(inboundMessage(compileRequest), compileOptions));
+        cache.put(compileRequest, compileSuccess, start);
+        return compileSuccess;
+    }
+
+    private static CompileSuccess toCompileSuccess(OutboundMessage outboundMessage) throws SassCompilationFailedException {
         if (!outboundMessage.hasCompileResponse()) {
             throw new IllegalStateException("No compile response");
         }
@@ -315,68 +653,646 @@ public class SassCompiler implements Closeable {
         }
     }
 
-    private OutboundMessage exec(InboundMessage inboundMessage) throws IOException {
-        int compilationId;
+    //region async compilation
+
+    /**
+     * Asynchronous variant of {@link #compile(URL)}.
+     */
+    public CompletableFuture<CompileSuccess> compileAsync(@NonNull URL source) {
+        return compileAsync(source, getOutputStyle());
+    }
+
+    /**
+     * Asynchronous variant of {@link #compile(URL, OutputStyle)}.
+     */
+    public CompletableFuture<CompileSuccess> compileAsync(@NonNull URL source, OutputStyle outputStyle) {
+        return compileAsync(source, getCompileOptions().withOutputStyle(outputStyle));
+    }
+
+    /**
+     * Asynchronous variant of {@link #compile(URL, CompileOptions)}.
+     */
+    public CompletableFuture<CompileSuccess> compileAsync(@NonNull URL source, @NonNull CompileOptions compileOptions) {
+        checkNotReleased();
+        if (source.getProtocol().equals("file")) {
+            File file = new File(source.getPath());
+            return compileFileAsync(file, compileOptions);
+        }
+
+        CustomImporter importer = new RelativeUrlImporter(source).autoCanonicalize();
+
+        return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return toStringInput(source, importer);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, asyncExecutor)
+                .thenCompose(stringInput -> {
+                    CompileOptions options = compileOptions.toBuilder().customImporter(importer).build();
+                    CompileRequest compileRequest = options.newRequestBuilder()
+                            .setString(stringInput)
+                            .build();
+
+                    // The id of the per-call importer is part of the request, so the cache would never be hit.
+                    return execCompileRequestAsync(compileRequest, options, null);
+                });
+    }
+
+    public CompletableFuture<CompileSuccess> compileScssStringAsync(@NonNull @Language("SCSS") String source) {
+        return compileStringAsync(source, Syntax.SCSS);
+    }
 
+    public CompletableFuture<CompileSuccess> compileSassStringAsync(@NonNull @Language("SASS") String source) {
+        return compileStringAsync(source, Syntax.INDENTED);
+    }
+
+    public CompletableFuture<CompileSuccess> compileCssStringAsync(@NonNull @Language("CSS") String source) {
+        return compileStringAsync(source, Syntax.CSS);
+    }
+
+    public CompletableFuture<CompileSuccess> compileStringAsync(@NonNull String source, Syntax syntax) {
+        return compileStringAsync(source, syntax, getOutputStyle());
+    }
+
+    public CompletableFuture<CompileSuccess> compileStringAsync(@NonNull String source, Syntax syntax, OutputStyle outputStyle) {
+        CompileRequest.StringInput stringInput = CompileRequest.StringInput.newBuilder()
+                .setSource(source)
+                .setSyntax(syntax)
+                .build();
+
+        return compileStringAsync(stringInput, outputStyle);
+    }
+
+    public CompletableFuture<CompileSuccess> compileStringAsync(CompileRequest.StringInput string, @NonNull OutputStyle outputStyle) {
+        CompileOptions options = getCompileOptions();
+
+        CompileRequest compileRequest = options.newRequestBuilder()
+                .setString(string)
+                .setStyle(outputStyle)
+                .build();
+
+        return execCompileRequestAsync(compileRequest, options);
+    }
+
+    public CompletableFuture<CompileSuccess> compileStringAsync(CompileRequest.StringInput string, @NonNull CompileOptions compileOptions) {
+        CompileRequest compileRequest = compileOptions.newRequestBuilder()
+                .setString(string)
+                .build();
+
+        return execCompileRequestAsync(compileRequest, compileOptions);
+    }
+
+    public CompletableFuture<CompileSuccess> compileFileAsync(@NonNull File inputFile) {
+        return compileFileAsync(inputFile, getOutputStyle());
+    }
+
+    public CompletableFuture<CompileSuccess> compileFileAsync(@NonNull File file, @NonNull OutputStyle outputStyle) {
+        CompileOptions options = getCompileOptions();
+
+        CompileRequest compileRequest = options.newRequestBuilder()
+                .setPath(file.getPath())
+                .setStyle(outputStyle)
+                .build();
+
+        return execCompileRequestAsync(compileRequest, options);
+    }
+
+    public CompletableFuture<CompileSuccess> compileFileAsync(@NonNull File file, @NonNull CompileOptions compileOptions) {
+        CompileRequest compileRequest = compileOptions.newRequestBuilder()
+                .setPath(file.getPath())
+                .build();
+
+        return execCompileRequestAsync(compileRequest, compileOptions);
+    }
+
+    /**
+     * Sends the given {@link CompileRequest} without waiting for the response.
+     * <p>
+     * The messages the compiler sends for this compilation are handled one after another on the {@link #getAsyncExecutor() asyncExecutor},
+     * so no thread is blocked while the compiler is working.
+     * <p>
+     * {@link CompletableFuture#cancel(boolean) Cancelling} the returned future aborts the compilation.
+     * As the protocol has no way to abort a single compilation, this restarts the compiler process.
+     *
+     * @return A future which is completed with the {@link CompileSuccess} or exceptionally with a
+     * {@link SassCompilationFailedException}, {@link SassProtocolErrorException} or {@link IOException}.
+     * @see CompileOptions#getTimeout()
+     */
+    private CompletableFuture<CompileSuccess> execCompileRequestAsync(CompileRequest compileRequest, CompileOptions compileOptions) {
+        return execCompileRequestAsync(compileRequest, compileOptions, compilationCache);
+    }
+
+    private CompletableFuture<CompileSuccess> execCompileRequestAsync(CompileRequest compileRequest, CompileOptions compileOptions, @Nullable CompilationCache cache) {
+        checkNotReleased();
+        if (cache != null) {
+            CompileSuccess cached = cache.get(compileRequest);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        compilationCount.incrementAndGet();
+        AsyncCompilation compilation = new AsyncCompilation(inboundMessage(compileRequest), compileOptions);
+        compilation.start();
+
+        if (cache != null) {
+            compilation.result.thenAccept(compileSuccess -> cache.put(compileRequest, compileSuccess, start));
+        }
+
+        return compilation.result;
+    }
+
+    /**
+     * A single asynchronous compilation, which may take multiple {@link Attempt attempts} if the compiler is restarted.
+     */
+    private class AsyncCompilation {
+
+        private final InboundMessage request;
+
+        private final CompileOptions compileOptions;
+
+        private final CompletableFuture<CompileSuccess> result = new CompletableFuture<>();
+
+        private int attempts;
+
+        private volatile Attempt currentAttempt;
+
+        AsyncCompilation(InboundMessage request, CompileOptions compileOptions) {
+            this.request = request;
+            this.compileOptions = compileOptions;
+
+            Duration timeout = compileOptions.getTimeout();
+            if (timeout != null) {
+                ScheduledFuture<?> timeoutTask = timeoutScheduler().schedule(this::timeout, timeout.toNanos(), TimeUnit.NANOSECONDS);
+                result.whenComplete((success, throwable) -> timeoutTask.cancel(false));
+            }
+
+            result.whenComplete((success, throwable) -> {
+                if (result.isCancelled()) {
+                    abort();
+                }
+            });
+        }
+
+        void start() {
+            PacketDispatcher currentDispatcher;
+            try {
+                currentDispatcher = dispatcher();
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            Attempt attempt;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                attempts++;
+                attempt = new Attempt(nextCompilationId(), currentDispatcher);
+                currentAttempt = attempt;
+            }
+
+            try {
+                attempt.dispatcher.register(attempt.compilationId, attempt);
+                attempt.send(request);
+            } catch (IOException | RuntimeException e) {
+                attempt.fail(e);
+            }
+        }
+
+        private void timeout() {
+            if (result.completeExceptionally(new InterruptedIOException("The compilation did not finish within " + compileOptions.getTimeout()))) {
+                abort();
+            }
+        }
+
+        private void abort() {
+            Attempt attempt = currentAttempt;
+            if (attempt != null) {
+                attempt.dispatcher.unregister(attempt.compilationId, attempt);
+                restartAsync(attempt.dispatcher);
+            }
+        }
+
+        private void onAttemptCompleted(Attempt attempt, OutboundMessage response) {
+            attempt.dispatcher.unregister(attempt.compilationId, attempt);
+            if (attempt != currentAttempt) {
+                return;
+            }
+            resetCrashes();
+
+            try {
+                result.complete(toCompileSuccess(response));
+            } catch (SassCompilationFailedException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void onAttemptFailed(Attempt attempt, Throwable failure) {
+            attempt.dispatcher.unregister(attempt.compilationId, attempt);
+
+            if (isCrashed(attempt.dispatcher)) {
+                // The restart may wait for the back-off, so it must not block the reader thread.
+                runAsync(() -> {
+                    restartAfterCrash(attempt.dispatcher);
+                    retryOrFail(attempt, failure);
+                });
+            } else {
+                retryOrFail(attempt, failure);
+            }
+        }
+
+        private void retryOrFail(Attempt attempt, Throwable failure) {
+            boolean retry;
+            synchronized (this) {
+                if (attempt != currentAttempt || result.isDone()) {
+                    return;
+                }
+                retry = isRetryable(attempt.dispatcher, failure, attempts);
+            }
+
+            if (retry) {
+                log.debug("Retrying compilation {} after the compiler has been restarted", attempt.compilationId, failure);
+                start();
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }
+
+        private class Attempt extends Compilation implements PacketDispatcher.PacketListener {
+
+            /**
+             * The handling of the last received message. New messages are chained to it, so they are handled in order.
+             */
+            private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+            Attempt(int compilationId, PacketDispatcher dispatcher) {
+                super(compilationId, AsyncCompilation.this.compileOptions, dispatcher);
+            }
+
+            @Override
+            public synchronized void onMessage(OutboundMessage outboundMessage) {
+                tail = tail.thenRunAsync(() -> handle(outboundMessage), asyncExecutor);
+            }
+
+            @Override
+            public void onFailure(IOException exception) {
+                fail(exception);
+            }
+
+            private void handle(OutboundMessage outboundMessage) {
+                if (result.isDone() || this != currentAttempt) {
+                    return;
+                }
+
+                try {
+                    OutboundMessage response = handleMessage(this, outboundMessage);
+                    if (response != null) {
+                        onAttemptCompleted(this, response);
+                    }
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }
+
+            @Override
+            void fail(Throwable throwable) {
+                onAttemptFailed(this, throwable);
+            }
+        }
+    }
+
+    //endregion
+
+    /**
+     * @param compileOptions The options used to look up importers and functions. May be {@code null} for version requests.
+     */
+    private OutboundMessage exec(InboundMessage inboundMessage, CompileOptions compileOptions) throws IOException {
         if (inboundMessage.hasVersionRequest()) {
-            compilationId = 0;
+            // All version requests share the compilation id 0, so they can't be multiplexed.
+            synchronized (versionRequestLock) {
+                return execWithRetries(() -> 0, inboundMessage, compileOptions);
+            }
         } else if (inboundMessage.hasCompileRequest()) {
-            compilationId = Math.abs(compileRequestIds.nextInt());
+            compilationCount.incrementAndGet();
+            return execWithRetries(this::nextCompilationId, inboundMessage, compileOptions);
         } else {
             throw new IllegalArgumentException("Invalid message type: " + inboundMessage.getMessageCase());
         }
+    }
 
-        Packet<InboundMessage> request = new Packet<>(compilationId, inboundMessage);
+    private OutboundMessage execWithRetries(IntSupplier compilationIds, InboundMessage inboundMessage, CompileOptions compileOptions) throws IOException {
+        Duration timeout = compileOptions != null ? compileOptions.getTimeout() : null;
+        long deadline = timeout != null ? System.nanoTime() + timeout.toNanos() : NO_DEADLINE;
+
+        for (int attempt = 1; ; attempt++) {
+            PacketDispatcher currentDispatcher = dispatcher();
+            int compilationId = compilationIds.getAsInt();
+            try {
+                OutboundMessage response = exec(currentDispatcher, compilationId, inboundMessage, compileOptions, deadline);
+                resetCrashes();
+                return response;
+            } catch (IOException e) {
+                if (isCrashed(currentDispatcher)) {
+                    restartAfterCrash(currentDispatcher);
+                }
+                if (!isRetryable(currentDispatcher, e, attempt)) {
+                    throw e;
+                }
+                log.debug("Retrying compilation {} after the compiler has been restarted", compilationId, e);
+            }
+        }
+    }
 
-        synchronized (connection) {
-            connection.sendMessage(request);
+    private OutboundMessage exec(PacketDispatcher dispatcher, int compilationId, InboundMessage inboundMessage, CompileOptions compileOptions, long deadline) throws IOException {
+        OutboundMessage response;
+        try (PacketDispatcher.Mailbox mailbox = dispatcher.open(compilationId)) {
+            Compilation compilation = new Compilation(compilationId, compileOptions, dispatcher) {
+                @Override
+                void fail(Throwable throwable) {
+                    mailbox.onFailure(throwable instanceof IOException ? (IOException) throwable : new IOException(throwable));
+                }
+            };
+
+            if (deadline != NO_DEADLINE && deadline - System.nanoTime() <= 0) {
+                throw new InterruptedIOException("The compilation did not finish within " + compileOptions.getTimeout());
+            }
+
+            compilation.send(inboundMessage);
 
             while (true) {
-                Packet<OutboundMessage> response = connection.readResponse();
+                OutboundMessage outboundMessage = deadline == NO_DEADLINE
+                        ? mailbox.receive()
+                        : mailbox.receive(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
 
-                if (response.getCompilationId() != compilationId) {
-                    //Should never happen
-                    throw new IllegalStateException(String.format("Compilation ID mismatch: expected %d, but got %d", compilationId, response.getCompilationId()));
+                if (outboundMessage == null) {
+                    response = null;
+                    break;
                 }
 
-                OutboundMessage outboundMessage = response.getMessage();
-
-                switch (outboundMessage.getMessageCase()) {
-
-                    case ERROR:
-                        throw new SassProtocolErrorException(outboundMessage.getError());
-                    case COMPILE_RESPONSE:
-                    case VERSION_RESPONSE:
-                        return outboundMessage;
-                    case LOG_EVENT:
-                        loggingHandler.handle(outboundMessage.getLogEvent());
-                        break;
-                    case CANONICALIZE_REQUEST:
-                        handleCanonicalizeRequest(compilationId, outboundMessage.getCanonicalizeRequest());
-                        break;
-                    case IMPORT_REQUEST:
-                        handleImportRequest(compilationId, outboundMessage.getImportRequest());
-                        break;
-                    case FILE_IMPORT_REQUEST:
-                        handleFileImportRequest(compilationId, outboundMessage.getFileImportRequest());
-                        break;
-                    case FUNCTION_CALL_REQUEST:
-                        handleFunctionCallRequest(compilationId, outboundMessage.getFunctionCallRequest());
-                        break;
-                    case MESSAGE_NOT_SET:
-                        throw new IllegalStateException("No message set");
-                    default:
-                        throw new IllegalStateException("Unknown OutboundMessage: " + outboundMessage.getMessageCase());
+                response = handleMessage(compilation, outboundMessage);
+
+                if (response != null) {
+                    break;
                 }
             }
         }
+
+        if (response == null) {
+            // The mailbox is closed by now, so the failure caused by the restart is not delivered to it.
+            restartAsync(dispatcher);
+            throw new InterruptedIOException("The compilation did not finish within " + compileOptions.getTimeout());
+        }
+
+        return response;
+    }
+
+    /**
+     * @return The dispatcher of the current compiler process. For {@link #SassCompiler(CompilerConnection, ConnectionSupplier) lazy}
+     * compilers, the process is started on first use.
+     */
+    private PacketDispatcher dispatcher() throws IOException {
+        PacketDispatcher current = dispatcher;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (restartLock) {
+            if (closed) {
+                throw new IOException("The compiler has been closed");
+            }
+            if (dispatcher == null) {
+                dispatcher = new PacketDispatcher(connectionSupplier.get());
+            }
+            return dispatcher;
+        }
+    }
+
+    /**
+     * A failed attempt is retried if the compiler has been restarted in the meantime, because the failure was most likely caused by
+     * the restart and not by the compilation itself.
+     */
+    private boolean isRetryable(PacketDispatcher failedDispatcher, Throwable failure, int attempt) {
+        return failure instanceof IOException
+                && !(failure instanceof InterruptedIOException)
+                && failedDispatcher != dispatcher
+                && attempt < MAX_ATTEMPTS;
+    }
+
+    /**
+     * Replaces the compiler process behind the given dispatcher with a new one, without blocking the caller.
+     *
+     * @see #restart(PacketDispatcher)
+     */
+    private void restartAsync(PacketDispatcher failedDispatcher) {
+        runAsync(() -> restart(failedDispatcher));
+    }
+
+    private void runAsync(Runnable runnable) {
+        try {
+            asyncExecutor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * @return {@code true} if the compiler process behind the given dispatcher died unexpectedly and can be replaced.
+     */
+    private boolean isCrashed(PacketDispatcher dispatcher) {
+        if (connectionSupplier == null) {
+            return false;
+        }
+        if (dispatcher.isFailed()) {
+            return true;
+        }
+        // A failed send to a dead process may be noticed before the reader has failed.
+        return !dispatcher.getConnection().isAlive();
     }
 
-    private void handleFileImportRequest(int compilationId, FileImportRequest fileImportRequest) throws IOException {
+    /**
+     * Replaces a crashed compiler process and counts the crash.
+     * <p>
+     * The first crash is handled right away. Further crashes without a successful compilation in between are delayed
+     * with an exponential back-off, so a compiler which keeps crashing does not cause a restart loop.
+     */
+    private void restartAfterCrash(PacketDispatcher crashedDispatcher) {
+        synchronized (restartLock) {
+            if (dispatcher != crashedDispatcher || closed) {
+                return;
+            }
+
+            // Every caller which noticed the same crash waits for the same restart.
+            if (crashRestartDispatcher != crashedDispatcher) {
+                crashRestartDispatcher = crashedDispatcher;
+                crashCount.incrementAndGet();
+                int crashes = consecutiveCrashes++;
+                log.warn("The compiler {} crashed, restarting it", crashedDispatcher.getConnection());
+
+                long delay = crashes > 0
+                        ? Math.min(INITIAL_CRASH_RESTART_DELAY_MILLIS << Math.min(crashes - 1, 16), MAX_CRASH_RESTART_DELAY_MILLIS)
+                        : 0;
+                crashRestartNotBefore = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            }
+
+            // wait() releases the lock, so close() and other callers are not blocked by the back-off.
+            long remaining;
+            while (dispatcher == crashedDispatcher && !closed && (remaining = crashRestartNotBefore - System.nanoTime()) > 0) {
+                try {
+                    restartLock.wait(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        restart(crashedDispatcher);
+    }
+
+    private void resetCrashes() {
+        if (consecutiveCrashes != 0) {
+            consecutiveCrashes = 0;
+        }
+    }
+
+    /**
+     * Replaces the compiler process behind the given dispatcher with a new one from the {@link ConnectionSupplier}.
+     * <p>
+     * The new dispatcher is installed before the old one is closed, so compilations which fail because of the restart
+     * can be retried on the new process.
+     * Without a {@link ConnectionSupplier}, the old process is just closed.
+     */
+    private void restart(PacketDispatcher failedDispatcher) {
+        synchronized (restartLock) {
+            if (dispatcher != failedDispatcher || closed) {
+                return;
+            }
+
+            if (connectionSupplier != null) {
+                try {
+                    dispatcher = new PacketDispatcher(connectionSupplier.get());
+                    restartCount.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    log.error("Failed to restart the compiler", e);
+                }
+            }
+        }
+
+        try {
+            failedDispatcher.close();
+        } catch (IOException e) {
+            log.warn("Failed to close the old compiler connection", e);
+        }
+    }
+
+    /**
+     * Handles a single message sent by the compiler.
+     *
+     * @return The given message if it's the final response of the request, {@code null} otherwise.
+     */
+    private OutboundMessage handleMessage(Compilation compilation, OutboundMessage outboundMessage) throws IOException {
+        switch (outboundMessage.getMessageCase()) {
+
+            case ERROR:
+                throw new SassProtocolErrorException(outboundMessage.getError());
+            case COMPILE_RESPONSE:
+            case VERSION_RESPONSE:
+                return outboundMessage;
+            case LOG_EVENT:
+                loggingHandler.handle(outboundMessage.getLogEvent());
+                return null;
+            case CANONICALIZE_REQUEST:
+                runCallback(compilation, () -> handleCanonicalizeRequest(compilation, outboundMessage.getCanonicalizeRequest()));
+                return null;
+            case IMPORT_REQUEST:
+                runCallback(compilation, () -> handleImportRequest(compilation, outboundMessage.getImportRequest()));
+                return null;
+            case FILE_IMPORT_REQUEST:
+                runCallback(compilation, () -> handleFileImportRequest(compilation, outboundMessage.getFileImportRequest()));
+                return null;
+            case FUNCTION_CALL_REQUEST:
+                runCallback(compilation, () -> handleFunctionCallRequest(compilation, outboundMessage.getFunctionCallRequest()));
+                return null;
+            case MESSAGE_NOT_SET:
+                throw new IllegalStateException("No message set");
+            default:
+                throw new IllegalStateException("Unknown OutboundMessage: " + outboundMessage.getMessageCase());
+        }
+    }
+
+    /**
+     * Runs the given callback on the {@link #getCallbackExecutor() callbackExecutor}.
+     * If the callback fails to send its response, the whole compilation fails.
+     */
+    private void runCallback(Compilation compilation, Callback callback) {
+        try {
+            callbackExecutor.execute(() -> {
+                try {
+                    callback.run();
+                } catch (IOException | RuntimeException e) {
+                    compilation.fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compilation.fail(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Callback {
+        void run() throws IOException;
+    }
+
+    /**
+     * The state of a single running compilation.
+     */
+    private abstract static class Compilation {
+
+        final int compilationId;
+
+        /**
+         * The options used to look up importers and functions. May be {@code null} for version requests.
+         */
+        final CompileOptions compileOptions;
+
+        /**
+         * The dispatcher of the compiler process this compilation is running on.
+         */
+        final PacketDispatcher dispatcher;
+
+        Compilation(int compilationId, CompileOptions compileOptions, PacketDispatcher dispatcher) {
+            this.compilationId = compilationId;
+            this.compileOptions = compileOptions;
+            this.dispatcher = dispatcher;
+        }
+
+        void send(InboundMessage inboundMessage) throws IOException {
+            dispatcher.getConnection().sendMessage(compilationId, inboundMessage);
+        }
+
+        /**
+         * Aborts the compilation with the given failure.
+         */
+        abstract void fail(Throwable throwable);
+    }
+
+    /**
+     * The compilation id 0 is reserved for version requests and 0xffffffff for protocol errors,
+     * so only positive ids are handed out.
+     */
+    private int nextCompilationId() {
+        return compilationIds.updateAndGet(id -> id == Integer.MAX_VALUE ? 1 : id + 1);
+    }
+
+    private void handleFileImportRequest(Compilation compilation, FileImportRequest fileImportRequest) throws IOException {
         FileImportResponse.Builder fileImportResponse = FileImportResponse.newBuilder()
                 .setId(fileImportRequest.getId());
 
-        FileImporter fileImporter = fileImporters.get(fileImportRequest.getImporterId());
+        FileImporter fileImporter = compilation.compileOptions.getFileImportersById().get(fileImportRequest.getImporterId());
 
         try {
             File file = fileImporter.handleImport(fileImportRequest.getUrl(), fileImportRequest.getFromImport());
@@ -388,14 +1304,14 @@ public class SassCompiler implements Closeable {
             fileImportResponse.setError(getErrorMessage(t));
         }
 
-        connection.sendMessage(compilationId, inboundMessage(fileImportResponse.build()));
+        compilation.send(inboundMessage(fileImportResponse.build()));
     }
 
-    private void handleImportRequest(int compilationId, ImportRequest importRequest) throws IOException {
+    private void handleImportRequest(Compilation compilation, ImportRequest importRequest) throws IOException {
         ImportResponse.Builder importResponse = ImportResponse.newBuilder()
                 .setId(importRequest.getId());
 
-        CustomImporter customImporter = customImporters.get(importRequest.getImporterId());
+        CustomImporter customImporter = compilation.compileOptions.getCustomImportersById().get(importRequest.getImporterId());
 
         try {
             ImportResponse.ImportSuccess success = customImporter.handleImport(importRequest.getUrl());
@@ -407,14 +1323,14 @@ public class SassCompiler implements Closeable {
             importResponse.setError(getErrorMessage(t));
         }
 
-        connection.sendMessage(compilationId, inboundMessage(importResponse.build()));
+        compilation.send(inboundMessage(importResponse.build()));
     }
 
-    private void handleCanonicalizeRequest(int compilationId, CanonicalizeRequest canonicalizeRequest) throws IOException {
+    private void handleCanonicalizeRequest(Compilation compilation, CanonicalizeRequest canonicalizeRequest) throws IOException {
         CanonicalizeResponse.Builder canonicalizeResponse = CanonicalizeResponse.newBuilder()
                 .setId(canonicalizeRequest.getId());
 
-        CustomImporter customImporter = customImporters.get(canonicalizeRequest.getImporterId());
+        CustomImporter customImporter = compilation.compileOptions.getCustomImportersById().get(canonicalizeRequest.getImporterId());
 
         try {
             String canonicalize = customImporter.canonicalize(canonicalizeRequest.getUrl(), canonicalizeRequest.getFromImport());
@@ -427,10 +1343,10 @@ public class SassCompiler implements Closeable {
             canonicalizeResponse.setError(getErrorMessage(e));
         }
 
-        connection.sendMessage(compilationId, inboundMessage(canonicalizeResponse.build()));
+        compilation.send(inboundMessage(canonicalizeResponse.build()));
     }
 
-    private void handleFunctionCallRequest(int compilationId, FunctionCallRequest functionCallRequest) throws IOException {
+    private void handleFunctionCallRequest(Compilation compilation, FunctionCallRequest functionCallRequest) throws IOException {
         FunctionCallResponse.Builder response = FunctionCallResponse.newBuilder()
                 .setId(functionCallRequest.getId());
 
@@ -438,7 +1354,7 @@ public class SassCompiler implements Closeable {
         try {
             switch (functionCallRequest.getIdentifierCase()) {
                 case NAME:
-                    sassFunction = globalFunctions.get(functionCallRequest.getName());
+                    sassFunction = compilation.compileOptions.getFunctionsByName().get(functionCallRequest.getName());
                     break;
                 case FUNCTION_ID:
                     throw new UnsupportedOperationException("Calling functions by ID is not supported");
@@ -454,7 +1370,7 @@ public class SassCompiler implements Closeable {
             response.setError(getErrorMessage(e));
         }
 
-        connection.sendMessage(compilationId, inboundMessage(response.build()));
+        compilation.send(inboundMessage(response.build()));
     }
 
     private String getErrorMessage(Throwable t) {
@@ -463,8 +1379,107 @@ public class SassCompiler implements Closeable {
         return sw.toString();
     }
 
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * How often a compilation is attempted if the compiler is restarted while it's running.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final long INITIAL_CRASH_RESTART_DELAY_MILLIS = 100;
+
+    private static final long MAX_CRASH_RESTART_DELAY_MILLIS = 10_000;
+
+    private static Executor sharedAsyncExecutor;
+
+    private static ScheduledExecutorService timeoutScheduler;
+
+    private static synchronized ScheduledExecutorService timeoutScheduler() {
+        if (timeoutScheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "sass-compiler-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            timeoutScheduler = executor;
+        }
+        return timeoutScheduler;
+    }
+
+    private static synchronized Executor defaultAsyncExecutor() {
+        if (sharedAsyncExecutor == null) {
+            sharedAsyncExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "sass-compiler-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sharedAsyncExecutor;
+    }
+
+    /**
+     * The list returned by {@link #getLoadPaths()}, which writes its changes through to the {@link #compileOptions}.
+     */
+    private class LoadPathsView extends AbstractList<File> {
+
+        @Override
+        public File get(int index) {
+            return getCompileOptions().getLoadPaths().get(index);
+        }
+
+        @Override
+        public int size() {
+            return getCompileOptions().getLoadPaths().size();
+        }
+
+        @Override
+        public File set(int index, @NonNull File loadPath) {
+            return update(loadPaths -> loadPaths.set(index, loadPath));
+        }
+
+        @Override
+        public void add(int index, @NonNull File loadPath) {
+            update(loadPaths -> {
+                loadPaths.add(index, loadPath);
+                return null;
+            });
+            modCount++;
+        }
+
+        @Override
+        public File remove(int index) {
+            File removed = update(loadPaths -> loadPaths.remove(index));
+            modCount++;
+            return removed;
+        }
+
+        /**
+         * Applies the given modification to a copy of the current load paths and replaces the compile options.
+         *
+         * @return The result of the modification.
+         */
+        private File update(Function<List<File>, File> modification) {
+            File[] result = new File[1];
+            updateCompileOptions(options -> {
+                List<File> loadPaths = new ArrayList<>(options.getLoadPaths());
+                result[0] = modification.apply(loadPaths);
+                return options.withLoadPaths(Collections.unmodifiableList(loadPaths));
+            });
+            return result[0];
+        }
+    }
+
     @Override
     public void close() throws IOException {
-        connection.close();
+        PacketDispatcher current;
+        synchronized (restartLock) {
+            closed = true;
+            current = dispatcher;
+            restartLock.notifyAll();
+        }
+        if (current != null) {
+            current.close();
+        }
     }
 }
@@ -1,15 +1,24 @@
 package de.larsgrefer.sass.embedded;
 
 import androidx.annotation.RequiresApi;
+import de.larsgrefer.sass.embedded.connection.CompilerConnection;
 import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
+import de.larsgrefer.sass.embedded.connection.ConnectionSupplier;
+import de.larsgrefer.sass.embedded.connection.ProcessConnection;
 import de.larsgrefer.sass.embedded.util.PlatformUtils;
+import lombok.NonNull;
 import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * @author Lars Grefer
  */
+@Slf4j
 @RequiresApi(1000)
 @UtilityClass
 public class SassCompilerFactory {
@@ -26,7 +35,7 @@ public class SassCompilerFactory {
      */
     public static SassCompiler bundled() throws IOException {
         try {
-            return new SassCompiler(ConnectionFactory.bundled());
+            return new SassCompiler(ConnectionFactory::bundled);
         } catch (RuntimeException e) {
             if (PlatformUtils.isAndroid()) {
                 throw new IllegalStateException("Use AndroidSassCompilerFactory on Android", e);
@@ -37,6 +46,98 @@ public class SassCompilerFactory {
     }
 
     public static SassCompiler downloaded() throws IOException {
-        return new SassCompiler(ConnectionFactory.downloaded());
+        return new SassCompiler(ConnectionFactory::downloaded);
+    }
+
+    /**
+     * Create a new {@link SassCompiler} based on the dart-sass-embedded binary bundled in this jar in the background.
+     * <p>
+     * Extracting the binary, starting the process and the {@link ConnectionFactory#warmUp(CompilerConnection) warm-up}
+     * all happen on a background thread, so the first real compilation does not have to pay for them.
+     *
+     * @return A future which is completed with the ready to use {@link SassCompiler}.
+     * @see #bundled()
+     */
+    public static CompletableFuture<SassCompiler> bundledAsync() {
+        return createAsync(() -> {
+            ProcessConnection connection = ConnectionFactory.bundled();
+            if (ConnectionFactory.isWarmUp()) {
+                // Already warmed up by the ConnectionFactory.
+                return connection;
+            }
+
+            try {
+                ConnectionFactory.warmUp(connection);
+            } catch (IOException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            return connection;
+        }, null);
+    }
+
+    /**
+     * Create a new {@link SassCompiler} using the given {@link ConnectionSupplier} in the background.
+     *
+     * @param connectionSupplier The supplier for the connection to the compiler.
+     * @param warmUpScss         A stylesheet which is compiled once before the future is completed,
+     *                           or {@code null} to skip the warm-up.
+     * @return A future which is completed with the ready to use {@link SassCompiler}.
+     */
+    public static CompletableFuture<SassCompiler> createAsync(@NonNull ConnectionSupplier connectionSupplier, @Nullable String warmUpScss) {
+        return CompletableFuture.supplyAsync(() -> {
+            SassCompiler sassCompiler;
+            try {
+                sassCompiler = new SassCompiler(connectionSupplier);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+
+            if (warmUpScss != null) {
+                warmUp(sassCompiler, warmUpScss);
+            }
+
+            return sassCompiler;
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "sass-compiler-bootstrap");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    private static void warmUp(SassCompiler sassCompiler, String warmUpScss) {
+        long start = System.nanoTime();
+        try {
+            sassCompiler.compileScssString(warmUpScss);
+            log.debug("Warm-up compilation took {}ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (SassCompilationFailedException e) {
+            log.warn("The warm-up stylesheet failed to compile", e);
+        } catch (IOException | RuntimeException e) {
+            try {
+                sassCompiler.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Create a new {@link SassCompiler} based on the dart-sass-embedded binary bundled in this jar,
+     * which only extracts the binary and starts the process when it's used for the first time.
+     *
+     * @see #bundled()
+     */
+    public static SassCompiler lazyBundled() {
+        return lazy(ConnectionFactory::bundled);
+    }
+
+    /**
+     * Create a new {@link SassCompiler} which only connects to the compiler when it's used for the first time.
+     *
+     * @param connectionSupplier The supplier for the connection to the compiler.
+     */
+    public static SassCompiler lazy(@NonNull ConnectionSupplier connectionSupplier) {
+        return new SassCompiler(null, connectionSupplier);
     }
 }
@@ -0,0 +1,597 @@
+package de.larsgrefer.sass.embedded;
+
+import de.larsgrefer.sass.embedded.cache.CompilationCache;
+import de.larsgrefer.sass.embedded.connection.CompilerConnection;
+import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
+import de.larsgrefer.sass.embedded.connection.ConnectionSupplier;
+import de.larsgrefer.sass.embedded.logging.LoggingHandler;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A pool of warm {@link SassCompiler} instances, each backed by its own {@link CompilerConnection}.
+ * <p>
+ * {@link SassCompiler Compilers} are {@link #lease() leased} from the pool and returned to it by
+ * {@link SassCompiler#close() closing} them:
+ * <pre>{@code
+ * try (SassCompiler sassCompiler = pool.lease()) {
+ *     sassCompiler.compileFile(file);
+ * }
+ * }</pre>
+ * Use {@link #setCompilerCustomizer(Consumer)} to configure every compiler of the pool.
+ * Changes a lessee makes to the {@link SassCompiler#getCompileOptions() options}, the {@link SassCompiler#getLoggingHandler() loggingHandler},
+ * the {@link SassCompiler#getCompilationCache() compilationCache} or the executors of a leased compiler are reverted when it's returned.
+ * A returned compiler throws an {@link IllegalStateException} when it's used, until it's leased again.
+ * So a lessee must not keep a reference after closing it, and must close it only once.
+ * <p>
+ * A background task evicts compilers which have been idle for too long, removes idle compilers whose process died,
+ * checks the health of idle compilers using {@link SassCompiler#getVersion()} every {@link #getHealthCheckInterval() healthCheckInterval}
+ * and keeps at least {@link #getMinSize() minSize} compilers alive.
+ * When lessees had to wait for a compiler for longer than {@link #getGrowThreshold() growThreshold} on average,
+ * an additional compiler is spawned ahead of time (up to {@link #getMaxSize() maxSize}).
+ *
+ * @author Lars Grefer
+ * @see SassCompilerFactory
+ */
+@Slf4j
+public class SassCompilerPool implements Closeable {
+
+    private final ConnectionSupplier connectionSupplier;
+
+    /**
+     * The number of compilers which are kept alive, even if they are idle.
+     */
+    @Getter
+    @Setter
+    private int minSize = 1;
+
+    /**
+     * The maximum number of compilers (idle and leased) of this pool.
+     */
+    @Getter
+    @Setter
+    private int maxSize = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * How long {@link #lease()} waits for a compiler to become available.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration leaseTimeout = Duration.ofSeconds(30);
+
+    /**
+     * How long a compiler may be idle before it's closed, as long as there are more than {@link #getMinSize() minSize} compilers.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration idleTimeout = Duration.ofMinutes(5);
+
+    /**
+     * After how many compilations a compiler is closed and replaced by a fresh one.
+     * {@code 0} disables recycling.
+     */
+    @Getter
+    @Setter
+    private long maxCompilationsPerCompiler = 0;
+
+    /**
+     * If the average time lessees had to wait for a compiler exceeds this threshold, an additional compiler is spawned in advance.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration growThreshold = Duration.ofMillis(50);
+
+    /**
+     * How often {@link SassCompiler#getVersion()} is called on idle compilers to check their health.
+     * Compilers whose process died are removed right away, independent of this interval.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration healthCheckInterval = Duration.ofMinutes(1);
+
+    /**
+     * Whether {@link SassCompiler#getVersion()} should be called on idle compilers before they are leased.
+     */
+    @Getter
+    @Setter
+    private boolean testOnLease = false;
+
+    /**
+     * Called once for every new compiler, before it's leased for the first time.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Consumer<SassCompiler> compilerCustomizer = sassCompiler -> {
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    /**
+     * Idle compilers, the most recently used one first.
+     * Compilers which are currently {@link PooledSassCompiler#checking checked} stay in here, but are skipped by {@link #lease()}.
+     */
+    private final Deque<PooledSassCompiler> idle = new ArrayDeque<>();
+
+    /**
+     * The number of compilers which are idle, leased or currently being created.
+     */
+    private int size = 0;
+
+    private int waiting = 0;
+
+    /**
+     * Exponentially weighted moving average of the time lessees had to wait, in nanoseconds.
+     */
+    private double averageWaitNanos = 0;
+
+    private boolean closed = false;
+
+    private ScheduledExecutorService maintenanceExecutor;
+
+    /**
+     * Creates a new pool of compilers based on the {@link ConnectionFactory#bundled() bundled} dart-sass.
+     */
+    public SassCompilerPool() {
+        this(ConnectionFactory::bundled);
+    }
+
+    public SassCompilerPool(@NonNull ConnectionSupplier connectionSupplier) {
+        this.connectionSupplier = connectionSupplier;
+    }
+
+    /**
+     * Lease a {@link SassCompiler} from this pool.
+     * <p>
+     * The returned compiler has to be {@link SassCompiler#close() closed} in order to return it to the pool.
+     *
+     * @return A leased {@link SassCompiler}.
+     * @throws InterruptedIOException If no compiler became available within the {@link #getLeaseTimeout() leaseTimeout}.
+     * @throws IOException            If a new compiler has to be created and that fails.
+     */
+    public SassCompiler lease() throws IOException {
+        ensureMaintenanceStarted();
+
+        long start = System.nanoTime();
+        long remaining = leaseTimeout.toNanos();
+
+        while (true) {
+            PooledSassCompiler compiler = null;
+            boolean create = false;
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new IllegalStateException("The pool has been closed");
+                    }
+
+                    compiler = pollIdle();
+                    if (compiler != null) {
+                        break;
+                    }
+
+                    if (size < maxSize) {
+                        size++;
+                        create = true;
+                        break;
+                    }
+
+                    if (remaining <= 0) {
+                        recordWaitTime(System.nanoTime() - start);
+                        throw new InterruptedIOException("No SassCompiler became available within " + leaseTimeout);
+                    }
+
+                    waiting++;
+                    try {
+                        remaining = available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for a SassCompiler");
+                    } finally {
+                        waiting--;
+                    }
+                }
+                recordWaitTime(System.nanoTime() - start);
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                compiler = createCompiler();
+            } else if (testOnLease && !isHealthy(compiler)) {
+                destroy(compiler);
+                continue;
+            }
+
+            compiler.leased.set(true);
+            compiler.setReleased(false);
+            return compiler;
+        }
+    }
+
+    /**
+     * Removes the most recently used idle compiler which is not currently checked.
+     * The caller must hold the {@link #lock}.
+     */
+    private PooledSassCompiler pollIdle() {
+        Iterator<PooledSassCompiler> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            PooledSassCompiler compiler = iterator.next();
+            if (!compiler.checking) {
+                iterator.remove();
+                return compiler;
+            }
+        }
+        return null;
+    }
+
+    private void recordWaitTime(long waitNanos) {
+        averageWaitNanos = 0.8 * averageWaitNanos + 0.2 * waitNanos;
+    }
+
+    /**
+     * Creates a new compiler. The caller must already have incremented {@link #size}.
+     */
+    private PooledSassCompiler createCompiler() throws IOException {
+        CompilerConnection connection = null;
+        try {
+            connection = connectionSupplier.get();
+            PooledSassCompiler compiler = new PooledSassCompiler(connection);
+            compilerCustomizer.accept(compiler);
+            compiler.saveInitialSettings();
+            compiler.lastChecked = System.nanoTime();
+            return compiler;
+        } catch (IOException | RuntimeException | Error e) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            lock.lock();
+            try {
+                size--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    private void release(PooledSassCompiler compiler) {
+        // close() may be called concurrently, but the compiler must only be returned once.
+        if (!compiler.leased.compareAndSet(true, false)) {
+            return;
+        }
+        compiler.restoreInitialSettings();
+        long compilationCount = compiler.getCompilationCount();
+        // From now on, a lessee which still uses the compiler fails.
+        compiler.setReleased(true);
+
+        boolean recycle = maxCompilationsPerCompiler > 0 && compilationCount >= maxCompilationsPerCompiler;
+
+        lock.lock();
+        try {
+            if (!closed && !recycle) {
+                compiler.lastUsed = System.nanoTime();
+                idle.addFirst(compiler);
+                available.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (recycle) {
+            log.debug("Recycling SassCompiler after {} compilations", compilationCount);
+        }
+        destroy(compiler);
+    }
+
+    private void destroy(PooledSassCompiler compiler) {
+        try {
+            compiler.destroy();
+        } catch (IOException e) {
+            log.warn("Failed to close SassCompiler", e);
+        }
+
+        lock.lock();
+        try {
+            size--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isHealthy(PooledSassCompiler compiler) {
+        try {
+            compiler.fetchVersion();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.info("Removing unhealthy SassCompiler from pool", e);
+            return false;
+        }
+    }
+
+    private synchronized void ensureMaintenanceStarted() {
+        if (maintenanceExecutor == null && !closed) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "sass-compiler-pool");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenanceExecutor.scheduleWithFixedDelay(this::maintain, 0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Evicts idle and unhealthy compilers, and spawns new ones when the pool is too small or lessees had to wait.
+     */
+    void maintain() {
+        try {
+            evictIdleCompilers();
+            checkIdleCompilers();
+            grow();
+        } catch (RuntimeException e) {
+            log.warn("SassCompilerPool maintenance failed", e);
+        }
+    }
+
+    private void evictIdleCompilers() {
+        long now = System.nanoTime();
+        List<PooledSassCompiler> evicted = new ArrayList<>();
+
+        lock.lock();
+        try {
+            Iterator<PooledSassCompiler> iterator = idle.descendingIterator();
+            while (iterator.hasNext() && size - evicted.size() > minSize) {
+                PooledSassCompiler compiler = iterator.next();
+                if (!compiler.checking && now - compiler.lastUsed > idleTimeout.toNanos()) {
+                    iterator.remove();
+                    evicted.add(compiler);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        evicted.forEach(this::destroy);
+    }
+
+    private void checkIdleCompilers() {
+        long now = System.nanoTime();
+        List<PooledSassCompiler> dead = new ArrayList<>();
+        List<PooledSassCompiler> candidates = new ArrayList<>();
+
+        lock.lock();
+        try {
+            Iterator<PooledSassCompiler> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                PooledSassCompiler compiler = iterator.next();
+                if (compiler.checking) {
+                    continue;
+                }
+                if (!compiler.isAlive()) {
+                    iterator.remove();
+                    dead.add(compiler);
+                } else if (now - compiler.lastChecked > healthCheckInterval.toNanos()) {
+                    compiler.checking = true;
+                    candidates.add(compiler);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!dead.isEmpty()) {
+            log.info("Removing {} dead SassCompiler(s) from pool", dead.size());
+            dead.forEach(this::destroy);
+        }
+
+        for (PooledSassCompiler candidate : candidates) {
+            boolean healthy = isHealthy(candidate);
+
+            lock.lock();
+            try {
+                candidate.checking = false;
+                candidate.lastChecked = System.nanoTime();
+                // The pool may have been closed in the meantime, which already destroyed the compiler.
+                if (healthy || !idle.remove(candidate)) {
+                    available.signal();
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+            destroy(candidate);
+        }
+    }
+
+    private void grow() {
+        lock.lock();
+        try {
+            if (closed || size >= maxSize) {
+                return;
+            }
+            boolean tooSmall = size < minSize;
+            boolean tooSlow = idle.isEmpty() && averageWaitNanos > growThreshold.toNanos();
+            if (!tooSmall && !tooSlow) {
+                return;
+            }
+            size++;
+            if (tooSlow) {
+                averageWaitNanos = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        PooledSassCompiler compiler;
+        try {
+            compiler = createCompiler();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to spawn a new SassCompiler", e);
+            return;
+        }
+
+        compiler.leased.set(true);
+        release(compiler);
+    }
+
+    /**
+     * @return The number of compilers managed by this pool, including leased ones.
+     */
+    public int getSize() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of idle compilers.
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of threads currently waiting in {@link #lease()}.
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The (exponentially weighted) average time lessees had to wait for a compiler.
+     */
+    public Duration getAverageWaitTime() {
+        lock.lock();
+        try {
+            return Duration.ofNanos((long) averageWaitNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close this pool and all idle compilers.
+     * Leased compilers are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        List<PooledSassCompiler> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        synchronized (this) {
+            if (maintenanceExecutor != null) {
+                maintenanceExecutor.shutdownNow();
+            }
+        }
+
+        toClose.forEach(this::destroy);
+    }
+
+    private class PooledSassCompiler extends SassCompiler {
+
+        private final AtomicBoolean leased = new AtomicBoolean();
+
+        private long lastUsed;
+
+        private long lastChecked;
+
+        /**
+         * Whether the health of this idle compiler is currently checked. Guarded by the {@link #lock}.
+         */
+        private boolean checking;
+
+        private CompileOptions initialOptions;
+        private LoggingHandler initialLoggingHandler;
+        private CompilationCache initialCompilationCache;
+        private Executor initialCallbackExecutor;
+        private Executor initialAsyncExecutor;
+
+        PooledSassCompiler(CompilerConnection connection) {
+            super(connection, connectionSupplier);
+        }
+
+        /**
+         * Remembers the settings made by the {@link #getCompilerCustomizer() compilerCustomizer}.
+         */
+        void saveInitialSettings() {
+            initialOptions = getCompileOptions();
+            initialLoggingHandler = getLoggingHandler();
+            initialCompilationCache = getCompilationCache();
+            initialCallbackExecutor = getCallbackExecutor();
+            initialAsyncExecutor = getAsyncExecutor();
+        }
+
+        /**
+         * Reverts the changes made by the last lessee.
+         */
+        void restoreInitialSettings() {
+            setCompileOptions(initialOptions);
+            setLoggingHandler(initialLoggingHandler);
+            setCompilationCache(initialCompilationCache);
+            setCallbackExecutor(initialCallbackExecutor);
+            setAsyncExecutor(initialAsyncExecutor);
+        }
+
+        /**
+         * Returns this compiler to the pool.
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        void destroy() throws IOException {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package de.larsgrefer.sass.embedded;
+
+import androidx.annotation.RequiresApi;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a set of entrypoints compiled and recompiles them when one of their dependencies changes.
+ * <p>
+ * The dependencies of every entrypoint are taken from the {@link CompileSuccess#getLoadedUrls() loaded urls} of its
+ * last compilation, so only the entrypoints which actually use a changed file are recompiled.
+ * If a compilation fails, the files it loaded and the file which contains the error are added to the dependencies, so
+ * fixing a broken partial triggers a new compilation as well.
+ * Changes are collected for {@link #getDebounce()} before the affected entrypoints are recompiled in parallel.
+ * <p>
+ * Only dependencies with {@code file:} urls are watched. If the directory of a dependency is deleted, its nearest
+ * existing ancestor is watched until the directory is created again.
+ *
+ * @author Lars Grefer
+ * @see WatchService
+ */
+@Slf4j
+@RequiresApi(26)
+public class SassWatcher implements Closeable {
+
+    private final SassCompiler sassCompiler;
+
+    private final Listener listener;
+
+    /**
+     * How long to wait for further changes before the affected entrypoints are recompiled.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration debounce = Duration.ofMillis(100);
+
+    /**
+     * The options used for all compilations.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private CompileOptions compileOptions;
+
+    private final WatchService watchService;
+
+    /**
+     * The dependencies of every entrypoint.
+     */
+    private final Map<Path, Set<Path>> dependencies = new HashMap<>();
+
+    /**
+     * The entrypoints which depend on a file.
+     */
+    private final Map<Path, Set<Path>> dependents = new HashMap<>();
+
+    private final Map<Path, WatchKey> watchedDirectories = new HashMap<>();
+
+    private final Map<Path, Long> latestGenerations = new ConcurrentHashMap<>();
+
+    private final AtomicLong generations = new AtomicLong();
+
+    private final Set<Path> pending = new HashSet<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Thread watchThread;
+
+    private volatile boolean closed;
+
+    public SassWatcher(@NonNull SassCompiler sassCompiler, @NonNull Listener listener) throws IOException {
+        this.sassCompiler = sassCompiler;
+        this.listener = listener;
+        this.compileOptions = sassCompiler.getCompileOptions();
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sass-watcher-debounce");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.watchThread = new Thread(this::watchLoop, "sass-watcher");
+        this.watchThread.setDaemon(true);
+        this.watchThread.start();
+    }
+
+    /**
+     * Add the given entrypoint and compile it.
+     */
+    public void addEntrypoint(@NonNull File entrypoint) {
+        Path path = normalize(entrypoint.toPath());
+        synchronized (this) {
+            if (dependencies.containsKey(path)) {
+                return;
+            }
+            updateDependencies(path, Collections.singleton(path));
+        }
+        compile(Collections.singleton(path));
+    }
+
+    public synchronized void removeEntrypoint(@NonNull File entrypoint) {
+        Path path = normalize(entrypoint.toPath());
+        updateDependencies(path, Collections.emptySet());
+        dependencies.remove(path);
+        latestGenerations.remove(path);
+    }
+
+    public synchronized Set<File> getEntrypoints() {
+        Set<File> result = new LinkedHashSet<>();
+        dependencies.keySet().forEach(path -> result.add(path.toFile()));
+        return result;
+    }
+
+    /**
+     * @return The entrypoints which would be recompiled if the given file changed.
+     */
+    public synchronized Set<File> getDependents(@NonNull File file) {
+        Set<File> result = new LinkedHashSet<>();
+        dependents.getOrDefault(normalize(file.toPath()), Collections.emptySet())
+                .forEach(path -> result.add(path.toFile()));
+        return result;
+    }
+
+    private void compile(Collection<Path> entrypoints) {
+        CompileOptions options = compileOptions;
+
+        for (Path entrypoint : entrypoints) {
+            long generation = generations.incrementAndGet();
+            latestGenerations.put(entrypoint, generation);
+
+            sassCompiler.compileFileAsync(entrypoint.toFile(), options)
+                    .whenComplete((compileSuccess, throwable) -> onCompiled(entrypoint, generation, compileSuccess, throwable));
+        }
+    }
+
+    private void onCompiled(Path entrypoint, long generation, CompileSuccess compileSuccess, Throwable throwable) {
+        if (closed || !Long.valueOf(generation).equals(latestGenerations.get(entrypoint))) {
+            // A newer compilation has been started in the meantime, or the entrypoint has been removed.
+            return;
+        }
+
+        if (compileSuccess != null) {
+            Set<Path> newDependencies = toDependencies(entrypoint, compileSuccess.getLoadedUrls());
+
+            synchronized (this) {
+                if (dependencies.containsKey(entrypoint)) {
+                    updateDependencies(entrypoint, newDependencies);
+                }
+            }
+
+            listener.onSuccess(entrypoint.toFile(), compileSuccess);
+        } else {
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+
+            if (cause instanceof SassCompilationFailedException) {
+                // Keep the old dependencies and add the ones of the failed compilation, so fixing any of them
+                // (e.g. the partial which contains the error) triggers a new compilation.
+                SassCompilationFailedException failure = (SassCompilationFailedException) cause;
+                Set<Path> newDependencies = toDependencies(entrypoint, failure.getLoadedUrls());
+                String spanUrl = failure.getCompileFailure().getSpan().getUrl();
+                if (spanUrl.startsWith("file:")) {
+                    newDependencies.add(normalize(Paths.get(URI.create(spanUrl))));
+                }
+
+                synchronized (this) {
+                    Set<Path> oldDependencies = dependencies.get(entrypoint);
+                    if (oldDependencies != null) {
+                        newDependencies.addAll(oldDependencies);
+                        updateDependencies(entrypoint, newDependencies);
+                    }
+                }
+            }
+
+            listener.onFailure(entrypoint.toFile(), cause);
+        }
+    }
+
+    private static Set<Path> toDependencies(Path entrypoint, List<String> loadedUrls) {
+        Set<Path> dependencies = new HashSet<>();
+        dependencies.add(entrypoint);
+        for (String loadedUrl : loadedUrls) {
+            if (loadedUrl.startsWith("file:")) {
+                dependencies.add(normalize(Paths.get(URI.create(loadedUrl))));
+            }
+        }
+        return dependencies;
+    }
+
+    private void updateDependencies(Path entrypoint, Set<Path> newDependencies) {
+        Set<Path> oldDependencies = dependencies.getOrDefault(entrypoint, Collections.emptySet());
+
+        for (Path oldDependency : oldDependencies) {
+            if (!newDependencies.contains(oldDependency)) {
+                Set<Path> entrypoints = dependents.get(oldDependency);
+                if (entrypoints != null) {
+                    entrypoints.remove(entrypoint);
+                    if (entrypoints.isEmpty()) {
+                        dependents.remove(oldDependency);
+                    }
+                }
+            }
+        }
+
+        for (Path newDependency : newDependencies) {
+            dependents.computeIfAbsent(newDependency, d -> new HashSet<>()).add(entrypoint);
+        }
+
+        dependencies.put(entrypoint, new HashSet<>(newDependencies));
+        syncWatchedDirectories();
+    }
+
+    /**
+     * Watches the directories of all dependencies and stops watching the unused ones.
+     * A directory which doesn't exist (any more) can't be watched, so its nearest existing ancestor is watched instead,
+     * until the directory is created again.
+     *
+     * @return The directories of dependencies which are watched now, but weren't before.
+     */
+    private Set<Path> syncWatchedDirectories() {
+        Set<Path> directories = new HashSet<>();
+        for (Path dependency : dependents.keySet()) {
+            if (dependency.getParent() != null) {
+                directories.add(dependency.getParent());
+            }
+        }
+
+        Set<Path> usedDirectories = new HashSet<>();
+        Set<Path> addedDirectories = new HashSet<>();
+        for (Path directory : directories) {
+            Path existing = directory;
+            while (existing != null && !Files.isDirectory(existing)) {
+                existing = existing.getParent();
+            }
+            if (existing == null) {
+                continue;
+            }
+
+            usedDirectories.add(existing);
+            if (watch(existing) && existing.equals(directory)) {
+                addedDirectories.add(directory);
+            }
+        }
+
+        Iterator<Map.Entry<Path, WatchKey>> iterator = watchedDirectories.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iterator.next();
+            if (!usedDirectories.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                iterator.remove();
+            }
+        }
+
+        return addedDirectories;
+    }
+
+    /**
+     * @return {@code true} if the directory wasn't watched before.
+     */
+    private boolean watch(Path directory) {
+        WatchKey existingKey = watchedDirectories.get(directory);
+        if (existingKey != null && existingKey.isValid()) {
+            return false;
+        }
+
+        try {
+            WatchKey watchKey = directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE
+            );
+            watchedDirectories.put(directory, watchKey);
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to watch {}", directory, e);
+            return false;
+        }
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) watchKey.watchable();
+
+            synchronized (this) {
+                boolean directoryCreated = false;
+
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        log.debug("Lost file system events for {}, recompiling all dependents", directory);
+                        addDependentsOf(directory);
+                        directoryCreated = true;
+                    } else {
+                        Path changed = directory.resolve((Path) event.context());
+                        pending.addAll(dependents.getOrDefault(changed, Collections.emptySet()));
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                            directoryCreated = true;
+                        }
+                    }
+                }
+
+                if (!watchKey.reset() || directoryCreated) {
+                    // The directory has been deleted, or a missing directory might have been created again.
+                    // Files which were changed before it could be watched again would go unnoticed otherwise.
+                    for (Path rewatched : syncWatchedDirectories()) {
+                        addDependentsOf(rewatched);
+                    }
+                }
+
+                if (!pending.isEmpty()) {
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+
+    private void addDependentsOf(Path directory) {
+        dependents.forEach((dependency, entrypoints) -> {
+            if (directory.equals(dependency.getParent())) {
+                pending.addAll(entrypoints);
+            }
+        });
+    }
+
+    private void scheduleFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = scheduler.schedule(this::flush, debounce.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void flush() {
+        List<Path> entrypoints;
+        synchronized (this) {
+            entrypoints = new ArrayList<>(pending);
+            pending.clear();
+            scheduledFlush = null;
+        }
+
+        if (!entrypoints.isEmpty() && !closed) {
+            log.debug("Recompiling {}", entrypoints);
+            compile(entrypoints);
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        scheduler.shutdownNow();
+        watchService.close();
+        watchThread.interrupt();
+    }
+
+    /**
+     * Receives the results of all compilations of a {@link SassWatcher}.
+     * <p>
+     * The methods are called from the threads of the {@link SassCompiler#getAsyncExecutor() asyncExecutor}
+     * and might be called concurrently for different entrypoints.
+     */
+    public interface Listener {
+
+        void onSuccess(File entrypoint, CompileSuccess compileSuccess);
+
+        /**
+         * @param failure The {@link SassCompilationFailedException}, {@link IOException} or other exception which caused the compilation to fail.
+         */
+        void onFailure(File entrypoint, Throwable failure);
+    }
+}
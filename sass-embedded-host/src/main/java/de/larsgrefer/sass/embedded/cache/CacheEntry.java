@@ -0,0 +1,95 @@
+package de.larsgrefer.sass.embedded.cache;
+
+import com.google.protobuf.ByteString;
+import com.sass_lang.embedded_protocol.OutboundMessage.CompileResponse;
+import lombok.Value;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cached compilation together with the fingerprints of its dependencies.
+ *
+ * @author Lars Grefer
+ * @see CacheTier
+ */
+@Value
+public class CacheEntry {
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The successful {@link CompileResponse}.
+     */
+    CompileResponse compileResponse;
+
+    /**
+     * A hash of the content of every {@link CompileResponse#getLoadedUrlsList() loaded url}.
+     */
+    Map<String, ByteString> fingerprints;
+
+    /**
+     * @return The estimated number of bytes this entry occupies.
+     */
+    public long getSize() {
+        long size = compileResponse.getSerializedSize();
+        for (Map.Entry<String, ByteString> fingerprint : fingerprints.entrySet()) {
+            size += fingerprint.getKey().length() + fingerprint.getValue().size();
+        }
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(compileResponse.getSerializedSize() + 64 * (fingerprints.size() + 1));
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(fingerprints.size());
+            for (Map.Entry<String, ByteString> fingerprint : fingerprints.entrySet()) {
+                out.writeUTF(fingerprint.getKey());
+                out.writeInt(fingerprint.getValue().size());
+                fingerprint.getValue().writeTo(out);
+            }
+
+            out.writeInt(compileResponse.getSerializedSize());
+            compileResponse.writeTo(out);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw IOExceptions
+            throw new UncheckedIOException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException If the given bytes are no valid entry.
+     * @see #toByteArray()
+     */
+    public static CacheEntry parseFrom(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported cache entry version " + version);
+            }
+
+            int fingerprintCount = in.readInt();
+            Map<String, ByteString> fingerprints = new LinkedHashMap<>();
+            for (int i = 0; i < fingerprintCount; i++) {
+                String url = in.readUTF();
+                byte[] hash = new byte[in.readInt()];
+                in.readFully(hash);
+                fingerprints.put(url, ByteString.copyFrom(hash));
+            }
+
+            byte[] response = new byte[in.readInt()];
+            in.readFully(response);
+
+            return new CacheEntry(CompileResponse.parseFrom(response), Collections.unmodifiableMap(fingerprints));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid cache entry", e);
+        }
+    }
+}
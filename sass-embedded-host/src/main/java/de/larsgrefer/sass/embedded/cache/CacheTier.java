@@ -0,0 +1,42 @@
+package de.larsgrefer.sass.embedded.cache;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * A single storage tier of a {@link CompilationCache}.
+ * <p>
+ * Tiers only store and retrieve {@link CacheEntry entries}. Computing the keys and checking whether an entry is
+ * still up-to-date is done by the {@link CompilationCache}, so a tier can be backed by any key-value store.
+ * {@link CacheEntry#toByteArray()} and {@link CacheEntry#parseFrom(byte[])} can be used by tiers which store bytes.
+ *
+ * @author Lars Grefer
+ * @see MemoryCacheTier
+ * @see DiskCacheTier
+ */
+public interface CacheTier {
+
+    /**
+     * @param key The key of the entry. Keys only consist of lower case hex characters.
+     * @return The entry stored for the given key or {@code null}.
+     */
+    @Nullable
+    CacheEntry get(String key) throws IOException;
+
+    /**
+     * Store the given entry, replacing any previous entry for the same key.
+     */
+    void put(String key, CacheEntry entry) throws IOException;
+
+    void remove(String key) throws IOException;
+
+    /**
+     * Whether the entries of this tier outlive the JVM.
+     * <p>
+     * Persistent tiers are skipped for compilations which use {@link de.larsgrefer.sass.embedded.importer.Importer importers},
+     * because the ids of importers are only unique within a single JVM.
+     */
+    default boolean isPersistent() {
+        return false;
+    }
+}
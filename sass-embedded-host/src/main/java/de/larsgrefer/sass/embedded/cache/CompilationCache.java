@@ -0,0 +1,370 @@
+package de.larsgrefer.sass.embedded.cache;
+
+import androidx.annotation.RequiresApi;
+import com.google.protobuf.ByteString;
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest;
+import de.larsgrefer.sass.embedded.CompileSuccess;
+import de.larsgrefer.sass.embedded.util.IOUtils;
+import de.larsgrefer.sass.embedded.util.PropertyUtils;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for successful compilations, backed by one or more {@link CacheTier tiers}.
+ * <p>
+ * Entries are keyed on a hash of the whole {@link CompileRequest}, so the input and all options are part of the key.
+ * Every entry also records a fingerprint of the content of each {@link CompileSuccess#getLoadedUrls() loaded url},
+ * which is checked before the entry is used. Fingerprints of {@code file:} urls are only recomputed when the size or
+ * the modification time of the file changes, so a hit usually only costs a few {@code stat} calls.
+ * Resources in local jar files ({@code jar:file:} urls) are fingerprinted by their jar file.
+ * Compilations which load any other url (e.g. {@code http:}) are not cached, as checking them would require
+ * downloading them again for every hit.
+ * <p>
+ * The tiers are queried in order. An entry found in a later tier is copied to the earlier ones,
+ * so e.g. a {@link MemoryCacheTier} in front of a {@link DiskCacheTier} is filled from disk after a restart.
+ * Failures of a tier are logged and treated like a miss.
+ * <p>
+ * Note that importers and functions are assumed to be deterministic, log events of the original compilation are not
+ * replayed for hits, and newly created files which would shadow a loaded url are not detected.
+ * The ids of custom importers and file importers are part of the request, but they are only unique within a single
+ * JVM. After a restart, the same id might belong to a different importer. Likewise, only the signatures of
+ * {@link de.larsgrefer.sass.embedded.functions.HostFunction host functions} are part of the request, not their
+ * implementation, which might change with the next deployment. So compilations which use importers or host functions
+ * are never stored in or loaded from {@link CacheTier#isPersistent() persistent} tiers.
+ * The {@link de.larsgrefer.sass.embedded.SassCompiler#compile(URL) compilation of non-file urls} is not cached at all,
+ * because it uses a new importer for every call.
+ * <p>
+ * The output of dart-sass changes between releases, so the {@link #getCompilerIdentity() compiler identity} is part
+ * of the key as well. Persistent entries of an older compiler are not used after an upgrade.
+ *
+ * @author Lars Grefer
+ * @see de.larsgrefer.sass.embedded.SassCompiler#setCompilationCache(CompilationCache)
+ */
+@Slf4j
+@RequiresApi(26)
+public class CompilationCache {
+
+    @Getter
+    private final List<CacheTier> tiers;
+
+    /**
+     * The maximum number of remembered file fingerprints.
+     */
+    @Getter
+    @Setter
+    private int maxFileFingerprints = 10_000;
+
+    /**
+     * Identifies the compiler which produces the cached results. It defaults to the bundled dart-sass version and
+     * has to be changed if the compilers are created differently, e.g. using a {@link de.larsgrefer.sass.embedded.connection.ConnectionFactory#ofExecutable(java.io.File) custom executable}.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private String compilerIdentity = getDefaultCompilerIdentity();
+
+    private final LinkedHashMap<Path, FileFingerprint> fileFingerprints = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Creates a cache with a single {@link MemoryCacheTier}.
+     */
+    public CompilationCache() {
+        this(new MemoryCacheTier());
+    }
+
+    public CompilationCache(@NonNull CacheTier... tiers) {
+        this(Arrays.asList(tiers));
+    }
+
+    public CompilationCache(@NonNull List<CacheTier> tiers) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one tier is required");
+        }
+        this.tiers = Collections.unmodifiableList(new ArrayList<>(tiers));
+    }
+
+    /**
+     * Look up a cached compilation for the given request.
+     *
+     * @return The cached {@link CompileSuccess} or {@code null} if there is none or one of its dependencies has changed.
+     */
+    @Nullable
+    public CompileSuccess get(CompileRequest compileRequest) {
+        String key = key(compileRequest);
+        List<CacheTier> tiers = getTiers(compileRequest);
+
+        for (int i = 0; i < tiers.size(); i++) {
+            CacheEntry entry = get(tiers.get(i), key);
+            if (entry == null) {
+                continue;
+            }
+
+            if (!isUpToDate(entry)) {
+                tiers.forEach(tier -> remove(tier, key));
+                invalidationCount.incrementAndGet();
+                break;
+            }
+
+            for (int j = 0; j < i; j++) {
+                put(tiers.get(j), key, entry);
+            }
+
+            hitCount.incrementAndGet();
+            return new CompileSuccess(entry.getCompileResponse());
+        }
+
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store the result of the given request in all tiers.
+     *
+     * @param compilationStart The {@link System#currentTimeMillis() time} the compilation was started.
+     *                         Results which depend on files modified after this time are not cached, because the compiler
+     *                         might have seen an older version of them.
+     */
+    public void put(CompileRequest compileRequest, CompileSuccess compileSuccess, long compilationStart) {
+        Map<String, ByteString> fingerprints = new LinkedHashMap<>();
+
+        for (String loadedUrl : compileSuccess.getLoadedUrls()) {
+            ByteString fingerprint = fingerprint(loadedUrl, compilationStart);
+            if (fingerprint == null) {
+                log.debug("Not caching compilation because {} can not be fingerprinted", loadedUrl);
+                return;
+            }
+            fingerprints.put(loadedUrl, fingerprint);
+        }
+
+        CacheEntry entry = new CacheEntry(compileSuccess.getCompileResponse(), Collections.unmodifiableMap(fingerprints));
+        String key = key(compileRequest);
+
+        for (CacheTier tier : getTiers(compileRequest)) {
+            put(tier, key, entry);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of lookups which did not find an up-to-date entry, including {@link #getInvalidationCount() invalidations}.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The number of entries which were dropped, because one of their dependencies has changed.
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return The tiers which may hold entries for the given request.
+     */
+    private List<CacheTier> getTiers(CompileRequest compileRequest) {
+        if (!usesCallbacks(compileRequest)) {
+            return tiers;
+        }
+
+        List<CacheTier> volatileTiers = new ArrayList<>(tiers.size());
+        for (CacheTier tier : tiers) {
+            if (!tier.isPersistent()) {
+                volatileTiers.add(tier);
+            }
+        }
+        return volatileTiers;
+    }
+
+    /**
+     * @return Whether the result of the given request depends on code of the host which is not identified by the request.
+     */
+    private static boolean usesCallbacks(CompileRequest compileRequest) {
+        if (compileRequest.getGlobalFunctionsCount() > 0) {
+            return true;
+        }
+
+        if (compileRequest.hasString() && isImporterWithId(compileRequest.getString().getImporter())) {
+            return true;
+        }
+
+        for (CompileRequest.Importer importer : compileRequest.getImportersList()) {
+            if (isImporterWithId(importer)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isImporterWithId(CompileRequest.Importer importer) {
+        switch (importer.getImporterCase()) {
+            case IMPORTER_ID:
+            case FILE_IMPORTER_ID:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private static CacheEntry get(CacheTier tier, String key) {
+        try {
+            return tier.get(key);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to read {} from {}", key, tier, e);
+            return null;
+        }
+    }
+
+    private static void put(CacheTier tier, String key, CacheEntry entry) {
+        try {
+            tier.put(key, entry);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to write {} to {}", key, tier, e);
+        }
+    }
+
+    private static void remove(CacheTier tier, String key) {
+        try {
+            tier.remove(key);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to remove {} from {}", key, tier, e);
+        }
+    }
+
+    private boolean isUpToDate(CacheEntry entry) {
+        for (Map.Entry<String, ByteString> dependency : entry.getFingerprints().entrySet()) {
+            ByteString fingerprint = fingerprint(dependency.getKey(), Long.MAX_VALUE);
+            if (!dependency.getValue().equals(fingerprint)) {
+                log.debug("{} has changed", dependency.getKey());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A hash of the content behind the given url or {@code null} if it can't be determined.
+     */
+    @Nullable
+    private ByteString fingerprint(String url, long notModifiedAfter) {
+        try {
+            if (url.startsWith("file:")) {
+                return fingerprintFile(Paths.get(new URI(url)), notModifiedAfter);
+            }
+
+            if (url.startsWith("jar:file:") && url.contains("!/")) {
+                String jarUrl = url.substring("jar:".length(), url.indexOf("!/"));
+                return fingerprintFile(Paths.get(new URI(jarUrl)), notModifiedAfter);
+            }
+
+            return null;
+        } catch (NoSuchFileException e) {
+            return ByteString.EMPTY;
+        } catch (Exception e) {
+            log.debug("Failed to fingerprint {}", url, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private ByteString fingerprintFile(Path path, long notModifiedAfter) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        if (lastModified > notModifiedAfter) {
+            return null;
+        }
+
+        FileFingerprint cached;
+        synchronized (fileFingerprints) {
+            cached = fileFingerprints.get(path);
+        }
+        if (cached != null && cached.getLastModified() == lastModified && cached.getSize() == attributes.size()) {
+            return cached.getHash();
+        }
+
+        ByteString hash;
+        try (InputStream in = Files.newInputStream(path)) {
+            hash = hash(in);
+        }
+        synchronized (fileFingerprints) {
+            fileFingerprints.put(path, new FileFingerprint(lastModified, attributes.size(), hash));
+
+            Iterator<Path> iterator = fileFingerprints.keySet().iterator();
+            while (fileFingerprints.size() > maxFileFingerprints && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return hash;
+    }
+
+    private String key(CompileRequest compileRequest) {
+        MessageDigest digest = sha256();
+        digest.update(compilerIdentity.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(compileRequest.toByteArray());
+        return IOUtils.toHex(digest.digest());
+    }
+
+    private static String getDefaultCompilerIdentity() {
+        return "dart-sass " + PropertyUtils.getDartSassVersion() + ", protocol " + PropertyUtils.getEmbeddedProtocolVersion();
+    }
+
+    private static ByteString hash(InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return ByteString.copyFrom(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @lombok.Value
+    private static class FileFingerprint {
+        long lastModified;
+        long size;
+        ByteString hash;
+    }
+}
@@ -0,0 +1,283 @@
+package de.larsgrefer.sass.embedded.cache;
+
+import androidx.annotation.RequiresApi;
+import de.larsgrefer.sass.embedded.util.IOUtils;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * {@link CacheTier} which stores one file per entry in a directory, so cached compilations survive restarts.
+ * <p>
+ * Entries are written to a temporary file first, which is then atomically moved into place, so readers never see
+ * partially written entries. Every file also carries a checksum, so entries which were corrupted anyway (e.g. by a
+ * crash of the machine before the data reached the disk) are detected and dropped.
+ * When the directory grows beyond {@link #getMaxBytes()}, the least recently used entries are deleted.
+ *
+ * @author Lars Grefer
+ */
+@Slf4j
+@RequiresApi(26)
+public class DiskCacheTier implements CacheTier {
+
+    private static final int MAGIC = 0x53415353; // "SASS"
+
+    private static final String SUFFIX = ".entry";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Temporary files older than this were left over by a crashed writer. Younger ones might still be written
+     * by another JVM which shares the directory.
+     */
+    private static final long STALE_TEMP_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Getter
+    private final Path directory;
+
+    /**
+     * The maximum number of bytes of all entry files.
+     */
+    @Getter
+    @Setter
+    private long maxBytes = 256 * 1024 * 1024;
+
+    private long currentBytes;
+
+    public DiskCacheTier(@NonNull Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_MILLIS;
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    if (lastModified(file).toMillis() < staleBefore) {
+                        Files.deleteIfExists(file);
+                    }
+                } else if (name.endsWith(SUFFIX)) {
+                    currentBytes += Files.size(file);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public CacheEntry get(String key) throws IOException {
+        Path file = file(key);
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        CacheEntry entry;
+        try {
+            entry = CacheEntry.parseFrom(unwrap(bytes));
+        } catch (IOException e) {
+            log.warn("Dropping corrupt cache entry {}", file, e);
+            remove(key);
+            return null;
+        }
+
+        try {
+            // Used as access time for the LRU eviction.
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.debug("Failed to touch {}", file, e);
+        }
+
+        return entry;
+    }
+
+    @Override
+    public void put(String key, CacheEntry entry) throws IOException {
+        byte[] bytes = wrap(entry.toByteArray());
+        if (bytes.length > maxBytes) {
+            return;
+        }
+
+        Path file = file(key);
+        Path tempFile = Files.createTempFile(directory, key, TEMP_SUFFIX);
+
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            synchronized (this) {
+                long oldSize = Files.exists(file) ? Files.size(file) : 0;
+                IOUtils.move(tempFile, file);
+                currentBytes += bytes.length - oldSize;
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        evict();
+    }
+
+    @Override
+    public synchronized void remove(String key) throws IOException {
+        Path file = file(key);
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        if (Files.deleteIfExists(file)) {
+            currentBytes -= size;
+        }
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    /**
+     * @return The number of bytes of all entry files.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Deletes the least recently used entries until the directory is within {@link #getMaxBytes()} again.
+     */
+    private synchronized void evict() throws IOException {
+        if (currentBytes <= maxBytes) {
+            return;
+        }
+
+        List<EntryFile> files = new ArrayList<>();
+        long total = 0;
+
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) stream::iterator) {
+                if (!file.getFileName().toString().endsWith(SUFFIX)) {
+                    continue;
+                }
+
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Deleted by someone else in the meantime.
+                    continue;
+                }
+
+                // The times are read only once, as concurrent hits keep touching them while sorting.
+                files.add(new EntryFile(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                total += attributes.size();
+            }
+        } catch (NoSuchFileException | UncheckedIOException e) {
+            // The directory was changed by someone else while listing, try again next time.
+            log.debug("Failed to list {}", directory, e);
+            return;
+        }
+
+        files.sort(Comparator.comparingLong(entryFile -> entryFile.lastModified));
+
+        for (EntryFile file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (Files.deleteIfExists(file.path)) {
+                total -= file.size;
+            }
+        }
+
+        currentBytes = total;
+    }
+
+    private Path file(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime();
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Adds a header with a magic number, the length and a checksum of the payload.
+     */
+    private static byte[] wrap(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer buffer = ByteBuffer.allocate(16 + payload.length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(payload.length);
+        buffer.putLong(crc.getValue());
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private static byte[] unwrap(byte[] bytes) throws IOException {
+        if (bytes.length < 16) {
+            throw new EOFException("Truncated cache entry");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a cache entry");
+        }
+
+        int length = buffer.getInt();
+        long checksum = buffer.getLong();
+
+        if (length != buffer.remaining()) {
+            throw new EOFException("Truncated cache entry");
+        }
+
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch");
+        }
+
+        return payload;
+    }
+
+    private static class EntryFile {
+
+        private final Path path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        EntryFile(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package de.larsgrefer.sass.embedded.cache;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CacheTier} which keeps the least recently used entries in memory.
+ *
+ * @author Lars Grefer
+ */
+public class MemoryCacheTier implements CacheTier {
+
+    /**
+     * The maximum number of cached compilations.
+     */
+    @Getter
+    @Setter
+    private int maxEntries = 1000;
+
+    /**
+     * The maximum (estimated) number of bytes of all cached compilations.
+     */
+    @Getter
+    @Setter
+    private long maxBytes = 64 * 1024 * 1024;
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long currentBytes;
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @Nullable
+    @Override
+    public synchronized CacheEntry get(String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public synchronized void put(String key, CacheEntry entry) {
+        long size = entry.getSize();
+        if (size > maxBytes) {
+            return;
+        }
+
+        CacheEntry old = entries.put(key, entry);
+        if (old != null) {
+            currentBytes -= old.getSize();
+        }
+        currentBytes += size;
+
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && iterator.hasNext()) {
+            CacheEntry eldest = iterator.next();
+            iterator.remove();
+            currentBytes -= eldest.getSize();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        CacheEntry old = entries.remove(key);
+        if (old != null) {
+            currentBytes -= old.getSize();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The (estimated) number of bytes of all cached compilations.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * @return The number of entries which were dropped to stay within {@link #getMaxEntries()} and {@link #getMaxBytes()}.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
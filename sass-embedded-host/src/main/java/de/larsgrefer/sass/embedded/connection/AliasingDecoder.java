@@ -0,0 +1,115 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage.CompileResponse;
+import com.sass_lang.embedded_protocol.OutboundMessage.CompileResponse.CompileSuccess;
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+
+/**
+ * Decodes {@link OutboundMessage OutboundMessages}, so that the CSS and the source map of a {@link CompileSuccess} are
+ * zero-copy slices of the frame they were read from.
+ * <p>
+ * Protobuf does not alias {@code string} fields, even if aliasing is enabled, as it decodes them into {@link String Strings}.
+ * So the fields on the path to {@link CompileSuccess#getCssBytes()} and {@link CompileSuccess#getSourceMapBytes()}
+ * are walked by hand and set as (aliased) bytes. All other fields are merged from their raw bytes as usual.
+ * <p>
+ * As the decoded message references the frame, the frame must not be modified or reused afterwards.
+ *
+ * @author Lars Grefer
+ */
+@UtilityClass
+class AliasingDecoder {
+
+    private static final int OUTBOUND_COMPILE_RESPONSE = tag(OutboundMessage.COMPILE_RESPONSE_FIELD_NUMBER);
+    private static final int COMPILE_RESPONSE_SUCCESS = tag(CompileResponse.SUCCESS_FIELD_NUMBER);
+    private static final int COMPILE_SUCCESS_CSS = tag(CompileSuccess.CSS_FIELD_NUMBER);
+    private static final int COMPILE_SUCCESS_SOURCE_MAP = tag(CompileSuccess.SOURCE_MAP_FIELD_NUMBER);
+
+    /**
+     * @param frame  The buffer containing the frame (without its length prefix).
+     * @param offset The start of the frame in the buffer.
+     * @param length The length of the frame.
+     */
+    static Packet<OutboundMessage> parse(byte[] frame, int offset, int length) throws IOException {
+        // Only a CodedInputStream created from a ByteString treats the buffer as immutable, which is required for aliasing.
+        CodedInputStream input = UnsafeByteOperations.unsafeWrap(frame, offset, length).newCodedInput();
+        input.enableAliasing(true);
+
+        try {
+            int compilationId = input.readUInt32();
+
+            OutboundMessage.Builder builder = OutboundMessage.newBuilder();
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (tag == OUTBOUND_COMPILE_RESPONSE) {
+                    int oldLimit = input.pushLimit(input.readRawVarint32());
+                    builder.setCompileResponse(parseCompileResponse(frame, offset, input));
+                    input.popLimit(oldLimit);
+                } else {
+                    mergeField(builder, frame, offset, input, tag);
+                }
+            }
+
+            return new Packet<>(compilationId, builder.build());
+        } catch (InvalidProtocolBufferException e) {
+            throw e.unwrapIOException();
+        }
+    }
+
+    private static CompileResponse parseCompileResponse(byte[] frame, int offset, CodedInputStream input) throws IOException {
+        CompileResponse.Builder builder = CompileResponse.newBuilder();
+
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == COMPILE_RESPONSE_SUCCESS) {
+                int oldLimit = input.pushLimit(input.readRawVarint32());
+                builder.setSuccess(parseCompileSuccess(frame, offset, input));
+                input.popLimit(oldLimit);
+            } else {
+                mergeField(builder, frame, offset, input, tag);
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static CompileSuccess parseCompileSuccess(byte[] frame, int offset, CodedInputStream input) throws IOException {
+        CompileSuccess.Builder builder = CompileSuccess.newBuilder();
+
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == COMPILE_SUCCESS_CSS) {
+                builder.setCssBytes(input.readBytes());
+            } else if (tag == COMPILE_SUCCESS_SOURCE_MAP) {
+                builder.setSourceMapBytes(input.readBytes());
+            } else {
+                mergeField(builder, frame, offset, input, tag);
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Merges the field, whose tag has just been read, from its raw bytes.
+     */
+    private static void mergeField(Message.Builder builder, byte[] frame, int offset, CodedInputStream input, int tag) throws IOException {
+        int start = offset + input.getTotalBytesRead() - CodedOutputStream.computeUInt32SizeNoTag(tag);
+        input.skipField(tag);
+        int end = offset + input.getTotalBytesRead();
+
+        builder.mergeFrom(frame, start, end - start);
+    }
+
+    private static int tag(int fieldNumber) {
+        return (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    }
+}
@@ -0,0 +1,462 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.TextFormat;
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * {@link CompilerConnection} implementation based on non-blocking channels.
+ * <p>
+ * Instead of blocking a thread per connection, the channel is read by the thread of a {@link ConnectionSelector},
+ * which can service many connections. A {@link PacketDispatcher} for this connection receives the packets directly
+ * from the selector thread and does not start its own reader thread.
+ * <p>
+ * The pipes of a {@link Process} are not {@link SelectableChannel selectable}, so this can only be used for compilers
+ * which are reachable through a {@link SocketChannel} or a {@link Pipe}.
+ * For local processes use {@link ProcessConnection}.
+ * <p>
+ * As the selector thread is shared, callbacks of asynchronous compilations should not block it; see
+ * {@link de.larsgrefer.sass.embedded.SassCompiler#setCallbackExecutor(java.util.concurrent.Executor)}.
+ *
+ * @author Lars Grefer
+ * @see ConnectionSelector
+ */
+@Slf4j
+public class ChannelConnection implements CompilerConnection {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int INITIAL_WRITE_BUFFER_SIZE = 8 * 1024;
+
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Frames of at least this size are read into their own buffer and decoded with the {@link AliasingDecoder}.
+     * Smaller frames always fit into the read buffer.
+     */
+    private static final int ALIASING_THRESHOLD = 32 * 1024;
+
+    /**
+     * Queued after the last packet, once the connection has {@link #failure failed}.
+     */
+    private static final Packet<OutboundMessage> FAILED = new Packet<>(0, OutboundMessage.getDefaultInstance());
+
+    @Getter(AccessLevel.PACKAGE)
+    private final SelectableChannel source;
+
+    /**
+     * Observes all packets sent and received by this connection.
+     * Received packets are reported on the selector thread.
+     */
+    @Getter
+    @Setter
+    @Nullable
+    private volatile WireListener wireListener;
+
+    /**
+     * The maximum size of a single received packet. Larger packets fail the connection before they are read.
+     */
+    @Getter
+    @Setter
+    private volatile int maxFrameSize = Packet.DEFAULT_MAX_FRAME_SIZE;
+
+    private final WritableByteChannel sink;
+
+    private final Object writeLock = new Object();
+
+    // guarded by writeLock
+    private byte[] writeBuffer = new byte[INITIAL_WRITE_BUFFER_SIZE];
+
+    private volatile Selector writeSelector;
+
+    // only used by the selector thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // only used by the selector thread
+    private ByteBuffer largeFrame;
+
+    /**
+     * Whether the length prefix of an incomplete frame has been read. Only used by the selector thread.
+     */
+    private boolean frameStarted;
+
+    /**
+     * The {@link System#nanoTime()} when the length prefix of the incomplete frame was read, if {@link #frameStarted}.
+     */
+    private long frameStartNanos;
+
+    private final Object receiverLock = new Object();
+
+    // guarded by receiverLock
+    @Nullable
+    private Receiver receiver;
+
+    // guarded by receiverLock
+    @Nullable
+    private IOException failure;
+
+    /**
+     * Packets which have been read before a {@link Receiver} was set, followed by {@link #FAILED} if the connection failed.
+     */
+    private final BlockingQueue<Packet<OutboundMessage>> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * @param source   The channel to read the messages of the compiler from. It's switched to non-blocking mode.
+     * @param sink     The channel to write the messages for the compiler to.
+     * @param selector The selector which reads from the source channel.
+     */
+    public <C extends SelectableChannel & ReadableByteChannel> ChannelConnection(@NonNull C source, @NonNull WritableByteChannel sink, @NonNull ConnectionSelector selector) throws IOException {
+        this.source = source;
+        this.sink = sink;
+
+        source.configureBlocking(false);
+        selector.register(this);
+    }
+
+    /**
+     * Creates a connection using the {@link ConnectionSelector#getShared() shared selector}.
+     */
+    public ChannelConnection(@NonNull SocketChannel socketChannel) throws IOException {
+        this(socketChannel, socketChannel, ConnectionSelector.getShared());
+    }
+
+    @Override
+    public void sendMessage(Packet<InboundMessage> packet) throws IOException {
+        if (log.isTraceEnabled()) {
+            log.trace("{} --> {}", packet.getCompilationId(), TextFormat.printer().shortDebugString(packet.getMessage()));
+        }
+
+        if (packet.getMessage().hasVersionRequest()) {
+            packet.setCompilationId(0);
+        }
+
+        WireListener listener = wireListener;
+        int size;
+        long start;
+        synchronized (writeLock) {
+            start = System.nanoTime();
+            size = packet.getDelimitedSize();
+            byte[] buffer = writeBuffer(size);
+            packet.writeDelimitedTo(buffer, 0);
+
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, size);
+            while (byteBuffer.hasRemaining()) {
+                if (sink.write(byteBuffer) == 0) {
+                    awaitWritable();
+                }
+            }
+        }
+
+        if (listener != null) {
+            listener.onSent(packet, size, start, System.nanoTime());
+        }
+    }
+
+    /**
+     * Blocks until a non-blocking sink (e.g. the same {@link SocketChannel} as the source) can accept more bytes.
+     */
+    private void awaitWritable() throws IOException {
+        if (!(sink instanceof SelectableChannel) || ((SelectableChannel) sink).isBlocking()) {
+            return;
+        }
+
+        if (writeSelector == null) {
+            writeSelector = Selector.open();
+            ((SelectableChannel) sink).register(writeSelector, SelectionKey.OP_WRITE);
+        }
+
+        try {
+            writeSelector.select();
+            writeSelector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw new AsynchronousCloseException();
+        }
+
+        if (Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send a message");
+        }
+    }
+
+    private byte[] writeBuffer(int size) {
+        if (size <= writeBuffer.length) {
+            return writeBuffer;
+        }
+        if (size > MAX_RETAINED_BUFFER_SIZE) {
+            return new byte[size];
+        }
+        return writeBuffer = new byte[Math.min(Math.max(writeBuffer.length * 2, size), MAX_RETAINED_BUFFER_SIZE)];
+    }
+
+    /**
+     * Blocks until the next packet has been read by the selector.
+     * <p>
+     * This is only needed if the connection is used without a {@link PacketDispatcher}.
+     */
+    @Override
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        synchronized (receiverLock) {
+            if (receiver != null) {
+                throw new IllegalStateException("The packets of this connection are pushed to a receiver");
+            }
+        }
+
+        Packet<OutboundMessage> packet;
+        try {
+            packet = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message of the compiler");
+        }
+
+        if (packet == FAILED) {
+            // Keep the marker in the queue, so subsequent calls fail, too.
+            queue.offer(packet);
+            IOException exception;
+            synchronized (receiverLock) {
+                exception = failure;
+            }
+            throw new IOException(exception.getMessage(), exception);
+        }
+
+        return packet;
+    }
+
+    /**
+     * Push all packets (including the ones which have already been read) to the given receiver,
+     * instead of queueing them for {@link #readResponse()}.
+     */
+    void setReceiver(Receiver receiver) {
+        synchronized (receiverLock) {
+            Packet<OutboundMessage> packet;
+            while ((packet = queue.poll()) != null) {
+                if (packet == FAILED) {
+                    receiver.onFailure(failure);
+                } else {
+                    receiver.onPacket(packet);
+                }
+            }
+            this.receiver = receiver;
+        }
+    }
+
+    /**
+     * Called by the selector thread when the source channel is readable.
+     */
+    void onReadable() {
+        try {
+            ReadableByteChannel channel = (ReadableByteChannel) source;
+
+            while (true) {
+                if (largeFrame != null) {
+                    int read = channel.read(largeFrame);
+                    if (read < 0) {
+                        throw new EOFException("The compiler closed the connection in the middle of a packet");
+                    }
+                    if (largeFrame.hasRemaining()) {
+                        if (read == 0) {
+                            return;
+                        }
+                        continue;
+                    }
+
+                    byte[] frame = largeFrame.array();
+                    largeFrame = null;
+                    frameStarted = false;
+                    deliver(AliasingDecoder.parse(frame, 0, frame.length), frame.length, frameStartNanos);
+                    continue;
+                }
+
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    throw new EOFException(readBuffer.position() == 0
+                            ? "The compiler closed the connection"
+                            : "The compiler closed the connection in the middle of a packet"
+                    );
+                }
+
+                readBuffer.flip();
+                try {
+                    decodeFrames();
+                } finally {
+                    readBuffer.compact();
+                }
+
+                if (read == 0) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            closeQuietly();
+        } catch (RuntimeException e) {
+            log.warn("Unexpected error while reading from {}", source, e);
+            fail(new IOException(e));
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Delivers all complete frames of the (flipped) read buffer.
+     */
+    private void decodeFrames() throws IOException {
+        while (true) {
+            int start = readBuffer.position();
+            int size = readFrameSize();
+            if (size < 0) {
+                return;
+            }
+            Packet.checkFrameSize(size, maxFrameSize);
+
+            // An incomplete frame is decoded again once more data has arrived, so keep the time of its first attempt.
+            long startNanos = frameStarted ? frameStartNanos : System.nanoTime();
+
+            if (size >= ALIASING_THRESHOLD) {
+                byte[] frame = new byte[size];
+                int available = Math.min(readBuffer.remaining(), size);
+                readBuffer.get(frame, 0, available);
+
+                if (available < size) {
+                    largeFrame = ByteBuffer.wrap(frame);
+                    largeFrame.position(available);
+                    frameStarted = true;
+                    frameStartNanos = startNanos;
+                    return;
+                }
+
+                frameStarted = false;
+                deliver(AliasingDecoder.parse(frame, 0, size), size, startNanos);
+            } else if (readBuffer.remaining() >= size) {
+                int offset = readBuffer.arrayOffset() + readBuffer.position();
+                readBuffer.position(readBuffer.position() + size);
+                frameStarted = false;
+                deliver(Packet.parseFrom(readBuffer.array(), offset, size, OutboundMessage.parser()), size, startNanos);
+            } else {
+                readBuffer.position(start);
+                frameStarted = true;
+                frameStartNanos = startNanos;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the length prefix of the next frame.
+     *
+     * @return The size of the next frame or {@code -1} if the length prefix is not complete yet.
+     */
+    private int readFrameSize() throws IOException {
+        int start = readBuffer.position();
+        int size = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!readBuffer.hasRemaining()) {
+                readBuffer.position(start);
+                return -1;
+            }
+
+            byte b = readBuffer.get();
+            size |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (size < 0) {
+                    throw new IOException("Invalid packet size: " + (size & 0xffffffffL));
+                }
+                return size;
+            }
+        }
+
+        throw new IOException("Malformed packet size");
+    }
+
+    /**
+     * @param size       The size of the frame, without its length prefix.
+     * @param startNanos The {@link System#nanoTime()} when the length prefix of the frame was read.
+     */
+    private void deliver(Packet<OutboundMessage> packet, int size, long startNanos) {
+        WireListener listener = wireListener;
+        if (listener != null) {
+            listener.onReceived(packet, CodedOutputStream.computeUInt32SizeNoTag(size) + size, startNanos, System.nanoTime());
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("{} <-- {}", packet.getCompilationId(), TextFormat.printer().shortDebugString(packet.getMessage()));
+        }
+
+        synchronized (receiverLock) {
+            if (receiver != null) {
+                receiver.onPacket(packet);
+            } else {
+                queue.offer(packet);
+            }
+        }
+    }
+
+    /**
+     * Fails the connection. Only the first failure is reported.
+     */
+    void fail(IOException exception) {
+        synchronized (receiverLock) {
+            if (failure != null) {
+                return;
+            }
+            failure = exception;
+
+            if (receiver != null) {
+                receiver.onFailure(exception);
+            } else {
+                queue.offer(FAILED);
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}", source, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            source.close();
+            sink.close();
+        } finally {
+            // Wakes up a sender which is waiting for the sink to become writable.
+            Selector selector = writeSelector;
+            if (selector != null) {
+                selector.close();
+            }
+            fail(new EOFException("The connection has been closed"));
+        }
+    }
+
+    /**
+     * Receives the packets of a {@link ChannelConnection} on the selector thread.
+     */
+    interface Receiver {
+
+        void onPacket(Packet<OutboundMessage> packet);
+
+        /**
+         * Called once, when the connection failed or was closed.
+         */
+        void onFailure(IOException exception);
+    }
+}
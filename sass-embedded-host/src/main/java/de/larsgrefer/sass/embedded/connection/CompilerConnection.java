@@ -46,4 +46,14 @@ public interface CompilerConnection extends Closeable {
      */
     Packet<OutboundMessage> readResponse() throws IOException;
 
+    /**
+     * Checks whether the compiler behind this connection is still running.
+     * Decorators should ask their delegate.
+     *
+     * @return {@code false} if the compiler is known to be dead, {@code true} otherwise.
+     */
+    default boolean isAlive() {
+        return true;
+    }
+
 }
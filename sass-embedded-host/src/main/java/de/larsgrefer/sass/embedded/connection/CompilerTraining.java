@@ -0,0 +1,211 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import androidx.annotation.RequiresApi;
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.OutputStyle;
+import com.sass_lang.embedded_protocol.Syntax;
+import de.larsgrefer.sass.embedded.util.IOUtils;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gets new compiler processes past their warm-up phase before they are used.
+ * <p>
+ * Packages which run a JIT snapshot can be trained once: The training workload is run with
+ * {@code --snapshot-kind=app-jit}, and the resulting snapshot is used for all later processes.
+ * AOT snapshots (used by the 64-bit packages) contain compiled code already, but still have to initialize on their
+ * first compilations, so each new process runs the training workload once before it's handed out.
+ *
+ * @author Lars Grefer
+ * @see ConnectionFactory#setWarmUp(boolean)
+ */
+@Slf4j
+@UtilityClass
+@RequiresApi(1000)
+class CompilerTraining {
+
+    /**
+     * Representative stylesheets, which use the module system, the built-in modules, mixins, functions, control
+     * flow and {@code @extend}.
+     * Only the module forms of the built-in functions are used, as the global ones are deprecated.
+     */
+    private static final List<CompileRequest.StringInput> TRAINING_STYLESHEETS = Arrays.asList(
+            stylesheet(Syntax.SCSS, "@use 'sass:math';\n" +
+                    "@use 'sass:color';\n" +
+                    "$base: 4px;\n" +
+                    "@function double($value) { @return $value * 2; }\n" +
+                    "@mixin box($size) { width: $size; height: math.div($size, 2); padding: math.round(math.div($size, 3)); }\n" +
+                    ".box { @include box(double($base)); color: color.adjust(#336699, $lightness: -10%); &:hover { color: red; } }\n" +
+                    "@each $i in 1, 2, 3 { .item-#{$i} { margin: $i * $base; } }\n"),
+            stylesheet(Syntax.SCSS, "@use 'sass:map';\n" +
+                    "@use 'sass:list';\n" +
+                    "@use 'sass:string';\n" +
+                    "$breakpoints: (small: 576px, medium: 768px, large: 992px);\n" +
+                    "@each $name, $width in $breakpoints {\n" +
+                    "  @media (min-width: $width) { .container-#{$name} { max-width: $width - 16px; } }\n" +
+                    "}\n" +
+                    "%message { border: 1px solid #ccc; padding: 10px; }\n" +
+                    ".success { @extend %message; border-color: green; }\n" +
+                    ".error { @extend %message; border-color: red; }\n" +
+                    ".keys { content: string.quote(\"#{list.length(map.keys($breakpoints))}\"); }\n" +
+                    "@for $i from 1 through 12 { .col-#{$i} { width: math.percentage(math.div($i, 12)); } }\n"),
+            stylesheet(Syntax.INDENTED, "@use 'sass:color'\n" +
+                    ".nav\n" +
+                    "  ul\n" +
+                    "    margin: 0\n" +
+                    "    list-style: none\n" +
+                    "  a\n" +
+                    "    color: color.mix(#fff, #000, 25%)\n" +
+                    "    &:hover\n" +
+                    "      text-decoration: underline\n")
+    );
+
+    private static CompileRequest.StringInput stylesheet(Syntax syntax, String source) {
+        return CompileRequest.StringInput.newBuilder()
+                .setSyntax(syntax)
+                .setSource(source)
+                .build();
+    }
+
+    /**
+     * Runs the training workload over the given fresh connection and waits for all results.
+     * <p>
+     * The compilation ids are released afterwards, so the connection can be used normally.
+     */
+    static void warmUp(CompilerConnection connection) throws IOException {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < TRAINING_STYLESHEETS.size(); i++) {
+            int compilationId = i + 1;
+
+            CompileRequest compileRequest = CompileRequest.newBuilder()
+                    .setString(TRAINING_STYLESHEETS.get(i))
+                    .setStyle(i % 2 == 0 ? OutputStyle.EXPANDED : OutputStyle.COMPRESSED)
+                    .setSourceMap(true)
+                    .build();
+
+            connection.sendMessage(compilationId, InboundMessage.newBuilder().setCompileRequest(compileRequest).build());
+
+            while (true) {
+                Packet<OutboundMessage> packet = connection.readResponse();
+                OutboundMessage message = packet.getMessage();
+                if (message.hasError()) {
+                    throw new IOException("Protocol error during the warm-up: " + message.getError().getMessage());
+                }
+                if (packet.getCompilationId() == compilationId && message.hasCompileResponse()) {
+                    if (message.getCompileResponse().hasFailure()) {
+                        log.warn("Training stylesheet {} failed to compile: {}", compilationId, message.getCompileResponse().getFailure().getMessage());
+                    }
+                    break;
+                }
+            }
+        }
+
+        log.debug("The warm-up of {} took {}ms", connection, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Trains an app-jit snapshot for the given command, if it runs a JIT snapshot.
+     * <p>
+     * The snapshot is stored in the given directory, named after the size and modification time of the original
+     * snapshot, and reused by later calls.
+     *
+     * @param command    The command as resolved by {@link ConnectionFactory#getCommand(File)}.
+     * @param packageDir The directory to store the trained snapshot in.
+     * @return The command which uses the trained snapshot, or the given command if there is nothing to train or the
+     * training failed.
+     */
+    static List<String> trainAppJitSnapshot(List<String> command, @Nullable Path packageDir) {
+        if (packageDir == null || command.size() != 3) {
+            return command;
+        }
+
+        File dart = new File(command.get(0));
+        File snapshot = new File(command.get(1));
+        if (!snapshot.isFile() || !snapshot.getName().endsWith(".snapshot")) {
+            return command;
+        }
+
+        try {
+            if (isAotSnapshot(snapshot)) {
+                log.debug("{} is an AOT snapshot, which doesn't need training", snapshot);
+                return command;
+            }
+
+            Path trained = packageDir.resolve(String.format("sass-%d-%d.app-jit.snapshot", snapshot.length(), snapshot.lastModified()));
+
+            if (!Files.isRegularFile(trained)) {
+                Path tempFile = Files.createTempFile(packageDir, "sass", ".app-jit.tmp");
+                try {
+                    train(dart, snapshot, tempFile);
+                    IOUtils.move(tempFile, trained);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+            }
+
+            return Arrays.asList(dart.getAbsolutePath(), trained.toString(), command.get(2));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to train an app-jit snapshot for {}", snapshot, e);
+            return command;
+        }
+    }
+
+    private static void train(File dart, File snapshot, Path target) throws IOException {
+        log.info("Training an app-jit snapshot for {}", snapshot);
+
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                dart.getAbsolutePath(),
+                "--snapshot-kind=app-jit",
+                "--snapshot=" + target,
+                snapshot.getAbsolutePath(),
+                "--embedded"
+        );
+
+        ProcessConnection connection = new ProcessConnection(processBuilder);
+        try {
+            warmUp(connection);
+        } catch (IOException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+
+        // The snapshot is written when the process exits normally.
+        int exitCode = connection.closeGracefully(1, TimeUnit.MINUTES);
+        if (exitCode != 0 || Files.size(target) == 0) {
+            throw new IOException("The training process exited with " + exitCode + " without writing a snapshot");
+        }
+    }
+
+    /**
+     * AOT snapshots are native shared libraries, while JIT snapshots and kernel files have their own formats.
+     */
+    static boolean isAotSnapshot(File snapshot) throws IOException {
+        byte[] magic = new byte[4];
+        int read;
+        try (InputStream in = Files.newInputStream(snapshot.toPath())) {
+            read = in.read(magic);
+        }
+        if (read < 4) {
+            return false;
+        }
+
+        int value = ((magic[0] & 0xff) << 24) | ((magic[1] & 0xff) << 16) | ((magic[2] & 0xff) << 8) | (magic[3] & 0xff);
+
+        return value == 0x7f454c46 // ELF
+                || value == 0xfeedface || value == 0xfeedfacf || value == 0xcefaedfe || value == 0xcffaedfe // Mach-O
+                || (magic[0] == 'M' && magic[1] == 'Z'); // PE
+    }
+}
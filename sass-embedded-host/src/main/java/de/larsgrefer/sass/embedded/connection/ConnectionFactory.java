@@ -10,6 +10,9 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -26,6 +29,46 @@ public class ConnectionFactory {
     private static BundledPackageProvider bundledPackageProvider = new BundledPackageProvider();
     private static DownloadingPackageProvider downloadingPackageProvider = new DownloadingPackageProvider();
 
+    /**
+     * Used for executables which don't come from a {@link DartSassPackageProvider}.
+     */
+    private static final ProtocolVersionCache protocolVersionCache = new ProtocolVersionCache(null);
+
+    public static final String WARM_UP_PROPERTY = "sass.embedded.warmUp";
+
+    private static volatile boolean warmUp = Boolean.getBoolean(WARM_UP_PROPERTY);
+
+    /**
+     * @return Whether new compiler processes are warmed up before they are returned.
+     * @see #setWarmUp(boolean)
+     */
+    public static boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Enables or disables the warm-up of new compiler processes. Disabled by default, unless the
+     * {@value #WARM_UP_PROPERTY} system property is {@code true}.
+     * <p>
+     * When enabled, every new process compiles a training workload before it's returned, so the first real
+     * compilations don't run into the warm-up phase of the dart VM. This is most useful for processes which are started
+     * in the background, e.g. by a {@link de.larsgrefer.sass.embedded.SassCompilerPool}.
+     * For packages which use a JIT snapshot, an app-jit snapshot is trained once and used for all later processes.
+     */
+    public static void setWarmUp(boolean warmUp) {
+        ConnectionFactory.warmUp = warmUp;
+    }
+
+    /**
+     * Runs the training workload of the {@link #setWarmUp(boolean) warm-up} over the given fresh connection, regardless
+     * of {@link #isWarmUp()}.
+     * <p>
+     * The compilation ids of the workload are released afterwards, so the connection can be used normally.
+     */
+    public static void warmUp(CompilerConnection connection) throws IOException {
+        CompilerTraining.warmUp(connection);
+    }
+
     public static ProcessConnection bundled() throws IOException {
         return fromPackageProvider(bundledPackageProvider);
     }
@@ -35,16 +78,9 @@ public class ConnectionFactory {
     }
 
     public static ProcessConnection fromPackageProvider(DartSassPackageProvider dartSassPackageProvider) throws IOException {
-        File executable;
-        try {
-            executable = dartSassPackageProvider.getDartSassExecutable();
-        } catch (IOException | RuntimeException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new IOException(e);
-        }
+        List<String> command = warmUp ? dartSassPackageProvider.getTrainedCommand() : dartSassPackageProvider.getCommand();
 
-        return ofExecutable(executable);
+        return ofCommand(command, dartSassPackageProvider.getProtocolVersionCache());
     }
 
     /**
@@ -55,6 +91,19 @@ public class ConnectionFactory {
      * @throws IOException if the subprocess can not be started.
      */
     public static ProcessConnection ofExecutable(File executable) throws IOException {
+        return ofExecutable(getCommand(executable));
+    }
+
+    /**
+     * Resolves the command line for the given dart-sass executable.
+     * <p>
+     * The launcher scripts of the dart-sass packages are bypassed by running {@code dart} with the {@code sass.snapshot}
+     * directly, if possible.
+     *
+     * @param executable The sass executable.
+     * @return The sass commandline (including --embedded).
+     */
+    static List<String> getCommand(File executable) {
         if (executable == null || !executable.isFile()) {
             throw new IllegalArgumentException(executable + " is not a file");
         }
@@ -93,7 +142,7 @@ public class ConnectionFactory {
 
         cmd.add("--embedded");
 
-        return ofExecutable(cmd);
+        return cmd;
     }
 
     /**
@@ -104,14 +153,65 @@ public class ConnectionFactory {
      * @throws IOException if the subprocess can not be started.
      */
     public static ProcessConnection ofExecutable(List<String> executable) throws IOException {
+        return ofCommand(executable, protocolVersionCache);
+    }
+
+    private static ProcessConnection ofCommand(List<String> executable, ProtocolVersionCache protocolVersionCache) throws IOException {
         String expectedProtocolVersion = getExpectedProtocolVersion();
-        String protocolVersion = findProtocolVersion(executable);
+        String protocolVersion = protocolVersionCache.getProtocolVersion(executable, ConnectionFactory::findProtocolVersion);
         if (!expectedProtocolVersion.equalsIgnoreCase(protocolVersion)) {
             log.warn("This Host uses protocolVersion {} but {} provides {}", expectedProtocolVersion, executable, protocolVersion);
         }
 
         ProcessBuilder processBuilder = new ProcessBuilder(executable);
-        return new ProcessConnection(processBuilder);
+        ProcessConnection connection = new ProcessConnection(processBuilder);
+
+        if (warmUp) {
+            try {
+                CompilerTraining.warmUp(connection);
+            } catch (IOException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Connect to a compiler which is reachable over TCP, e.g. a shared {@code sass-embedded-daemon}.
+     *
+     * @param address The address of the compiler.
+     * @return A fresh {@link ChannelConnection}.
+     * @throws IOException if the connection can not be established.
+     * @see #ofSocket(SocketAddress, Duration)
+     */
+    public static ChannelConnection ofSocket(SocketAddress address) throws IOException {
+        return ofSocket(address, Duration.ZERO);
+    }
+
+    /**
+     * Connect to a compiler which is reachable over TCP, e.g. a shared {@code sass-embedded-daemon}.
+     * <p>
+     * The connection is read by the {@link ConnectionSelector#getShared() shared selector},
+     * so no thread is needed per connection.
+     *
+     * @param address        The address of the compiler.
+     * @param connectTimeout How long to wait for the connection to be established, or {@link Duration#ZERO} to wait
+     *                       until the operating system gives up.
+     * @return A fresh {@link ChannelConnection}.
+     * @throws IOException if the connection can not be established.
+     */
+    public static ChannelConnection ofSocket(SocketAddress address, Duration connectTimeout) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(address, (int) Math.min(connectTimeout.toMillis(), Integer.MAX_VALUE));
+            return new ChannelConnection(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
     }
 
     public static String getExpectedProtocolVersion() {
@@ -0,0 +1,137 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread which reads from the channels of many {@link ChannelConnection ChannelConnections}.
+ * <p>
+ * Complete packets are dispatched on the selector thread, so the number of threads does not grow with the number of
+ * connections.
+ *
+ * @author Lars Grefer
+ * @see ChannelConnection
+ */
+@Slf4j
+public class ConnectionSelector implements Closeable {
+
+    private static ConnectionSelector shared;
+
+    /**
+     * @return The {@link ConnectionSelector} which is used by default.
+     */
+    public static synchronized ConnectionSelector getShared() throws IOException {
+        if (shared == null || shared.closed) {
+            shared = new ConnectionSelector();
+        }
+        return shared;
+    }
+
+    private final Selector selector;
+
+    private final Queue<ChannelConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+    private final Thread selectorThread;
+
+    private volatile boolean closed;
+
+    public ConnectionSelector() throws IOException {
+        this.selector = Selector.open();
+
+        this.selectorThread = new Thread(this::selectLoop, "sass-connection-selector");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+
+    void register(ChannelConnection connection) throws IOException {
+        if (closed) {
+            throw new IOException("The selector has been closed");
+        }
+
+        pendingRegistrations.add(connection);
+        selector.wakeup();
+
+        if (closed && pendingRegistrations.remove(connection)) {
+            // The selector thread stopped in the meantime.
+            throw new IOException("The selector has been closed");
+        }
+    }
+
+    /**
+     * @return The number of connections which are currently serviced by this selector.
+     */
+    public int getConnectionCount() {
+        return selector.keys().size() + pendingRegistrations.size();
+    }
+
+    private void selectLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                registerPending();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (key.isValid() && key.isReadable()) {
+                        ((ChannelConnection) key.attachment()).onReadable();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                log.error("The selector failed", e);
+            }
+        } finally {
+            closed = true;
+            failAll(new EOFException("The selector has been closed"));
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.debug("Failed to close the selector", e);
+            }
+        }
+    }
+
+    private void registerPending() {
+        ChannelConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                connection.getSource().register(selector, SelectionKey.OP_READ, connection);
+            } catch (ClosedChannelException e) {
+                connection.fail(e);
+            }
+        }
+    }
+
+    private void failAll(IOException exception) {
+        for (SelectionKey key : selector.keys()) {
+            ((ChannelConnection) key.attachment()).fail(exception);
+        }
+
+        ChannelConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            connection.fail(exception);
+        }
+    }
+
+    /**
+     * Stops the selector thread. All connections which are still registered fail.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,20 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import java.io.IOException;
+
+/**
+ * Creates new {@link CompilerConnection CompilerConnections} on demand.
+ *
+ * @author Lars Grefer
+ * @see ConnectionFactory#bundled()
+ * @see ConnectionFactory#downloaded()
+ */
+@FunctionalInterface
+public interface ConnectionSupplier {
+
+    /**
+     * @return A fresh {@link CompilerConnection}.
+     * @throws IOException If the connection can not be established.
+     */
+    CompilerConnection get() throws IOException;
+}
@@ -2,7 +2,7 @@ package de.larsgrefer.sass.embedded.connection;
 
 import androidx.annotation.RequiresApi;
 import de.larsgrefer.sass.embedded.util.DirCleaner;
-import de.larsgrefer.sass.embedded.util.IOUtils;
+import de.larsgrefer.sass.embedded.util.PackageInstaller;
 import de.larsgrefer.sass.embedded.util.PropertyUtils;
 import lombok.extern.slf4j.Slf4j;
 
@@ -12,6 +12,8 @@ import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
 
 @Slf4j
 @RequiresApi(1000)
@@ -19,6 +21,19 @@ public abstract class DartSassPackageProvider {
 
     private File dartSassExecutable;
 
+    private List<String> command;
+
+    private List<String> trainedCommand;
+
+    private List<String> trainedFrom;
+
+    /**
+     * The directory the package has been extracted to.
+     */
+    private Path packagePath;
+
+    private ProtocolVersionCache protocolVersionCache;
+
     @Nullable
     public File getDartSassExecutable() throws IOException {
         if (dartSassExecutable == null || !dartSassExecutable.exists()) {
@@ -28,24 +43,64 @@ public abstract class DartSassPackageProvider {
         return dartSassExecutable;
     }
 
-    synchronized File extractPackage() throws IOException {
-        URL dist = getPackageUrl();
+    /**
+     * @return The command line to start the compiler, which is only resolved once.
+     * @see ConnectionFactory#getCommand(File)
+     */
+    public synchronized List<String> getCommand() throws IOException {
+        File executable = dartSassExecutable;
+        if (command == null || executable == null || !executable.exists()) {
+            command = Collections.unmodifiableList(ConnectionFactory.getCommand(getDartSassExecutable()));
+        }
+        return command;
+    }
 
-        if (dist == null) {
-            return null;
+    /**
+     * @return The command line to start the compiler with an app-jit snapshot, which is trained on first use if the
+     * package uses a JIT snapshot. Otherwise, the same as {@link #getCommand()}.
+     * @see ConnectionFactory#setWarmUp(boolean)
+     */
+    synchronized List<String> getTrainedCommand() throws IOException {
+        List<String> command = getCommand();
+        if (trainedCommand == null || trainedFrom != command) {
+            trainedCommand = Collections.unmodifiableList(CompilerTraining.trainAppJitSnapshot(command, packagePath));
+            trainedFrom = command;
         }
+        return trainedCommand;
+    }
+
+    /**
+     * @return The cache for the protocol versions of the executables of this provider, which is persisted next to the
+     * extracted package.
+     */
+    synchronized ProtocolVersionCache getProtocolVersionCache() {
+        if (protocolVersionCache == null) {
+            protocolVersionCache = new ProtocolVersionCache(packagePath != null ? packagePath.resolve("protocol-version.properties") : null);
+        }
+        return protocolVersionCache;
+    }
 
+    synchronized File extractPackage() throws IOException {
         Path targetPath = getTargetPath();
 
-        if (IOUtils.isEmpty(targetPath)) {
+        // The package url is only needed for the extraction, and resolving it might download the package.
+        Path installation = PackageInstaller.getInstallation(targetPath);
+        if (installation == null) {
+            URL dist = getPackageUrl();
+
+            if (dist == null) {
+                return null;
+            }
+
             try {
-                IOUtils.extract(dist, targetPath);
+                installation = PackageInstaller.install(dist, targetPath);
             } catch (IOException e) {
                 throw new IOException(String.format("Failed to extract %s into %s", dist, targetPath), e);
             }
         }
 
-        File execDir = targetPath.resolve("dart-sass").toFile();
+        packagePath = installation;
+        File execDir = installation.resolve("dart-sass").toFile();
 
         File[] execFile = execDir.listFiles(pathname -> pathname.isFile() && pathname.getName().startsWith("sass"));
 
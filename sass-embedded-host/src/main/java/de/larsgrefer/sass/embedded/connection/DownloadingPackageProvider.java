@@ -1,13 +1,67 @@
 package de.larsgrefer.sass.embedded.connection;
 
+import de.larsgrefer.sass.embedded.util.DownloadCache;
 import de.larsgrefer.sass.embedded.util.PlatformUtils;
 import de.larsgrefer.sass.embedded.util.PropertyUtils;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
+/**
+ * Downloads the dart-sass package for the current platform.
+ * <p>
+ * The packages are downloaded from the GitHub releases of dart-sass by default. Another location with the same layout
+ * (e.g. an internal mirror or a {@code file:} url) can be configured using {@link #setMirror(String)} or the
+ * {@value #MIRROR_PROPERTY} system property.
+ * <p>
+ * Downloaded packages are kept in a {@link DownloadCache} in the user's home directory, so they are only downloaded
+ * once per machine. Its location can be configured using {@link #setCacheDirectory(Path)} or the
+ * {@value #CACHE_DIRECTORY_PROPERTY} system property.
+ * The cache is best-effort: If it can't be used (e.g. because the home directory is not writable), the package is
+ * downloaded directly. Only a checksum mismatch of the download is fatal.
+ */
+@Slf4j
 public class DownloadingPackageProvider extends DartSassPackageProvider {
 
+    public static final String MIRROR_PROPERTY = "sass.embedded.mirror";
+
+    public static final String CACHE_DIRECTORY_PROPERTY = "sass.embedded.downloadCache";
+
+    public static final String DEFAULT_MIRROR = "https://github.com/sass/dart-sass/releases/download/";
+
+    /**
+     * The base url of the dart-sass releases. It has to contain {@code <version>/dart-sass-<version>-<platform>}.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private String mirror = System.getProperty(MIRROR_PROPERTY, DEFAULT_MIRROR);
+
+    /**
+     * The directory of the {@link DownloadCache}, or {@code null} to always download the package.
+     */
+    @Getter
+    @Setter
+    @Nullable
+    private Path cacheDirectory = getDefaultCacheDirectory();
+
+    /**
+     * The expected SHA-256 checksum of the package, or {@code null} to use the checksum which is shipped with this
+     * library for the dart-sass version. Only if none is shipped for the current platform, the {@code .sha256} file
+     * of the mirror is used if available.
+     */
+    @Getter
+    @Setter
+    @Nullable
+    private String sha256;
 
     @Override
     protected URL getPackageUrl() throws IOException {
@@ -15,7 +69,45 @@ public class DownloadingPackageProvider extends DartSassPackageProvider {
         String version = PropertyUtils.getDartSassVersion();
         String suffix = PlatformUtils.getDartSassPackageSuffix();
 
-        String urlString = String.format("https://github.com/sass/dart-sass/releases/download/%1$s/dart-sass-%1$s-%2$s", version, suffix);
-        return new URL(urlString);
+        String base = mirror.endsWith("/") ? mirror : mirror + "/";
+        URL url = new URL(String.format("%1$s%2$s/dart-sass-%2$s-%3$s", base, version, suffix));
+
+        Path cacheDirectory = this.cacheDirectory;
+        if (cacheDirectory == null) {
+            return url;
+        }
+
+        try {
+            String sha256 = this.sha256 != null ? this.sha256 : PropertyUtils.getDartSassSha256(suffix);
+            return new DownloadCache(cacheDirectory).get(url, sha256).toUri().toURL();
+        } catch (DownloadCache.ChecksumMismatchException e) {
+            throw e;
+        } catch (IOException e) {
+            log.warn("Failed to use the download cache in {}, downloading {} directly", cacheDirectory, url, e);
+            return url;
+        }
+    }
+
+    @Nullable
+    private static Path getDefaultCacheDirectory() {
+        String cacheDirectory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        if (cacheDirectory != null) {
+            return cacheDirectory.isEmpty() ? null : Paths.get(cacheDirectory);
+        }
+
+        Path userHome;
+        try {
+            userHome = Paths.get(System.getProperty("user.home", ""));
+        } catch (InvalidPathException e) {
+            return null;
+        }
+
+        // e.g. user.home=? if the user has no home directory.
+        if (!userHome.isAbsolute()) {
+            log.debug("Not using the download cache, because there is no home directory");
+            return null;
+        }
+
+        return userHome.resolve(".cache").resolve("sass-embedded-host").resolve("downloads");
     }
 }
@@ -0,0 +1,609 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.ProtocolError;
+import com.sass_lang.embedded_protocol.ProtocolErrorType;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * {@link CompilerConnection} which spreads the compilations over multiple endpoints, e.g. several
+ * {@code sass-embedded-daemon} instances.
+ * <p>
+ * Every compilation is started on the endpoint with the fewest outstanding compilations.
+ * When an endpoint fails, it's put into a back-off (which doubles with every consecutive failure) before it's tried
+ * again. Its running compilations are restarted on another endpoint, as long as none of their messages has been
+ * passed to the host yet, so the retry is invisible to the host. Other compilations fail with a {@link ProtocolError}.
+ * Version requests are handled like compilations.
+ * <p>
+ * Connections to the endpoints are established outside of the internal lock, so an unreachable endpoint only delays
+ * the compilations which are started on it, until its connect timeout expires.
+ * <p>
+ * The responses of {@link ChannelConnection}s (like the ones of {@link #ofSockets(List)}) are received on the thread
+ * of their {@link ConnectionSelector}; other connections are read by a thread per endpoint.
+ *
+ * @author Lars Grefer
+ * @see ConnectionFactory#ofSocket(SocketAddress)
+ */
+@Slf4j
+public class LoadBalancingConnection implements CompilerConnection {
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Queued by {@link #close()}, so {@link #readResponse()} fails.
+     */
+    private static final Packet<OutboundMessage> END_OF_STREAM = new Packet<>(0, OutboundMessage.getDefaultInstance());
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * How long a failed endpoint is skipped after its first failure.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration initialBackoff = Duration.ofSeconds(1);
+
+    /**
+     * The upper bound of the back-off of an endpoint which keeps failing.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
+    /**
+     * On how many endpoints a compilation is tried at most.
+     */
+    @Getter
+    @Setter
+    private int maxAttempts = 3;
+
+    /**
+     * The running compilations, by compilation id.
+     */
+    private final Map<Integer, Compilation> compilations = new ConcurrentHashMap<>();
+
+    /**
+     * The version requests which have not been answered yet. Guarded by the LoadBalancingConnection.
+     */
+    private final List<Compilation> versionRequests = new ArrayList<>();
+
+    private final BlockingQueue<Packet<OutboundMessage>> responses = new LinkedBlockingQueue<>();
+
+    private int nextEndpoint;
+
+    private volatile boolean closed;
+
+    /**
+     * @param endpoints The suppliers of the connections to the endpoints. They are only called when an endpoint is needed.
+     */
+    public LoadBalancingConnection(@NonNull List<? extends ConnectionSupplier> endpoints) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+
+        for (ConnectionSupplier supplier : endpoints) {
+            this.endpoints.add(new Endpoint(supplier));
+        }
+    }
+
+    public static LoadBalancingConnection ofSockets(@NonNull List<? extends SocketAddress> addresses) {
+        return ofSockets(addresses, DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * @param addresses      The addresses of the endpoints.
+     * @param connectTimeout How long to wait for a connection to an endpoint, before it's considered failed.
+     */
+    public static LoadBalancingConnection ofSockets(@NonNull List<? extends SocketAddress> addresses, @NonNull Duration connectTimeout) {
+        List<ConnectionSupplier> suppliers = new ArrayList<>(addresses.size());
+        for (SocketAddress address : addresses) {
+            suppliers.add(new ConnectionSupplier() {
+                @Override
+                public CompilerConnection get() throws IOException {
+                    return ConnectionFactory.ofSocket(address, connectTimeout);
+                }
+
+                @Override
+                public String toString() {
+                    return address.toString();
+                }
+            });
+        }
+        return new LoadBalancingConnection(suppliers);
+    }
+
+    @Override
+    public void sendMessage(Packet<InboundMessage> packet) throws IOException {
+        if (closed) {
+            throw new IOException("The connection has been closed");
+        }
+
+        InboundMessage message = packet.getMessage();
+
+        if (message.hasCompileRequest() || message.hasVersionRequest()) {
+            Compilation compilation;
+            if (message.hasVersionRequest()) {
+                compilation = new Compilation(0, packet);
+                synchronized (this) {
+                    versionRequests.add(compilation);
+                }
+            } else {
+                compilation = new Compilation(packet.getCompilationId(), packet);
+                if (compilations.putIfAbsent(compilation.id, compilation) != null) {
+                    throw new IllegalStateException("Compilation id " + compilation.id + " is already in use");
+                }
+            }
+
+            try {
+                start(compilation);
+            } catch (IOException e) {
+                forget(compilation);
+                throw e;
+            }
+        } else {
+            Compilation compilation = compilations.get(packet.getCompilationId());
+            Endpoint endpoint = compilation != null ? compilation.endpoint : null;
+            if (endpoint == null) {
+                throw new IOException("Compilation " + packet.getCompilationId() + " is not running");
+            }
+            send(endpoint, packet);
+        }
+    }
+
+    /**
+     * Start (or restart) the given compilation on the best available endpoint.
+     * <p>
+     * Returns normally once the request has been sent, or once the failure handling of an endpoint has taken over the
+     * compilation.
+     *
+     * @throws IOException If no endpoint is available. The compilation is not running then.
+     */
+    private void start(Compilation compilation) throws IOException {
+        IOException failure = null;
+
+        while (true) {
+            Endpoint endpoint;
+            synchronized (this) {
+                if (closed || compilation.attempts >= maxAttempts) {
+                    break;
+                }
+                endpoint = pick();
+                if (endpoint == null) {
+                    break;
+                }
+                if (endpoint.connection == null) {
+                    // Steer the next compilations to other endpoints, while this one is connecting.
+                    endpoint.connecting = true;
+                }
+                compilation.attempts++;
+            }
+
+            // Connecting may take until the connect timeout, so it must not block the other endpoints.
+            CompilerConnection connection;
+            try {
+                connection = endpoint.connect();
+            } catch (IOException e) {
+                failure = e;
+                onConnectFailure(endpoint, e);
+                continue;
+            }
+
+            synchronized (this) {
+                if (endpoint.connection != connection) {
+                    failure = new EOFException("The endpoint " + endpoint + " has been disconnected");
+                    continue;
+                }
+                compilation.endpoint = endpoint;
+                endpoint.outstanding++;
+            }
+
+            try {
+                connection.sendMessage(compilation.request);
+                return;
+            } catch (IOException e) {
+                failure = e;
+                synchronized (this) {
+                    if (compilation.endpoint != endpoint) {
+                        // The failure handling of the endpoint has already taken over.
+                        return;
+                    }
+                    compilation.endpoint = null;
+                    endpoint.outstanding--;
+                }
+                onEndpointFailure(endpoint, connection, e);
+            }
+        }
+
+        throw noEndpoint(failure);
+    }
+
+    private static IOException noEndpoint(@Nullable IOException failure) {
+        return new IOException("No compiler endpoint available", failure);
+    }
+
+    /**
+     * @return The available endpoint with the fewest outstanding compilations or {@code null} if all endpoints are backing off.
+     * Endpoints which are currently connecting are only used if there is no other one.
+     */
+    @Nullable
+    private Endpoint pick() {
+        long now = System.nanoTime();
+        Endpoint best = null;
+        long bestLoad = Long.MAX_VALUE;
+
+        // Start at a different endpoint every time, so ties are spread evenly.
+        int offset = nextEndpoint++;
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint endpoint = endpoints.get(Math.floorMod(offset + i, endpoints.size()));
+            if (now - endpoint.backoffUntil < 0) {
+                continue;
+            }
+            long load = endpoint.connecting ? Integer.MAX_VALUE + (long) endpoint.outstanding : endpoint.outstanding;
+            if (best == null || load < bestLoad) {
+                best = endpoint;
+                bestLoad = load;
+            }
+        }
+
+        return best;
+    }
+
+    private void send(Endpoint endpoint, Packet<InboundMessage> packet) {
+        CompilerConnection connection = endpoint.connection;
+        try {
+            if (connection == null) {
+                throw new EOFException("The endpoint has been disconnected");
+            }
+            connection.sendMessage(packet);
+        } catch (IOException e) {
+            // The compilation is failed (or retried) by the failure handling.
+            onEndpointFailure(endpoint, connection, e);
+        }
+    }
+
+    private void readLoop(Endpoint endpoint, CompilerConnection connection) {
+        try {
+            while (!closed) {
+                onResponse(endpoint, connection, connection.readResponse());
+            }
+        } catch (IOException e) {
+            onEndpointFailure(endpoint, connection, e);
+        } catch (RuntimeException e) {
+            log.warn("Unexpected error while reading from {}", endpoint, e);
+            onEndpointFailure(endpoint, connection, new IOException(e));
+        }
+    }
+
+    /**
+     * Handles the failure of an endpoint which was detected on the thread of a {@link ConnectionSelector}.
+     * <p>
+     * Restarting the compilations of the endpoint may have to connect to another one, which must not block the
+     * selector thread, so this is done on a new thread.
+     */
+    private void failOver(Endpoint endpoint, CompilerConnection connection, IOException exception) {
+        if (endpoint.connection != connection) {
+            // Closed or already handled.
+            return;
+        }
+
+        Thread thread = new Thread(() -> onEndpointFailure(endpoint, connection, exception), "sass-load-balancer-failover");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void onResponse(Endpoint endpoint, CompilerConnection connection, Packet<OutboundMessage> packet) throws IOException {
+        OutboundMessage message = packet.getMessage();
+
+        if (packet.getCompilationId() == PacketDispatcher.UNKNOWN_COMPILATION_ID && message.hasError()) {
+            // The endpoint can't be trusted anymore.
+            throw new IOException("Protocol error: " + message.getError().getMessage());
+        }
+
+        synchronized (this) {
+            Compilation compilation;
+            if (packet.getCompilationId() == 0) {
+                compilation = findVersionRequest(endpoint);
+            } else {
+                compilation = compilations.get(packet.getCompilationId());
+            }
+
+            if (compilation == null || compilation.endpoint != endpoint || endpoint.connection != connection) {
+                log.debug("Dropping stale message for compilation {} from {}", packet.getCompilationId(), endpoint);
+                return;
+            }
+
+            compilation.delivered = true;
+
+            if (message.hasCompileResponse() || message.hasVersionResponse()) {
+                forget(compilation);
+                endpoint.outstanding--;
+                endpoint.failures = 0;
+            }
+
+            responses.offer(packet);
+        }
+    }
+
+    /**
+     * @return The oldest version request which is running on the given endpoint.
+     */
+    @Nullable
+    private Compilation findVersionRequest(Endpoint endpoint) {
+        for (Compilation versionRequest : versionRequests) {
+            if (versionRequest.endpoint == endpoint) {
+                return versionRequest;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void forget(Compilation compilation) {
+        if (compilation.id == 0) {
+            versionRequests.remove(compilation);
+        } else {
+            compilations.remove(compilation.id, compilation);
+        }
+    }
+
+    private synchronized void onConnectFailure(Endpoint endpoint, IOException exception) {
+        if (!closed) {
+            backOff(endpoint, exception);
+        }
+    }
+
+    private void onEndpointFailure(Endpoint endpoint, @Nullable CompilerConnection connection, IOException exception) {
+        List<Compilation> orphans = new ArrayList<>();
+
+        synchronized (this) {
+            if (connection == null || endpoint.connection != connection) {
+                // Already handled.
+                return;
+            }
+
+            endpoint.connection = null;
+
+            if (!closed) {
+                backOff(endpoint, exception);
+
+                List<Compilation> running = new ArrayList<>(compilations.values());
+                running.addAll(versionRequests);
+                for (Compilation compilation : running) {
+                    if (compilation.endpoint == endpoint) {
+                        compilation.endpoint = null;
+                        endpoint.outstanding--;
+                        orphans.add(compilation);
+                    }
+                }
+            }
+        }
+
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.debug("Failed to close the connection to {}", endpoint, e);
+        }
+
+        for (Compilation compilation : orphans) {
+            IOException failure = exception;
+            if (!compilation.delivered) {
+                try {
+                    start(compilation);
+                    continue;
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+
+            fail(compilation, failure);
+        }
+    }
+
+    private void backOff(Endpoint endpoint, IOException exception) {
+        endpoint.failures++;
+        Duration backoff = initialBackoff.multipliedBy(1L << Math.min(endpoint.failures - 1, 20));
+        if (backoff.compareTo(maxBackoff) > 0) {
+            backoff = maxBackoff;
+        }
+        endpoint.backoffUntil = System.nanoTime() + backoff.toNanos();
+        log.warn("Compiler endpoint {} failed, retrying it in {}", endpoint, backoff, exception);
+    }
+
+    private void fail(Compilation compilation, IOException exception) {
+        forget(compilation);
+
+        ProtocolError protocolError = ProtocolError.newBuilder()
+                .setType(ProtocolErrorType.INTERNAL)
+                .setId(compilation.id)
+                .setMessage("The compiler endpoint failed: " + exception.getMessage())
+                .build();
+
+        responses.offer(new Packet<>(compilation.id, OutboundMessage.newBuilder().setError(protocolError).build()));
+    }
+
+    @Override
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        Packet<OutboundMessage> packet;
+        try {
+            packet = responses.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message of the compiler");
+        }
+
+        if (packet == END_OF_STREAM) {
+            // Keep the marker in the queue, so subsequent calls fail, too.
+            responses.offer(packet);
+            throw new EOFException("The connection has been closed");
+        }
+
+        return packet;
+    }
+
+    /**
+     * @return The number of endpoints which are currently not backing off.
+     */
+    public synchronized int getAvailableEndpointCount() {
+        long now = System.nanoTime();
+        int count = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (now - endpoint.backoffUntil >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<CompilerConnection> connections = new ArrayList<>();
+
+        synchronized (this) {
+            closed = true;
+            for (Endpoint endpoint : endpoints) {
+                CompilerConnection connection = endpoint.connection;
+                endpoint.connection = null;
+                if (connection != null) {
+                    connections.add(connection);
+                }
+            }
+        }
+
+        for (CompilerConnection connection : connections) {
+            connection.close();
+        }
+
+        responses.offer(END_OF_STREAM);
+    }
+
+    private class Endpoint {
+
+        private final ConnectionSupplier supplier;
+
+        /**
+         * Makes sure only one connection to the endpoint is established at a time.
+         */
+        private final Object connectLock = new Object();
+
+        private volatile boolean connecting;
+
+        // All other mutable fields are guarded by the LoadBalancingConnection.
+
+        @Nullable
+        private volatile CompilerConnection connection;
+
+        private int outstanding;
+
+        private int failures;
+
+        private long backoffUntil = System.nanoTime();
+
+        Endpoint(ConnectionSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        /**
+         * Returns the connection to this endpoint, connecting it if necessary. Must not be called while holding the
+         * lock of the LoadBalancingConnection.
+         */
+        CompilerConnection connect() throws IOException {
+            synchronized (connectLock) {
+                CompilerConnection current = connection;
+                if (current != null) {
+                    connecting = false;
+                    return current;
+                }
+
+                CompilerConnection newConnection;
+                connecting = true;
+                try {
+                    newConnection = supplier.get();
+                } finally {
+                    connecting = false;
+                }
+
+                synchronized (LoadBalancingConnection.this) {
+                    if (closed) {
+                        newConnection.close();
+                        throw new IOException("The connection has been closed");
+                    }
+                    connection = newConnection;
+                }
+
+                if (newConnection instanceof ChannelConnection) {
+                    ((ChannelConnection) newConnection).setReceiver(new ChannelConnection.Receiver() {
+                        @Override
+                        public void onPacket(Packet<OutboundMessage> packet) {
+                            try {
+                                onResponse(Endpoint.this, newConnection, packet);
+                            } catch (IOException e) {
+                                onFailure(e);
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(IOException exception) {
+                            failOver(Endpoint.this, newConnection, exception);
+                        }
+                    });
+                } else {
+                    Thread reader = new Thread(() -> readLoop(this, newConnection), "sass-load-balancer");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+
+                return newConnection;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return supplier.toString();
+        }
+    }
+
+    private static class Compilation {
+
+        /**
+         * The compilation id, or {@code 0} for version requests.
+         */
+        private final int id;
+
+        private final Packet<InboundMessage> request;
+
+        // All mutable fields are guarded by the LoadBalancingConnection.
+
+        @Nullable
+        private volatile Endpoint endpoint;
+
+        private int attempts;
+
+        /**
+         * Whether a message of this compilation has been passed to the host, so it can't be retried transparently.
+         */
+        private boolean delivered;
+
+        Compilation(int id, Packet<InboundMessage> request) {
+            this.id = id;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.IOException;
+
+/**
+ * {@link CompilerConnection} decorator which reports all packets of the delegate to a {@link WireListener}.
+ * <p>
+ * The reported sizes are those of the re-encoded packets, which can differ slightly from what the compiler actually sent.
+ * For a {@link StreamConnection} or a {@link ChannelConnection}, prefer their {@code setWireListener} methods, which report
+ * the real sizes.
+ * The packets of a decorated {@link ChannelConnection} are no longer pushed by its selector, so a
+ * {@link PacketDispatcher} uses a reader thread again.
+ *
+ * @author Lars Grefer
+ */
+public class MonitoredConnection implements CompilerConnection {
+
+    @Getter
+    private final CompilerConnection delegate;
+
+    private final WireListener listener;
+
+    public MonitoredConnection(@NonNull CompilerConnection delegate, @NonNull WireListener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public void sendMessage(Packet<InboundMessage> packet) throws IOException {
+        long start = System.nanoTime();
+        delegate.sendMessage(packet);
+        listener.onSent(packet, packet.getDelimitedSize(), start, System.nanoTime());
+    }
+
+    @Override
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        Packet<OutboundMessage> packet = delegate.readResponse();
+        // The delegate doesn't tell when the length prefix was read, and the time before includes waiting for the compiler.
+        long end = System.nanoTime();
+        listener.onReceived(packet, packet.getDelimitedSize(), end, end);
+        return packet;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return delegate.isAlive();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return "Monitored(" + delegate + ")";
+    }
+}
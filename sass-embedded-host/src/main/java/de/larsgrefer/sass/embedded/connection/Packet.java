@@ -4,7 +4,7 @@ import com.google.protobuf.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
-import java.io.FilterInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -19,6 +19,13 @@ import java.io.OutputStream;
 @AllArgsConstructor
 public class Packet<T extends Message> {
 
+    /**
+     * The default limit for the size of a received frame.
+     *
+     * @see #checkFrameSize(int, int)
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
     private int compilationId;
 
     private T message;
@@ -31,6 +38,34 @@ public class Packet<T extends Message> {
     }
 
 
+    /**
+     * @return The number of bytes of the length-delimited packet, including the length prefix.
+     * @see #writeDelimitedTo(byte[], int)
+     */
+    public int getDelimitedSize() {
+        int fullSize = getSerializedSize();
+        return CodedOutputStream.computeUInt32SizeNoTag(fullSize) + fullSize;
+    }
+
+    /**
+     * Writes the length-delimited packet into the given buffer.
+     *
+     * @param buffer The target buffer, which must have at least {@link #getDelimitedSize()} bytes left after the offset.
+     * @param offset The offset in the buffer.
+     * @return The number of bytes written.
+     */
+    public int writeDelimitedTo(byte[] buffer, int offset) throws IOException {
+        int fullSize = getSerializedSize();
+
+        CodedOutputStream codedOutput = CodedOutputStream.newInstance(buffer, offset, buffer.length - offset);
+
+        codedOutput.writeUInt32NoTag(fullSize);
+        codedOutput.writeUInt32NoTag(compilationId);
+        message.writeTo(codedOutput);
+
+        return codedOutput.getTotalBytesWritten();
+    }
+
     /**
      * @see Message#writeDelimitedTo(OutputStream)
      */
@@ -56,75 +91,69 @@ public class Packet<T extends Message> {
      * @see com.sass_lang.embedded_protocol.OutboundMessage#parseDelimitedFrom(InputStream)
      */
     public static <T extends Message> Packet<T> parseDelimitedFrom(InputStream inputStream, Parser<T> parser) throws IOException {
+        int fullSize = readFrameSize(inputStream);
+        checkFrameSize(fullSize, DEFAULT_MAX_FRAME_SIZE);
 
-        int firstByte = inputStream.read();
-        int fullSize = CodedInputStream.readRawVarint32(firstByte, inputStream);
-
-        inputStream = new LimitedInputStream(inputStream, fullSize);
-
-        firstByte = inputStream.read();
-        int compilationId = CodedInputStream.readRawVarint32(firstByte, inputStream);
-
-        try {
-            T message = parser.parseFrom(inputStream);
-            return new Packet<>(compilationId, message);
-        } catch (InvalidProtocolBufferException e) {
-            throw e.unwrapIOException();
-        }
+        byte[] frame = new byte[fullSize];
+        readFully(inputStream, frame, fullSize);
 
+        return parseFrom(frame, 0, fullSize, parser);
     }
 
     /**
-     * Copied from {@link AbstractMessageLite.Builder}
+     * Reads the length prefix of the next packet.
+     *
+     * @throws EOFException If the stream ended before the next packet.
      */
-    static final class LimitedInputStream extends FilterInputStream {
-        private int limit;
-
-        LimitedInputStream(InputStream in, int limit) {
-            super(in);
-            this.limit = limit;
+    public static int readFrameSize(InputStream inputStream) throws IOException {
+        int firstByte = inputStream.read();
+        if (firstByte == -1) {
+            throw new EOFException("The compiler closed the connection");
         }
+        return CodedInputStream.readRawVarint32(firstByte, inputStream);
+    }
 
-        @Override
-        public int available() throws IOException {
-            return Math.min(super.available(), limit);
+    /**
+     * Checks a frame size which was read from the other side of a connection, before a buffer for it is allocated.
+     *
+     * @throws IOException If the size is negative or larger than {@code maxFrameSize}.
+     */
+    public static void checkFrameSize(int size, int maxFrameSize) throws IOException {
+        if (size < 0 || size > maxFrameSize) {
+            throw new IOException("Frame size " + (size & 0xffffffffL) + " exceeds the limit of " + maxFrameSize + " bytes");
         }
+    }
 
-        @Override
-        public int read() throws IOException {
-            if (limit <= 0) {
-                return -1;
-            }
-            final int result = super.read();
-            if (result >= 0) {
-                --limit;
+    /**
+     * Reads exactly {@code length} bytes into the start of the given buffer.
+     */
+    public static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = inputStream.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("The compiler closed the connection in the middle of a packet");
             }
-            return result;
+            offset += read;
         }
+    }
 
-        @Override
-        public int read(final byte[] b, final int off, int len) throws IOException {
-            if (limit <= 0) {
-                return -1;
-            }
-            len = Math.min(len, limit);
-            final int result = super.read(b, off, len);
-            if (result >= 0) {
-                limit -= result;
-            }
-            return result;
-        }
+    /**
+     * Parses a packet from a frame which has already been read completely.
+     *
+     * @param frame  The buffer containing the frame (without its length prefix).
+     * @param offset The start of the frame in the buffer.
+     * @param length The length of the frame.
+     */
+    public static <T extends Message> Packet<T> parseFrom(byte[] frame, int offset, int length, Parser<T> parser) throws IOException {
+        CodedInputStream codedInput = CodedInputStream.newInstance(frame, offset, length);
 
-        @Override
-        public long skip(final long n) throws IOException {
-            // because we take the minimum of an int and a long, result is guaranteed to be
-            // less than or equal to Integer.MAX_INT so this cast is safe
-            int result = (int) super.skip(Math.min(n, limit));
-            if (result >= 0) {
-                // if the superclass adheres to the contract for skip, this condition is always true
-                limit -= result;
-            }
-            return result;
+        try {
+            int compilationId = codedInput.readUInt32();
+            T message = parser.parseFrom(codedInput);
+            return new Packet<>(compilationId, message);
+        } catch (InvalidProtocolBufferException e) {
+            throw e.unwrapIOException();
         }
     }
 }
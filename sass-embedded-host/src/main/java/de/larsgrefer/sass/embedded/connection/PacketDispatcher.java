@@ -0,0 +1,308 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multiplexes multiple concurrent compilations over a single {@link CompilerConnection}.
+ * <p>
+ * A dedicated reader thread drains {@link CompilerConnection#readResponse()} and routes each
+ * {@link OutboundMessage} to the {@link PacketListener} which has been {@link #register(int, PacketListener) registered}
+ * for its compilation id.
+ * For a {@link ChannelConnection}, the packets are pushed by the thread of its {@link ConnectionSelector} instead.
+ * Sending messages is not routed through the dispatcher, so the underlying connection has to support
+ * concurrent {@link CompilerConnection#sendMessage(Packet) sends} while a read is in progress.
+ *
+ * @author Lars Grefer
+ * @see Packet#getCompilationId()
+ */
+@Slf4j
+public class PacketDispatcher implements Closeable {
+
+    /**
+     * The compilation id used by the compiler for messages which can not be attributed to a specific compilation.
+     */
+    static final int UNKNOWN_COMPILATION_ID = 0xffffffff;
+
+    @Getter
+    private final CompilerConnection connection;
+
+    private final Map<Integer, PacketListener> listeners = new ConcurrentHashMap<>();
+
+    private boolean started;
+
+    private volatile IOException failure;
+
+    private volatile boolean closed;
+
+    private volatile boolean done;
+
+    public PacketDispatcher(CompilerConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Register a {@link PacketListener} which receives all messages sent by the compiler for the given compilation id.
+     * <p>
+     * The listener is called on the reader thread of this dispatcher, so it should return quickly.
+     *
+     * @param compilationId The compilation id.
+     * @param listener      The listener. Make sure to {@link #unregister(int, PacketListener) unregister} it after the compilation.
+     * @throws IOException           If the dispatcher has already failed or was closed.
+     * @throws IllegalStateException If there is already a listener for the given compilation id.
+     */
+    public void register(int compilationId, PacketListener listener) throws IOException {
+        assertUsable();
+
+        if (listeners.putIfAbsent(compilationId, listener) != null) {
+            throw new IllegalStateException("Compilation id " + compilationId + " is already in use");
+        }
+
+        ensureReaderStarted();
+
+        if (done) {
+            // The reader died while the listener was registered.
+            unregister(compilationId, listener);
+            assertUsable();
+            throw new EOFException("The dispatcher has been stopped");
+        }
+    }
+
+    public void unregister(int compilationId, PacketListener listener) {
+        listeners.remove(compilationId, listener);
+    }
+
+    /**
+     * Open a blocking {@link Mailbox} which receives all messages sent by the compiler for the given compilation id.
+     *
+     * @param compilationId The compilation id.
+     * @return The new {@link Mailbox}. Make sure to {@link Mailbox#close() close} it after the compilation.
+     * @throws IOException           If the dispatcher has already failed or was closed.
+     * @throws IllegalStateException If there is already an open {@link Mailbox} for the given compilation id.
+     * @see #register(int, PacketListener)
+     */
+    public Mailbox open(int compilationId) throws IOException {
+        Mailbox mailbox = new Mailbox(compilationId);
+        register(compilationId, mailbox);
+        return mailbox;
+    }
+
+    private synchronized void ensureReaderStarted() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        if (connection instanceof ChannelConnection) {
+            ((ChannelConnection) connection).setReceiver(new ChannelConnection.Receiver() {
+                @Override
+                public void onPacket(Packet<OutboundMessage> packet) {
+                    if (!closed) {
+                        dispatch(packet);
+                    }
+                }
+
+                @Override
+                public void onFailure(IOException exception) {
+                    stop(exception);
+                }
+            });
+        } else {
+            Thread readerThread = new Thread(this::readLoop, "sass-packet-dispatcher");
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+    }
+
+    private void assertUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("The connection to the compiler failed", failure);
+        }
+        if (closed) {
+            throw new IOException("The dispatcher has been closed");
+        }
+    }
+
+    private void readLoop() {
+        IOException exception = null;
+        try {
+            while (!closed) {
+                dispatch(connection.readResponse());
+            }
+        } catch (IOException e) {
+            exception = e;
+        } catch (RuntimeException e) {
+            log.warn("Unexpected error while reading from {}", connection, e);
+            exception = new IOException(e);
+        } finally {
+            stop(exception);
+        }
+    }
+
+    private void stop(@Nullable IOException exception) {
+        if (exception != null) {
+            if (!closed) {
+                log.debug("Reading from {} failed", connection, exception);
+            }
+            failure = exception;
+        }
+
+        done = true;
+
+        IOException listenerException = failure != null
+                ? new IOException("The connection to the compiler failed", failure)
+                : new EOFException("The dispatcher has been closed");
+
+        for (PacketListener listener : listeners.values()) {
+            listener.onFailure(listenerException);
+        }
+    }
+
+    private void dispatch(Packet<OutboundMessage> packet) {
+        PacketListener listener = listeners.get(packet.getCompilationId());
+
+        if (listener != null) {
+            listener.onMessage(packet.getMessage());
+        } else if (packet.getCompilationId() == UNKNOWN_COMPILATION_ID && packet.getMessage().hasError()) {
+            // Errors which can't be attributed to a specific compilation affect all of them.
+            for (PacketListener l : listeners.values()) {
+                l.onMessage(packet.getMessage());
+            }
+        } else {
+            log.warn("Dropping message for unknown compilation {}: {}", packet.getCompilationId(), packet.getMessage().getMessageCase());
+        }
+    }
+
+    /**
+     * @return {@code true} if the connection to the compiler broke down, as opposed to being {@link #close() closed}.
+     */
+    public boolean isFailed() {
+        return failure != null && !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        connection.close();
+    }
+
+    /**
+     * Callback interface for the messages of a single compilation.
+     *
+     * @see #register(int, PacketListener)
+     */
+    public interface PacketListener {
+
+        /**
+         * Called for every message the compiler sent for the compilation.
+         */
+        void onMessage(OutboundMessage outboundMessage);
+
+        /**
+         * Called when the connection to the compiler failed or the dispatcher was closed.
+         * No further messages will be received after this.
+         */
+        void onFailure(IOException exception);
+    }
+
+    /**
+     * The blocking receiving end of a single compilation.
+     */
+    public class Mailbox implements PacketListener, Closeable {
+
+        @Getter
+        private final int compilationId;
+
+        private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+        private Mailbox(int compilationId) {
+            this.compilationId = compilationId;
+        }
+
+        /**
+         * Send the given {@link InboundMessage} to the compiler using the compilation id of this mailbox.
+         */
+        public void send(InboundMessage inboundMessage) throws IOException {
+            connection.sendMessage(compilationId, inboundMessage);
+        }
+
+        /**
+         * Wait for the next message the compiler sent for this compilation.
+         *
+         * @throws IOException If the connection to the compiler failed.
+         */
+        public OutboundMessage receive() throws IOException {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compilation " + compilationId);
+            }
+
+            return unwrap(item);
+        }
+
+        /**
+         * Wait for the next message the compiler sent for this compilation, but not longer than the given timeout.
+         *
+         * @return The next message or {@code null} if the timeout elapsed.
+         * @throws IOException If the connection to the compiler failed.
+         */
+        @Nullable
+        public OutboundMessage receive(long timeout, TimeUnit unit) throws IOException {
+            Object item;
+            try {
+                item = queue.poll(timeout, unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for compilation " + compilationId);
+            }
+
+            if (item == null) {
+                return null;
+            }
+
+            return unwrap(item);
+        }
+
+        private OutboundMessage unwrap(Object item) throws IOException {
+            if (item instanceof IOException) {
+                // Keep the exception in the queue, so subsequent calls fail, too.
+                queue.offer(item);
+                IOException exception = (IOException) item;
+                throw new IOException(exception.getMessage(), exception);
+            }
+
+            return (OutboundMessage) item;
+        }
+
+        @Override
+        public void onMessage(OutboundMessage outboundMessage) {
+            queue.offer(outboundMessage);
+        }
+
+        @Override
+        public void onFailure(IOException exception) {
+            queue.offer(exception);
+        }
+
+        @Override
+        public void close() {
+            unregister(compilationId, this);
+        }
+    }
+}
@@ -1,31 +1,167 @@
 package de.larsgrefer.sass.embedded.connection;
 
 import androidx.annotation.RequiresApi;
-import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.extern.slf4j.Slf4j;
 
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * {@link CompilerConnection} to a local compiler process.
+ * <p>
+ * A watcher thread reads the stderr output of the process and waits for the process to exit,
+ * so the exit code and the last {@value #STDERR_TAIL_LINES} lines of stderr can be reported when the process dies.
+ * The stderr output is only logged at debug level otherwise.
+ *
  * @author Lars Grefer
  */
-@RequiredArgsConstructor
+@Slf4j
 public class ProcessConnection extends StreamConnection {
 
+    /**
+     * The number of stderr lines which are kept for {@link #getStderrTail()}.
+     */
+    private static final int STDERR_TAIL_LINES = 20;
+
     private final Process process;
 
+    private final Deque<String> stderrTail = new ArrayDeque<>(STDERR_TAIL_LINES);
+
+    private final CountDownLatch exited = new CountDownLatch(1);
+
+    @Nullable
+    private volatile Integer exitCode;
+
+    public ProcessConnection(Process process) {
+        this.process = process;
+
+        Thread watcher = new Thread(this::watch, "sass-process-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
     @RequiresApi(26)
     public ProcessConnection(ProcessBuilder processBuilder) throws IOException {
         this(processBuilder
                 .redirectInput(ProcessBuilder.Redirect.PIPE)
                 .redirectOutput(ProcessBuilder.Redirect.PIPE)
-                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.PIPE)
                 .start());
     }
 
+    private void watch() {
+        // Without a pipe (e.g. Redirect.INHERIT), the stream is empty.
+        try (BufferedReader stderr = new BufferedReader(new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = stderr.readLine()) != null) {
+                log.debug("{}", line);
+                synchronized (stderrTail) {
+                    if (stderrTail.size() == STDERR_TAIL_LINES) {
+                        stderrTail.removeFirst();
+                    }
+                    stderrTail.addLast(line);
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Failed to read stderr of the compiler", e);
+        }
+
+        try {
+            exitCode = process.waitFor();
+            log.debug("The compiler exited with code {}", exitCode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exited.countDown();
+        }
+    }
+
+    /**
+     * @return {@code true} if the process has not exited yet.
+     */
+    @Override
+    public boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return The exit code of the process, or {@code null} if it's still running.
+     */
+    @Nullable
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return The last lines the process has written to stderr.
+     */
+    public String getStderrTail() {
+        synchronized (stderrTail) {
+            return String.join("\n", stderrTail);
+        }
+    }
+
+    @Override
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        try {
+            return super.readResponse();
+        } catch (EOFException e) {
+            // The stdout of a dying process is closed shortly before it has fully exited.
+            try {
+                exited.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            Integer exitCode = this.exitCode;
+            if (exitCode == null) {
+                throw e;
+            }
+            EOFException eofException = new EOFException(describeExit(exitCode));
+            eofException.initCause(e);
+            throw eofException;
+        }
+    }
+
+    /**
+     * Closes the stdin of the process and waits for it to exit on its own.
+     * <p>
+     * Unlike {@link #close()}, this lets the compiler finish its work, e.g. writing a snapshot on exit.
+     *
+     * @return The exit code of the process.
+     * @throws IOException If the process did not exit within the given time. It is killed in this case.
+     */
+    public int closeGracefully(long timeout, TimeUnit unit) throws IOException {
+        process.getOutputStream().close();
+        try {
+            if (!exited.await(timeout, unit)) {
+                close();
+                throw new IOException("The compiler did not exit within " + timeout + " " + unit);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new InterruptedIOException();
+        }
+        return process.exitValue();
+    }
+
     @Override
     public void close() {
         process.destroy();
@@ -50,10 +186,19 @@ public class ProcessConnection extends StreamConnection {
     }
 
     private void assertAlive() throws IOException {
-        try {
-            int exitValue = process.exitValue();
-            throw new IOException("Process is dead. Exit code was: " + exitValue);
-        } catch(IllegalThreadStateException ignored) {
+        if (!isAlive()) {
+            throw new IOException(describeExit(process.exitValue()));
         }
     }
+
+    private String describeExit(int exitCode) {
+        String message = "Process is dead. Exit code was: " + exitCode;
+        String tail = getStderrTail();
+        return tail.isEmpty() ? message : message + ". Last stderr output:\n" + tail;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessConnection(" + (isAlive() ? "alive" : "exit code " + process.exitValue()) + ")";
+    }
 }
@@ -0,0 +1,130 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import de.larsgrefer.sass.embedded.util.IOUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the protocol versions reported by {@code sass --version}, so the probe process only has to be started once
+ * per executable.
+ * <p>
+ * The entries are keyed by the command line together with the size and modification time of the files in it,
+ * so a replaced executable is probed again.
+ * If a file is given, the entries are persisted there and survive restarts of the JVM.
+ *
+ * @author Lars Grefer
+ * @see ConnectionFactory#findProtocolVersion(List)
+ */
+@Slf4j
+class ProtocolVersionCache {
+
+    private final Map<String, String> protocolVersions = new ConcurrentHashMap<>();
+
+    @Nullable
+    private final Path file;
+
+    private boolean loaded;
+
+    /**
+     * @param file The properties file to persist the entries in, or {@code null} to only keep them in memory.
+     */
+    ProtocolVersionCache(@Nullable Path file) {
+        this.file = file;
+    }
+
+    String getProtocolVersion(List<String> command, Probe probe) throws IOException {
+        load();
+
+        String key = getKey(command);
+        String protocolVersion = protocolVersions.get(key);
+        if (protocolVersion != null) {
+            return protocolVersion;
+        }
+
+        protocolVersion = probe.findProtocolVersion(command);
+        protocolVersions.put(key, protocolVersion);
+        store();
+
+        return protocolVersion;
+    }
+
+    static String getKey(List<String> command) {
+        StringBuilder key = new StringBuilder();
+        for (String part : command) {
+            if (key.length() > 0) {
+                key.append(' ');
+            }
+            key.append(part);
+
+            File partFile = new File(part);
+            if (partFile.isFile()) {
+                key.append('[').append(partFile.length()).append(',').append(partFile.lastModified()).append(']');
+            }
+        }
+        return key.toString();
+    }
+
+    private synchronized void load() {
+        if (loaded || file == null) {
+            return;
+        }
+        loaded = true;
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.debug("Failed to read {}", file, e);
+            return;
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            protocolVersions.putIfAbsent(key, properties.getProperty(key));
+        }
+    }
+
+    /**
+     * Writes all entries to the file. Failures are only logged, as the cache is just an optimization.
+     */
+    private synchronized void store() {
+        if (file == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        properties.putAll(protocolVersions);
+
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                properties.store(out, "Protocol versions of the dart-sass executables");
+            }
+            IOUtils.move(tempFile, file);
+        } catch (IOException e) {
+            log.debug("Failed to write {}", file, e);
+            if (tempFile != null) {
+                tempFile.toFile().delete();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Probe {
+        String findProtocolVersion(List<String> command) throws IOException;
+    }
+}
@@ -0,0 +1,233 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import androidx.annotation.RequiresApi;
+import com.google.protobuf.CodedOutputStream;
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CompilerConnection} decorator which records all packets of the delegate, including their timing.
+ * <p>
+ * The recording can be played back by a {@link ReplayingConnection}, which makes it possible to benchmark and profile
+ * the host side against real traffic without starting a compiler.
+ * <p>
+ * The file consists of the {@link #MAGIC magic bytes}, followed by one record per packet:
+ * The direction ({@link #SENT} or {@link #RECEIVED}), the nanoseconds since the previous record as varint and the
+ * length-delimited packet as it would be sent over the wire.
+ * <p>
+ * The file is written by a background thread, so the compilations don't wait for the disk.
+ * Recording is a debugging aid and never fails the connection: When the file can't be written, grows beyond
+ * {@link #getMaxFileSize()} or the writer falls too far behind, a warning is logged and recording stops.
+ * The packets recorded until then still form a valid recording.
+ *
+ * @author Lars Grefer
+ * @see ReplayingConnection
+ */
+@Slf4j
+public class RecordingConnection implements CompilerConnection {
+
+    static final byte[] MAGIC = "SASSREC1".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte SENT = '>';
+    static final byte RECEIVED = '<';
+
+    /**
+     * Recording stops once more than this many bytes are waiting to be written.
+     */
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private static final PendingRecord END = new PendingRecord((byte) 0, 0, new byte[0]);
+
+    @Getter
+    private final CompilerConnection delegate;
+
+    private final Path recording;
+
+    /**
+     * Recording stops before the file would grow beyond this number of bytes.
+     */
+    @Getter
+    @Setter
+    private volatile long maxFileSize = Long.MAX_VALUE;
+
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final Thread writer;
+
+    // guarded by this
+    private long lastNanos = System.nanoTime();
+    private long fileSize;
+    private boolean stopped;
+
+    /**
+     * @param delegate  The connection to record.
+     * @param recording The file to write the recording to. An existing file is overwritten.
+     */
+    @RequiresApi(26)
+    public RecordingConnection(@NonNull CompilerConnection delegate, @NonNull Path recording) throws IOException {
+        this.delegate = delegate;
+        this.recording = recording;
+
+        OutputStream fileOutput = new BufferedOutputStream(Files.newOutputStream(recording));
+        try {
+            fileOutput.write(MAGIC);
+        } catch (IOException e) {
+            fileOutput.close();
+            throw e;
+        }
+        this.fileSize = MAGIC.length;
+
+        this.writer = new Thread(() -> writeLoop(fileOutput), "sass-recording-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void sendMessage(Packet<InboundMessage> packet) throws IOException {
+        // Recorded first, so a fast response can not end up in front of its request.
+        record(SENT, packet);
+        delegate.sendMessage(packet);
+    }
+
+    @Override
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        Packet<OutboundMessage> packet = delegate.readResponse();
+        record(RECEIVED, packet);
+        return packet;
+    }
+
+    private void record(byte direction, Packet<?> packet) {
+        if (isStopped()) {
+            return;
+        }
+
+        byte[] frame;
+        try {
+            frame = new byte[packet.getDelimitedSize()];
+            packet.writeDelimitedTo(frame, 0);
+        } catch (IOException | RuntimeException e) {
+            stop("Failed to encode a packet for " + recording + ", recording stopped", e);
+            return;
+        }
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long delay = Math.max(0, now - lastNanos);
+            long recordSize = 1 + CodedOutputStream.computeUInt64SizeNoTag(delay) + frame.length;
+
+            if (fileSize + recordSize > maxFileSize) {
+                stop("Recording " + recording + " reached its maximum size of " + maxFileSize + " bytes, recording stopped", null);
+                return;
+            }
+            if (pendingBytes.get() > MAX_PENDING_BYTES) {
+                stop("Writing " + recording + " can't keep up with the compiler, recording stopped", null);
+                return;
+            }
+
+            queue.add(new PendingRecord(direction, delay, frame));
+            pendingBytes.addAndGet(frame.length);
+            fileSize += recordSize;
+            lastNanos = now;
+        }
+    }
+
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Stops recording. The records queued until now are still written.
+     */
+    private synchronized void stop(@Nullable String message, @Nullable Exception exception) {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        queue.add(END);
+
+        if (message != null) {
+            log.warn(message, exception);
+        }
+    }
+
+    private void writeLoop(OutputStream fileOutput) {
+        CodedOutputStream output = CodedOutputStream.newInstance(fileOutput);
+        try {
+            PendingRecord record;
+            while ((record = queue.take()) != END) {
+                pendingBytes.addAndGet(-record.frame.length);
+
+                output.writeRawByte(record.direction);
+                output.writeUInt64NoTag(record.delayNanos);
+                output.writeRawBytes(record.frame);
+            }
+            output.flush();
+        } catch (IOException e) {
+            stop("Failed to write " + recording + ", recording stopped", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queue.clear();
+            try {
+                fileOutput.close();
+            } catch (IOException e) {
+                log.warn("Failed to close {}", recording, e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isAlive() {
+        return delegate.isAlive();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            delegate.close();
+        } finally {
+            stop(null, null);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Recording(" + delegate + ")";
+    }
+
+    private static class PendingRecord {
+        private final byte direction;
+        private final long delayNanos;
+        private final byte[] frame;
+
+        private PendingRecord(byte direction, long delayNanos, byte[] frame) {
+            this.direction = direction;
+            this.delayNanos = delayNanos;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import androidx.annotation.RequiresApi;
+import com.google.protobuf.CodedInputStream;
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CompilerConnection} which plays back the compiler side of a recording made by a {@link RecordingConnection}.
+ * <p>
+ * No compiler is started. Each recorded response is returned as soon as the host has sent as many packets as it had
+ * sent before the response was recorded, so the host has to do the same work as in the recording: The same
+ * compilations in the same order, with the same importers and functions.
+ * <p>
+ * The compilation ids of the recording are mapped to the ones used by the host, based on the order of the
+ * compile requests. Other ids (e.g. of importers or function calls) are replayed as recorded.
+ *
+ * @author Lars Grefer
+ * @see RecordingConnection
+ */
+public class ReplayingConnection implements CompilerConnection {
+
+    private final List<Response> responses = new ArrayList<>();
+
+    /**
+     * The recorded compilation ids of the compile requests, in the order they were sent.
+     */
+    private final List<Integer> recordedCompilationIds = new ArrayList<>();
+
+    /**
+     * Whether the time the compiler needed for each response should be replayed as well.
+     * Defaults to {@code false}, so the responses are returned as fast as possible.
+     */
+    @Getter
+    @Setter
+    private volatile boolean preserveTiming;
+
+    private final Map<Integer, Integer> compilationIds = new HashMap<>();
+
+    private int position;
+    private int sentPackets;
+    private int nextCompileRequest;
+    private boolean closed;
+
+    /**
+     * @param recording A file written by a {@link RecordingConnection}.
+     */
+    @RequiresApi(26)
+    public ReplayingConnection(@NonNull Path recording) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(recording))) {
+            read(inputStream);
+        }
+    }
+
+    /**
+     * @return A {@link ConnectionSupplier} which replays the given recording for every new connection.
+     */
+    @RequiresApi(26)
+    public static ConnectionSupplier supplier(@NonNull Path recording) {
+        return () -> new ReplayingConnection(recording);
+    }
+
+    @Override
+    public synchronized void sendMessage(Packet<InboundMessage> packet) throws IOException {
+        if (closed) {
+            throw new IOException("The connection has been closed");
+        }
+
+        if (packet.getMessage().hasCompileRequest()) {
+            if (nextCompileRequest >= recordedCompilationIds.size()) {
+                throw new IOException("The recording does not contain any more compile requests");
+            }
+            compilationIds.put(recordedCompilationIds.get(nextCompileRequest++), packet.getCompilationId());
+        }
+
+        sentPackets++;
+        notifyAll();
+    }
+
+    @Override
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        Response response;
+        synchronized (this) {
+            try {
+                while (!closed && (position >= responses.size() || sentPackets < responses.get(position).sentBefore)) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            if (closed) {
+                throw new EOFException("The connection has been closed");
+            }
+
+            response = responses.get(position++);
+        }
+
+        if (preserveTiming) {
+            sleep(response.delayNanos);
+        }
+
+        Packet<OutboundMessage> packet = response.packet;
+        int compilationId;
+        synchronized (this) {
+            compilationId = compilationIds.getOrDefault(packet.getCompilationId(), packet.getCompilationId());
+        }
+
+        return new Packet<>(compilationId, packet.getMessage());
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * @return The number of recorded responses which have not been replayed yet.
+     */
+    public synchronized int getRemainingResponses() {
+        return responses.size() - position;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public String toString() {
+        return "Replay(" + responses.size() + " responses)";
+    }
+
+    /**
+     * Reads the recorded responses.
+     * The sent packets are only counted, except for the compile requests, which are needed to map the compilation ids.
+     */
+    private void read(InputStream inputStream) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(inputStream);
+        input.setSizeLimit(Integer.MAX_VALUE);
+
+        byte[] magic = new byte[RecordingConnection.MAGIC.length];
+        for (int i = 0; i < magic.length && !input.isAtEnd(); i++) {
+            magic[i] = input.readRawByte();
+        }
+        if (!Arrays.equals(magic, RecordingConnection.MAGIC)) {
+            throw new IOException("Not a recording of a sass compiler connection");
+        }
+
+        int sent = 0;
+        long delayNanos = 0;
+
+        while (!input.isAtEnd()) {
+            byte direction = input.readRawByte();
+            delayNanos += input.readUInt64();
+            int size = input.readUInt32();
+            byte[] frame = input.readRawBytes(size);
+
+            if (direction == RecordingConnection.SENT) {
+                Packet<InboundMessage> packet = Packet.parseFrom(frame, 0, size, InboundMessage.parser());
+                sent++;
+                delayNanos = 0;
+                if (packet.getMessage().hasCompileRequest()) {
+                    recordedCompilationIds.add(packet.getCompilationId());
+                }
+            } else if (direction == RecordingConnection.RECEIVED) {
+                Packet<OutboundMessage> packet = Packet.parseFrom(frame, 0, size, OutboundMessage.parser());
+                responses.add(new Response(packet, sent, delayNanos));
+                delayNanos = 0;
+            } else {
+                throw new IOException("Corrupt recording: Unknown direction " + direction);
+            }
+        }
+    }
+
+    private static class Response {
+        private final Packet<OutboundMessage> packet;
+        private final int sentBefore;
+        private final long delayNanos;
+
+        Response(Packet<OutboundMessage> packet, int sentBefore, long delayNanos) {
+            this.packet = packet;
+            this.sentBefore = sentBefore;
+            this.delayNanos = delayNanos;
+        }
+    }
+}
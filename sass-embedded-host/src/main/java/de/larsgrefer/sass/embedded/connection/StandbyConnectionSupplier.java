@@ -0,0 +1,211 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ConnectionSupplier} which keeps a spare connection ready in the background.
+ * <p>
+ * Starting a compiler process takes a while, which is normally paid by the first compilation after a compiler is
+ * created, recycled or restarted after a crash. This supplier creates the next connection ahead of time, checks it
+ * with a version request and hands it over on the next call to {@link #get()}. Afterwards, the next spare is started
+ * right away.
+ * <pre>{@code
+ * StandbyConnectionSupplier standby = new StandbyConnectionSupplier(ConnectionFactory::bundled);
+ * SassCompilerPool pool = new SassCompilerPool(standby);
+ * }</pre>
+ * If the spare could not be created or died while it was idle, the connection is created by the delegate directly.
+ * Combined with {@link ConnectionFactory#setWarmUp(boolean)}, the spare is warmed up in the background as well.
+ *
+ * @author Lars Grefer
+ */
+@Slf4j
+public class StandbyConnectionSupplier implements ConnectionSupplier, Closeable {
+
+    private final ConnectionSupplier delegate;
+
+    @Nullable
+    private CompletableFuture<CompilerConnection> spare;
+
+    private boolean closed = false;
+
+    private final AtomicLong handovers = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * Creates a new supplier for the {@link ConnectionFactory#bundled() bundled} dart-sass.
+     */
+    public StandbyConnectionSupplier() {
+        this(ConnectionFactory::bundled);
+    }
+
+    /**
+     * Creates a new supplier and starts the first spare connection in the background.
+     *
+     * @param delegate Creates the actual connections.
+     */
+    public StandbyConnectionSupplier(@NonNull ConnectionSupplier delegate) {
+        this.delegate = delegate;
+        this.spare = spawn();
+    }
+
+    /**
+     * Hands over the spare connection and starts the next one.
+     * <p>
+     * If the spare is still starting, this waits for it, as it's ready sooner than a new connection would be.
+     * Concurrent callers which find no spare get a new connection from the delegate.
+     */
+    @Override
+    public CompilerConnection get() throws IOException {
+        CompletableFuture<CompilerConnection> current;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The StandbyConnectionSupplier is closed");
+            }
+            current = spare;
+            spare = null;
+        }
+
+        CompilerConnection connection = take(current);
+
+        synchronized (this) {
+            // A concurrent call might have started the next spare already.
+            if (!closed && spare == null) {
+                spare = spawn();
+            }
+        }
+
+        if (connection != null) {
+            handovers.incrementAndGet();
+            return connection;
+        }
+
+        fallbacks.incrementAndGet();
+        return delegate.get();
+    }
+
+    /**
+     * @return The number of connections which were handed over from the standby.
+     */
+    public long getHandovers() {
+        return handovers.get();
+    }
+
+    /**
+     * @return The number of connections which had to be created directly, because no usable spare was available.
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    @Nullable
+    private CompilerConnection take(@Nullable CompletableFuture<CompilerConnection> future) throws IOException {
+        if (future == null) {
+            return null;
+        }
+
+        CompilerConnection connection;
+        try {
+            connection = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.thenAccept(this::closeQuietly);
+            throw new InterruptedIOException("Interrupted while waiting for the spare connection");
+        } catch (ExecutionException e) {
+            log.warn("Failed to start the spare connection", e.getCause());
+            return null;
+        }
+
+        if (!connection.isAlive()) {
+            log.warn("The spare connection died while it was idle: {}", connection);
+            closeQuietly(connection);
+            return null;
+        }
+
+        return connection;
+    }
+
+    private CompletableFuture<CompilerConnection> spawn() {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            CompilerConnection connection;
+            try {
+                connection = delegate.get();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+
+            try {
+                checkVersion(connection);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(connection);
+                throw new CompletionException(e);
+            }
+
+            log.debug("Started the spare connection {} in {}ms", connection, (System.nanoTime() - start) / 1_000_000);
+            return connection;
+        }, runnable -> {
+            Thread thread = new Thread(runnable, "sass-standby-connection");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Makes sure the compiler behind the given connection is up and responds to requests.
+     */
+    private static void checkVersion(CompilerConnection connection) throws IOException {
+        connection.sendMessage(0, InboundMessage.newBuilder()
+                .setVersionRequest(InboundMessage.VersionRequest.getDefaultInstance())
+                .build());
+
+        OutboundMessage response = connection.readResponse().getMessage();
+        if (!response.hasVersionResponse()) {
+            throw new IOException("Expected a VersionResponse but got " + response.getMessageCase());
+        }
+
+        String protocolVersion = response.getVersionResponse().getProtocolVersion();
+        if (!ConnectionFactory.getExpectedProtocolVersion().equalsIgnoreCase(protocolVersion)) {
+            log.debug("The spare connection {} uses protocolVersion {}", connection, protocolVersion);
+        }
+    }
+
+    private void closeQuietly(CompilerConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}", connection, e);
+        }
+    }
+
+    /**
+     * Closes the spare connection. Connections which have already been handed over are not affected.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<CompilerConnection> current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = spare;
+            spare = null;
+        }
+
+        if (current != null) {
+            current.thenAccept(this::closeQuietly);
+        }
+    }
+}
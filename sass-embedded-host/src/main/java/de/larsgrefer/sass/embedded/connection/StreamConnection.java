@@ -1,10 +1,15 @@
 package de.larsgrefer.sass.embedded.connection;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.TextFormat;
 import com.sass_lang.embedded_protocol.InboundMessage;
 import com.sass_lang.embedded_protocol.OutboundMessage;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -21,8 +26,51 @@ public abstract class StreamConnection implements CompilerConnection {
 
     protected abstract OutputStream getOutputStream() throws IOException;
 
+    /*
+     * Reading and writing use separate locks, so a thread blocked in readResponse()
+     * does not prevent other threads from sending messages.
+     */
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+
+    /**
+     * Buffers above this size are only used for a single packet, so one huge packet does not pin its memory forever.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Frames of at least this size are read into their own buffer and decoded with the {@link AliasingDecoder},
+     * so large CSS outputs are not copied again.
+     */
+    private static final int ALIASING_THRESHOLD = 32 * 1024;
+
+    /**
+     * Observes all packets sent and received by this connection.
+     */
+    @Getter
+    @Setter
+    @Nullable
+    private volatile WireListener wireListener;
+
+    /**
+     * The maximum size of a single received packet. Larger packets are rejected before they are read.
+     */
+    @Getter
+    @Setter
+    private volatile int maxFrameSize = Packet.DEFAULT_MAX_FRAME_SIZE;
+
+    // guarded by readLock
+    private InputStream rawInputStream;
+    private InputStream bufferedInputStream;
+    private byte[] readBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    // guarded by writeLock
+    private byte[] writeBuffer = new byte[INITIAL_BUFFER_SIZE];
+
     @Override
-    public synchronized void sendMessage(Packet<InboundMessage> packet) throws IOException {
+    public void sendMessage(Packet<InboundMessage> packet) throws IOException {
         if (log.isTraceEnabled()) {
             log.trace("{} --> {}", packet.getCompilationId(), TextFormat.printer().shortDebugString(packet.getMessage()));
         }
@@ -31,14 +79,52 @@ public abstract class StreamConnection implements CompilerConnection {
             packet.setCompilationId(0);
         }
 
-        OutputStream outputStream = getOutputStream();
-        packet.writeDelimitedTo(outputStream);
-        outputStream.flush();
+        WireListener listener = wireListener;
+        int size;
+        long start;
+        synchronized (writeLock) {
+            start = System.nanoTime();
+            size = packet.getDelimitedSize();
+            byte[] buffer = writeBuffer(size);
+            packet.writeDelimitedTo(buffer, 0);
+
+            OutputStream outputStream = getOutputStream();
+            outputStream.write(buffer, 0, size);
+            outputStream.flush();
+        }
+
+        if (listener != null) {
+            listener.onSent(packet, size, start, System.nanoTime());
+        }
     }
 
     @Override
-    public synchronized Packet<OutboundMessage> readResponse() throws IOException {
-        Packet<OutboundMessage> packet = Packet.parseDelimitedFrom(getInputStream(), OutboundMessage.parser());
+    public Packet<OutboundMessage> readResponse() throws IOException {
+        Packet<OutboundMessage> packet;
+        int size;
+        long start;
+        synchronized (readLock) {
+            InputStream inputStream = bufferedInputStream();
+
+            size = Packet.readFrameSize(inputStream);
+            start = System.nanoTime();
+            Packet.checkFrameSize(size, maxFrameSize);
+
+            if (size >= ALIASING_THRESHOLD) {
+                byte[] frame = new byte[size];
+                Packet.readFully(inputStream, frame, size);
+                packet = AliasingDecoder.parse(frame, 0, size);
+            } else {
+                byte[] buffer = readBuffer(size);
+                Packet.readFully(inputStream, buffer, size);
+                packet = Packet.parseFrom(buffer, 0, size, OutboundMessage.parser());
+            }
+        }
+
+        WireListener listener = wireListener;
+        if (listener != null) {
+            listener.onReceived(packet, CodedOutputStream.computeUInt32SizeNoTag(size) + size, start, System.nanoTime());
+        }
 
         if (log.isTraceEnabled()) {
             log.trace("{} <-- {}", packet.getCompilationId(), TextFormat.printer().shortDebugString(packet.getMessage()));
@@ -46,4 +132,39 @@ public abstract class StreamConnection implements CompilerConnection {
         return packet;
     }
 
+    /**
+     * Varints are read byte by byte, so make sure they are not read from an unbuffered stream.
+     */
+    private InputStream bufferedInputStream() throws IOException {
+        InputStream inputStream = getInputStream();
+        if (inputStream != rawInputStream) {
+            rawInputStream = inputStream;
+            bufferedInputStream = inputStream instanceof BufferedInputStream ? inputStream : new BufferedInputStream(inputStream, INITIAL_BUFFER_SIZE);
+        }
+        return bufferedInputStream;
+    }
+
+    private byte[] readBuffer(int size) {
+        if (size <= readBuffer.length) {
+            return readBuffer;
+        }
+        if (size > MAX_RETAINED_BUFFER_SIZE) {
+            return new byte[size];
+        }
+        return readBuffer = new byte[grow(readBuffer.length, size)];
+    }
+
+    private byte[] writeBuffer(int size) {
+        if (size <= writeBuffer.length) {
+            return writeBuffer;
+        }
+        if (size > MAX_RETAINED_BUFFER_SIZE) {
+            return new byte[size];
+        }
+        return writeBuffer = new byte[grow(writeBuffer.length, size)];
+    }
+
+    private static int grow(int currentSize, int minSize) {
+        return Math.min(Math.max(currentSize * 2, minSize), MAX_RETAINED_BUFFER_SIZE);
+    }
 }
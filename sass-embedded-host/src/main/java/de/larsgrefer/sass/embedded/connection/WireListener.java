@@ -0,0 +1,41 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+
+/**
+ * Observes the packets which are exchanged with a compiler.
+ * <p>
+ * The methods are called on the threads which send and read the packets, so they should return quickly.
+ *
+ * @author Lars Grefer
+ * @see StreamConnection#setWireListener(WireListener)
+ * @see ChannelConnection#setWireListener(WireListener)
+ * @see MonitoredConnection
+ * @see WireStatistics
+ */
+public interface WireListener {
+
+    /**
+     * Called after a packet has been sent to the compiler.
+     *
+     * @param packet     The packet.
+     * @param size       The number of bytes on the wire, including the length prefix.
+     * @param startNanos The {@link System#nanoTime()} when sending started.
+     * @param endNanos   The {@link System#nanoTime()} when the packet was sent completely.
+     */
+    default void onSent(Packet<InboundMessage> packet, int size, long startNanos, long endNanos) {
+    }
+
+    /**
+     * Called after a packet has been read from the compiler.
+     *
+     * @param packet     The packet.
+     * @param size       The number of bytes on the wire, including the length prefix.
+     * @param startNanos The {@link System#nanoTime()} when the length prefix of the packet was read, so the time spent
+     *                   waiting for the compiler is not included.
+     * @param endNanos   The {@link System#nanoTime()} when the packet was read completely.
+     */
+    default void onReceived(Packet<OutboundMessage> packet, int size, long startNanos, long endNanos) {
+    }
+}
@@ -0,0 +1,106 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link WireListener} which counts the messages and bytes exchanged with the compiler, by message type.
+ * <p>
+ * This shows for example how many {@link OutboundMessage.CanonicalizeRequest canonicalize requests} a stylesheet
+ * causes. One instance can be shared by multiple connections.
+ *
+ * @author Lars Grefer
+ */
+public class WireStatistics implements WireListener {
+
+    private final Map<InboundMessage.MessageCase, Counter> sent = new EnumMap<>(InboundMessage.MessageCase.class);
+
+    private final Map<OutboundMessage.MessageCase, Counter> received = new EnumMap<>(OutboundMessage.MessageCase.class);
+
+    public WireStatistics() {
+        // The maps are never modified afterwards, so they can be read concurrently.
+        for (InboundMessage.MessageCase messageCase : InboundMessage.MessageCase.values()) {
+            sent.put(messageCase, new Counter());
+        }
+        for (OutboundMessage.MessageCase messageCase : OutboundMessage.MessageCase.values()) {
+            received.put(messageCase, new Counter());
+        }
+    }
+
+    @Override
+    public void onSent(Packet<InboundMessage> packet, int size, long startNanos, long endNanos) {
+        sent.get(packet.getMessage().getMessageCase()).add(size);
+    }
+
+    @Override
+    public void onReceived(Packet<OutboundMessage> packet, int size, long startNanos, long endNanos) {
+        received.get(packet.getMessage().getMessageCase()).add(size);
+    }
+
+    public long getSentMessages(InboundMessage.MessageCase messageCase) {
+        return sent.get(messageCase).messages.get();
+    }
+
+    public long getSentBytes(InboundMessage.MessageCase messageCase) {
+        return sent.get(messageCase).bytes.get();
+    }
+
+    public long getReceivedMessages(OutboundMessage.MessageCase messageCase) {
+        return received.get(messageCase).messages.get();
+    }
+
+    public long getReceivedBytes(OutboundMessage.MessageCase messageCase) {
+        return received.get(messageCase).bytes.get();
+    }
+
+    public long getTotalSentBytes() {
+        return sent.values().stream().mapToLong(counter -> counter.bytes.get()).sum();
+    }
+
+    public long getTotalReceivedBytes() {
+        return received.values().stream().mapToLong(counter -> counter.bytes.get()).sum();
+    }
+
+    public void reset() {
+        sent.values().forEach(Counter::reset);
+        received.values().forEach(Counter::reset);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("WireStatistics{");
+        sent.forEach((messageCase, counter) -> counter.appendTo(sb, "-->", messageCase));
+        received.forEach((messageCase, counter) -> counter.appendTo(sb, "<--", messageCase));
+        return sb.append('}').toString();
+    }
+
+    private static class Counter {
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        void add(int size) {
+            messages.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+
+        void reset() {
+            messages.set(0);
+            bytes.set(0);
+        }
+
+        void appendTo(StringBuilder sb, String direction, Enum<?> messageCase) {
+            long count = messages.get();
+            if (count > 0) {
+                if (sb.charAt(sb.length() - 1) != '{') {
+                    sb.append(", ");
+                }
+                sb.append(direction).append(' ').append(messageCase).append(": ")
+                        .append(count).append(" messages, ").append(bytes.get()).append(" bytes");
+            }
+        }
+    }
+}
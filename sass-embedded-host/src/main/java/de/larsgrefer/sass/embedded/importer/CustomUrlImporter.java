@@ -15,9 +15,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.*;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.stream.Collectors;
 
@@ -27,8 +27,8 @@ import java.util.stream.Collectors;
 @Slf4j
 public abstract class CustomUrlImporter extends CustomImporter {
 
-    private final Set<String> protocols = new HashSet<>();
-    private final Set<String> usedPrefixes = new HashSet<>();
+    private final Set<String> protocols = ConcurrentHashMap.newKeySet();
+    private final Set<String> usedPrefixes = ConcurrentHashMap.newKeySet();
 
     @Override
     public String canonicalize(String url, boolean fromImport) throws Exception {
@@ -3,17 +3,19 @@ package de.larsgrefer.sass.embedded.importer;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * @author Lars Grefer
  */
 @EqualsAndHashCode(onlyExplicitlyIncluded = true)
 public abstract class Importer {
 
-    private static int idCounter = 0;
+    private static final AtomicInteger idCounter = new AtomicInteger();
 
     @Getter
     @EqualsAndHashCode.Include
-    private final int id = idCounter++;
+    private final int id = idCounter.getAndIncrement();
 
     protected void checkId(int id) {
         if (id != getId()) {
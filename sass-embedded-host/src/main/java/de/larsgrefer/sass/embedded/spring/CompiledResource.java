@@ -6,7 +6,6 @@ import lombok.Getter;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.lang.NonNull;
-import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.resource.HttpResource;
 import org.springframework.web.servlet.resource.TransformedResource;
 
@@ -31,7 +30,7 @@ class CompiledResource extends TransformedResource implements HttpResource {
         super(original, compileSuccess.getCssBytes().toByteArray());
         this.filename = filename;
         this.outputStyle = outputStyle;
-        this.hasSourceMap = StringUtils.hasText(compileSuccess.getSourceMap());
+        this.hasSourceMap = !compileSuccess.getSourceMapBytes().isEmpty();
     }
 
     @SuppressWarnings("UastIncorrectHttpHeaderInspection")
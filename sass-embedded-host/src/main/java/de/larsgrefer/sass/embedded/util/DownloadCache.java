@@ -0,0 +1,337 @@
+package de.larsgrefer.sass.embedded.util;
+
+import androidx.annotation.RequiresApi;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed cache for downloaded files, which can be shared by multiple projects and JVMs.
+ * <p>
+ * Files are stored as {@code sha256/<checksum>/<name>} and verified against their checksum before they are used.
+ * The expected checksum is taken from the caller, from a {@code <url>.sha256} file next to the download or, if neither
+ * is available, recorded on the first download. Such an unverified download is logged as a warning.
+ * Interrupted HTTP downloads are resumed with conditional range requests ({@code If-Range}), so a file which has
+ * changed on the server in the meantime is downloaded again instead of being spliced together. Downloads from servers
+ * which send neither a strong {@code ETag} nor a {@code Last-Modified} date are not resumed.
+ *
+ * @author Lars Grefer
+ */
+@Slf4j
+@RequiresApi(10000)
+public class DownloadCache {
+
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(60);
+
+    @Getter
+    private final Path directory;
+
+    /**
+     * How long to wait for the connection to the server, so an unreachable mirror can't block forever.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * How long to wait for data from the server, so a stalled download can't block forever.
+     */
+    @Getter
+    @Setter
+    @NonNull
+    private Duration readTimeout = DEFAULT_READ_TIMEOUT;
+
+    public DownloadCache(@NonNull Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached copy of the given file, downloading it if necessary.
+     *
+     * @param url            The source of the file.
+     * @param expectedSha256 The expected SHA-256 checksum as hex string, or {@code null} to look it up.
+     * @return The verified local copy of the file, which has the same file name as the url.
+     * @throws ChecksumMismatchException If the downloaded file does not match the expected checksum.
+     * @throws IOException               If the download fails or the cache can't be written.
+     */
+    public Path get(URL url, @Nullable String expectedSha256) throws IOException {
+        String name = getFileName(url);
+
+        Path partialDir = Files.createDirectories(directory.resolve("partial"));
+
+        String sha256 = expectedSha256 != null ? expectedSha256.toLowerCase(Locale.ROOT) : null;
+        return IOUtils.withFileLock(partialDir.resolve(name + ".lock"), () -> getLocked(url, name, sha256));
+    }
+
+    private Path getLocked(URL url, String name, @Nullable String expectedSha256) throws IOException {
+        Path indexFile = directory.resolve("names").resolve(name + ".sha256");
+
+        String sha256 = expectedSha256 != null ? expectedSha256 : readSha256(indexFile);
+        if (sha256 != null) {
+            Path cached = blobPath(sha256, name);
+            if (Files.isRegularFile(cached)) {
+                if (sha256.equals(sha256(cached))) {
+                    log.debug("Using {} from {}", url, cached);
+                    return cached;
+                }
+                log.warn("{} is damaged, downloading it again", cached);
+                Files.delete(cached);
+            }
+        }
+
+        if (expectedSha256 == null) {
+            expectedSha256 = fetchSha256(url);
+        }
+
+        Path partialFile = directory.resolve("partial").resolve(name + ".part");
+        Path validatorFile = validatorFile(partialFile);
+        boolean resumed = download(url, partialFile);
+
+        String actualSha256 = sha256(partialFile);
+        if (expectedSha256 != null && !expectedSha256.equals(actualSha256)) {
+            Files.delete(partialFile);
+            Files.deleteIfExists(validatorFile);
+            if (resumed) {
+                log.warn("The resumed download of {} is corrupt, downloading it again", url);
+                download(url, partialFile);
+                actualSha256 = sha256(partialFile);
+            }
+            if (!expectedSha256.equals(actualSha256)) {
+                Files.deleteIfExists(partialFile);
+                Files.deleteIfExists(validatorFile);
+                throw new ChecksumMismatchException(String.format("Checksum mismatch for %s: Expected %s but got %s", url, expectedSha256, actualSha256));
+            }
+        } else if (expectedSha256 == null) {
+            log.warn("No checksum is known for {}, so it can't be verified. Using it with the checksum {}", url, actualSha256);
+        }
+
+        Path blob = blobPath(actualSha256, name);
+        Files.createDirectories(blob.getParent());
+        IOUtils.move(partialFile, blob);
+        Files.deleteIfExists(validatorFile);
+
+        Files.createDirectories(indexFile.getParent());
+        Path tempIndexFile = Files.createTempFile(indexFile.getParent(), name, ".tmp");
+        Files.write(tempIndexFile, actualSha256.getBytes(StandardCharsets.US_ASCII));
+        IOUtils.move(tempIndexFile, indexFile);
+
+        return blob;
+    }
+
+    private Path blobPath(String sha256, String name) {
+        return directory.resolve("sha256").resolve(sha256).resolve(name);
+    }
+
+    /**
+     * Downloads the given url into the given file, resuming a previous partial download if possible.
+     *
+     * @return {@code true} if a partial download was resumed.
+     */
+    private boolean download(URL url, Path file) throws IOException {
+        Path validatorFile = validatorFile(file);
+        long existing = Files.isRegularFile(file) ? Files.size(file) : 0;
+        String validator = existing > 0 ? readValidator(validatorFile) : null;
+
+        if (existing > 0 && validator == null) {
+            log.debug("Not resuming the download of {}, because it's unknown whether the file has changed", url);
+        }
+
+        URLConnection connection = openConnection(url);
+        boolean append = false;
+
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            if (validator != null) {
+                // The server sends the whole file instead, if it doesn't match the partial download any more.
+                httpConnection.setRequestProperty("Range", "bytes=" + existing + "-");
+                httpConnection.setRequestProperty("If-Range", validator);
+            }
+
+            int responseCode = httpConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && validator != null) {
+                log.info("Resuming the download of {} at {} bytes", url, existing);
+                append = true;
+            } else if (responseCode == 416 && validator != null) {
+                // Range Not Satisfiable: The partial download is already complete.
+                httpConnection.disconnect();
+                return true;
+            } else if (responseCode >= 400) {
+                httpConnection.disconnect();
+                throw new IOException("Failed to download " + url + ": HTTP " + responseCode);
+            }
+
+            if (!append) {
+                // Remember how to resume this download, before it can be interrupted.
+                writeValidator(validatorFile, getValidator(httpConnection));
+            }
+        } else {
+            Files.deleteIfExists(validatorFile);
+        }
+
+        if (!append) {
+            log.info("Downloading {}", url);
+        }
+
+        StandardOpenOption mode = append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING;
+        try (InputStream in = connection.getInputStream();
+             OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+
+        return append;
+    }
+
+    private static Path validatorFile(Path partialFile) {
+        return partialFile.resolveSibling(partialFile.getFileName() + ".validator");
+    }
+
+    /**
+     * @return The strong {@code ETag} or the {@code Last-Modified} date of the response, which can be used for
+     * {@code If-Range}, or {@code null} if there is none.
+     */
+    @Nullable
+    private static String getValidator(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+
+    @Nullable
+    private static String readValidator(Path validatorFile) throws IOException {
+        try {
+            String validator = new String(Files.readAllBytes(validatorFile), StandardCharsets.UTF_8).trim();
+            return validator.isEmpty() ? null : validator;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void writeValidator(Path validatorFile, @Nullable String validator) throws IOException {
+        if (validator == null) {
+            Files.deleteIfExists(validatorFile);
+        } else {
+            Files.write(validatorFile, validator.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout((int) Math.min(connectTimeout.toMillis(), Integer.MAX_VALUE));
+        connection.setReadTimeout((int) Math.min(readTimeout.toMillis(), Integer.MAX_VALUE));
+        return connection;
+    }
+
+    /**
+     * Looks for a {@code .sha256} file next to the given url.
+     *
+     * @return The checksum, or {@code null} if there is none.
+     */
+    @Nullable
+    private String fetchSha256(URL url) {
+        try {
+            URLConnection connection = openConnection(new URL(url.toExternalForm() + ".sha256"));
+            if (connection instanceof HttpURLConnection && ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK) {
+                ((HttpURLConnection) connection).disconnect();
+                return null;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.US_ASCII))) {
+                return parseSha256(reader.readLine());
+            }
+        } catch (IOException e) {
+            log.debug("No checksum available for {}", url, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String readSha256(Path file) throws IOException {
+        try {
+            return parseSha256(new String(Files.readAllBytes(file), StandardCharsets.US_ASCII));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the output of {@code sha256sum}, which is the checksum optionally followed by the file name.
+     */
+    @Nullable
+    private static String parseSha256(@Nullable String line) {
+        if (line == null) {
+            return null;
+        }
+        String trimmed = line.trim();
+        int space = trimmed.indexOf(' ');
+        String sha256 = (space > 0 ? trimmed.substring(0, space) : trimmed).toLowerCase(Locale.ROOT);
+        return SHA256_PATTERN.matcher(sha256).matches() ? sha256 : null;
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return IOUtils.toHex(digest.digest());
+    }
+
+    private static String getFileName(URL url) {
+        String path = url.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.isEmpty() || name.equals("..") || name.equals(".")) {
+            throw new IllegalArgumentException("Can't determine the file name of " + url);
+        }
+        return name;
+    }
+
+    /**
+     * Thrown if a downloaded file does not match its expected checksum.
+     */
+    public static class ChecksumMismatchException extends IOException {
+        public ChecksumMismatchException(String message) {
+            super(message);
+        }
+    }
+}
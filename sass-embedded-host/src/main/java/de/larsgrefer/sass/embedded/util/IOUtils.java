@@ -1,18 +1,29 @@
 package de.larsgrefer.sass.embedded.util;
 
 import androidx.annotation.RequiresApi;
-import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -24,31 +35,41 @@ import java.util.zip.ZipInputStream;
 public class IOUtils {
 
     public static void extract(URL archiveUrl, Path destinationDir) throws IOException {
-        String file = archiveUrl.getPath();
-        if (file.endsWith(".zip")) {
-            try (ZipInputStream in = new ZipInputStream(archiveUrl.openStream())) {
-                unzip(in, destinationDir);
-            }
-        } else if (file.endsWith(".tar.gz")) {
-            try (InputStream in = archiveUrl.openStream()) {
-                untar(in, destinationDir.toFile());
-            }
+        try (InputStream in = archiveUrl.openStream()) {
+            extract(in, archiveUrl.getPath(), destinationDir);
+        }
+    }
+
+    /**
+     * Extracts a {@code .zip} or {@code .tar.gz} archive while reading it.
+     *
+     * @param archive        The archive.
+     * @param archiveName    The name of the archive, used to determine its type.
+     * @param destinationDir The directory to extract the archive into.
+     */
+    public static void extract(InputStream archive, String archiveName, Path destinationDir) throws IOException {
+        if (archiveName.endsWith(".zip")) {
+            unzip(new ZipInputStream(archive), destinationDir);
+        } else if (archiveName.endsWith(".tar.gz")) {
+            untar(new GZIPInputStream(archive, bufferSize), destinationDir.toFile());
         } else {
-            throw new IllegalArgumentException("Unknown archive extension: " + archiveUrl);
+            throw new IllegalArgumentException("Unknown archive extension: " + archiveName);
         }
     }
 
     void unzip(ZipInputStream zipInputStream, Path targetPath) throws IOException {
+        ensureDirectory(targetPath.toFile());
+        Path realTargetPath = targetPath.toRealPath();
+
         ZipEntry entry = zipInputStream.getNextEntry();
 
         while (entry != null) {
-            Path entryPath = targetPath.resolve(entry.getName());
-            File entryFile = entryPath.toFile();
+            Path entryPath = resolveEntry(targetPath, entry.getName());
 
             if (entry.isDirectory()) {
-                ensureDirectory(entryFile);
+                ensureDirectory(entryPath, realTargetPath);
             } else {
-                ensureDirectory(entryFile.getParentFile());
+                prepareEntry(entryPath, realTargetPath);
 
                 Files.copy(zipInputStream, entryPath);
             }
@@ -64,49 +85,317 @@ public class IOUtils {
         }
     }
 
-    @SneakyThrows(InterruptedException.class)
+    /**
+     * Resolves the path of an archive entry, making sure it does not escape the target directory.
+     */
+    private static Path resolveEntry(Path targetPath, String entryName) throws IOException {
+        Path entryPath = targetPath.resolve(entryName).normalize();
+        if (!entryPath.startsWith(targetPath.normalize())) {
+            throw new IOException("Archive entry " + entryName + " is outside of the target directory");
+        }
+        return entryPath;
+    }
+
+    /**
+     * Creates the given directory and makes sure it's really inside the target directory, i.e. it's not reached
+     * through a symbolic link which points outside of it.
+     */
+    private static void ensureDirectory(Path directory, Path realTargetPath) throws IOException {
+        ensureDirectory(directory.toFile());
+        if (!directory.toRealPath().startsWith(realTargetPath)) {
+            throw new IOException(directory + " is outside of the target directory");
+        }
+    }
+
+    /**
+     * Prepares the parent directory of an entry, and makes sure the entry itself is not written through a symbolic link.
+     */
+    private static void prepareEntry(Path entryPath, Path realTargetPath) throws IOException {
+        ensureDirectory(entryPath.getParent(), realTargetPath);
+        if (Files.isSymbolicLink(entryPath)) {
+            throw new IOException("Archive entry " + entryPath + " would overwrite a symbolic link");
+        }
+    }
+
+    /**
+     * Extracts an (uncompressed) tar stream.
+     * <p>
+     * Supports the ustar format including the GNU and pax extensions for long names, which is what
+     * the dart-sass packages are built with.
+     */
     void untar(InputStream inputStream, File targetDir) throws IOException {
         ensureDirectory(targetDir);
+        Path targetPath = targetDir.toPath();
+        Path realTargetPath = targetPath.toRealPath();
+
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+
+        String longName = null;
+        String longLinkName = null;
+
+        while (true) {
+            in.readFully(header);
+            if (isZeros(header)) {
+                return;
+            }
+
+            long size = parseTarNumber(header, 124, 12);
+            byte type = header[156];
+
+            String name = longName != null ? longName : parseTarName(header);
+            String linkName = longLinkName != null ? longLinkName : parseTarString(header, 157, 100);
+            longName = null;
+            longLinkName = null;
+
+            switch (type) {
+                case 'L':
+                    longName = trimNul(readTarData(in, size));
+                    continue;
+                case 'K':
+                    longLinkName = trimNul(readTarData(in, size));
+                    continue;
+                case 'x':
+                    for (Map.Entry<String, String> record : parsePaxHeaders(readTarData(in, size)).entrySet()) {
+                        if (record.getKey().equals("path")) {
+                            longName = record.getValue();
+                        } else if (record.getKey().equals("linkpath")) {
+                            longLinkName = record.getValue();
+                        }
+                    }
+                    continue;
+                default:
+                    break;
+            }
+
+            Path entryPath = resolveEntry(targetPath, name);
+
+            if (type == '5') {
+                ensureDirectory(entryPath, realTargetPath);
+            } else if (type == '2') {
+                prepareEntry(entryPath, realTargetPath);
+                Path link = Paths.get(linkName);
+                Path linkTarget = entryPath.getParent().toRealPath().resolve(link).normalize();
+                if (link.isAbsolute() || !linkTarget.startsWith(realTargetPath)) {
+                    throw new IOException("Archive entry " + name + " links to " + linkName + ", which is outside of the target directory");
+                }
+                Files.createSymbolicLink(entryPath, link);
+            } else if (type == '0' || type == 0 || type == '7') {
+                prepareEntry(entryPath, realTargetPath);
+                try (OutputStream out = Files.newOutputStream(entryPath)) {
+                    copy(in, out, size);
+                }
+                int mode = (int) parseTarNumber(header, 100, 8);
+                if ((mode & 0111) != 0) {
+                    entryPath.toFile().setExecutable(true, (mode & 0011) == 0);
+                }
+                skipPadding(in, size);
+                continue;
+            }
+
+            // Directories, links and unsupported types like global pax headers: Skip their data, if any.
+            skipFully(in, size + padding(size));
+        }
+    }
+
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private static boolean isZeros(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String parseTarName(byte[] header) {
+        String name = parseTarString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        if (ustar) {
+            String prefix = parseTarString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
 
-        Process tar = new ProcessBuilder("tar", "xz")
-                .directory(targetDir)
-                .redirectError(ProcessBuilder.Redirect.INHERIT)
-                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
-                .redirectInput(ProcessBuilder.Redirect.PIPE)
-                .start();
+    private static String parseTarString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
 
-        try (OutputStream os = tar.getOutputStream()) {
-            copy(inputStream, os);
+    /**
+     * Parses an octal number, or a base-256 number for values which don't fit.
+     */
+    private static long parseTarNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
         }
 
-        if (!tar.waitFor(5, TimeUnit.SECONDS)) {
-            tar.destroy();
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value == 0 && b == ' ') {
+                    continue;
+                }
+                break;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Corrupt tar header: Invalid octal number");
+            }
+            value = (value << 3) + (b - '0');
         }
+        return value;
+    }
 
-        if (!tar.waitFor(5, TimeUnit.SECONDS)) {
-            tar.destroyForcibly();
+    private static byte[] readTarData(DataInputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Corrupt tar header: Extension header too large");
         }
+        byte[] data = new byte[(int) size];
+        in.readFully(data);
+        skipPadding(in, size);
+        return data;
+    }
 
-        int exitValue = tar.exitValue();
-        if (exitValue != 0) {
-            throw new IOException("tar process exited with " + exitValue);
+    private static String trimNul(byte[] data) {
+        int end = data.length;
+        while (end > 0 && data[end - 1] == 0) {
+            end--;
         }
+        return new String(data, 0, end, StandardCharsets.UTF_8);
     }
 
-    private static final int bufferSize = 4096;
+    /**
+     * Parses pax records of the form {@code "<length> <key>=<value>\n"}.
+     */
+    private static Map<String, String> parsePaxHeaders(byte[] data) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        int position = 0;
+        while (position < data.length) {
+            int space = position;
+            while (space < data.length && data[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt pax header", e);
+            }
+            if (length <= 0 || position + length > data.length) {
+                throw new IOException("Corrupt pax header");
+            }
+            String record = new String(data, space + 1, position + length - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals > 0) {
+                headers.put(record.substring(0, equals), record.substring(equals + 1));
+            }
+            position += length;
+        }
+        return headers;
+    }
+
+    private static long padding(long size) {
+        return (TAR_BLOCK_SIZE - (size % TAR_BLOCK_SIZE)) % TAR_BLOCK_SIZE;
+    }
+
+    private static void skipPadding(InputStream in, long size) throws IOException {
+        skipFully(in, padding(size));
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Unexpected end of tar archive");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long count) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of tar archive");
+            }
+            out.write(buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    private static final int bufferSize = 8192;
+
+    private static final Map<Path, Object> fileLockMonitors = new ConcurrentHashMap<>();
 
     /**
-     * Backport of {@link InputStream#transferTo(OutputStream)}
-     * in order to support JDK 8
+     * Runs the given action while holding an exclusive lock on the given file, so it is serialized with other threads
+     * and other JVMs which lock the same file.
      *
-     * @see InputStream#transferTo(OutputStream)
+     * @param lockFile The file to lock. It is created if necessary, but not deleted afterwards.
+     * @param action   The action to run.
+     * @return The result of the action.
      */
-    private static void copy(InputStream inputStream, OutputStream os) throws IOException {
-        byte[] buffer = new byte[bufferSize];
-        int read;
-        while ((read = inputStream.read(buffer, 0, bufferSize)) >= 0) {
-            os.write(buffer, 0, read);
+    public static <T> T withFileLock(Path lockFile, LockedAction<T> action) throws IOException {
+        Object monitor = fileLockMonitors.computeIfAbsent(lockFile.toAbsolutePath().normalize(), path -> new Object());
+
+        // File locks are held by the whole JVM, so threads have to be serialized separately.
+        synchronized (monitor) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @see #withFileLock(Path, LockedAction)
+     */
+    @FunctionalInterface
+    public interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Moves the given file into place, atomically if the file system supports it.
+     * An existing target file is replaced.
+     */
+    public static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return The lower case hex representation of the given bytes.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
         }
+        return sb.toString();
     }
 
     public static boolean isEmpty(Path path) throws IOException {
@@ -0,0 +1,189 @@
+package de.larsgrefer.sass.embedded.util;
+
+import androidx.annotation.RequiresApi;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Extracts an archive into a directory which may be shared by multiple JVMs, e.g. in the system temp directory.
+ * <p>
+ * Every extraction goes into a fresh staging directory next to the installations, which is renamed to its final name
+ * once it's complete, while holding a file lock. A manifest with the size of every extracted file is written into the
+ * staging directory beforehand. The {@value #CURRENT} file of the target directory names the installation which is
+ * used, and is replaced atomically after the rename. So an installation is never modified or deleted once it's
+ * published, even if it has to be replaced because it was damaged: Other JVMs might still run it.
+ * On later starts, the manifest is checked against the file sizes, which does not require reading the files.
+ *
+ * @author Lars Grefer
+ * @see IOUtils#extract(URL, Path)
+ */
+@Slf4j
+@UtilityClass
+@RequiresApi(10000)
+public class PackageInstaller {
+
+    static final String MANIFEST = "manifest.properties";
+
+    /**
+     * The file which contains the name of the installation which is used.
+     */
+    static final String CURRENT = "current";
+
+    private static final String LOCK = ".lock";
+
+    private static final String STAGING_PREFIX = ".staging-";
+
+    private static final String INSTALLATION_PREFIX = "package-";
+
+    private static final String FILE_PREFIX = "file:";
+
+    /**
+     * Makes sure the given archive is extracted into the target directory.
+     *
+     * @param archive   The archive to extract.
+     * @param targetDir The directory which should contain the extracted archive.
+     * @return The directory of the complete installation, below the target directory.
+     */
+    public static Path install(URL archive, Path targetDir) throws IOException {
+        Path installation = getInstallation(targetDir);
+        if (installation != null) {
+            return installation;
+        }
+
+        Files.createDirectories(targetDir);
+
+        return IOUtils.withFileLock(targetDir.resolve(LOCK), () -> {
+            // Another process might have finished the extraction while we were waiting for the lock.
+            Path existing = getInstallation(targetDir);
+            return existing != null ? existing : extract(archive, targetDir);
+        });
+    }
+
+    /**
+     * @return {@code true} if the target directory contains a complete extraction, according to its manifest.
+     */
+    public static boolean isInstalled(Path targetDir) {
+        return getInstallation(targetDir) != null;
+    }
+
+    /**
+     * @return The directory of the complete installation in the target directory, or {@code null} if there is none.
+     */
+    @Nullable
+    public static Path getInstallation(Path targetDir) {
+        String name;
+        try {
+            name = new String(Files.readAllBytes(targetDir.resolve(CURRENT)), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            log.debug("Failed to read the current installation of {}", targetDir, e);
+            return null;
+        }
+
+        if (!name.startsWith(INSTALLATION_PREFIX) || name.contains("/") || name.contains(File.separator)) {
+            return null;
+        }
+
+        Path installation = targetDir.resolve(name);
+        return isComplete(installation) ? installation : null;
+    }
+
+    private static boolean isComplete(Path installation) {
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(installation.resolve(MANIFEST))) {
+            manifest.load(in);
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.debug("Failed to read the manifest in {}", installation, e);
+            return false;
+        }
+
+        boolean hasFiles = false;
+        for (String key : manifest.stringPropertyNames()) {
+            if (!key.startsWith(FILE_PREFIX)) {
+                continue;
+            }
+            hasFiles = true;
+
+            File file = installation.resolve(key.substring(FILE_PREFIX.length())).toFile();
+            if (!file.isFile() || file.length() != Long.parseLong(manifest.getProperty(key))) {
+                log.info("{} is incomplete or has been modified, extracting it again", installation);
+                return false;
+            }
+        }
+
+        return hasFiles;
+    }
+
+    private static Path extract(URL archive, Path targetDir) throws IOException {
+        // Leftovers of interrupted extractions. They are never used, as the lock is held.
+        try (Stream<Path> children = Files.list(targetDir)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                if (child.getFileName().toString().startsWith(STAGING_PREFIX)) {
+                    delete(child);
+                }
+            }
+        }
+
+        Path staging = Files.createTempDirectory(targetDir, STAGING_PREFIX);
+        try {
+            IOUtils.extract(archive, staging);
+
+            Map<String, String> manifest = new TreeMap<>();
+            try (Stream<Path> files = Files.walk(staging)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(file)) {
+                        String relativePath = staging.relativize(file).toString().replace(File.separatorChar, '/');
+                        manifest.put(FILE_PREFIX + relativePath, Long.toString(Files.size(file)));
+                    }
+                }
+            }
+            writeManifest(staging, manifest);
+
+            String name = INSTALLATION_PREFIX + staging.getFileName().toString().substring(STAGING_PREFIX.length());
+            Path installation = targetDir.resolve(name);
+            Files.move(staging, installation, StandardCopyOption.ATOMIC_MOVE);
+
+            Path tempFile = Files.createTempFile(targetDir, CURRENT, ".tmp");
+            Files.write(tempFile, name.getBytes(StandardCharsets.UTF_8));
+            IOUtils.move(tempFile, targetDir.resolve(CURRENT));
+
+            return installation;
+        } finally {
+            if (Files.exists(staging)) {
+                delete(staging);
+            }
+        }
+    }
+
+    private static void writeManifest(Path directory, Map<String, String> entries) throws IOException {
+        Properties manifest = new Properties();
+        manifest.putAll(entries);
+
+        try (OutputStream out = Files.newOutputStream(directory.resolve(MANIFEST))) {
+            manifest.store(out, null);
+        }
+    }
+
+    private static void delete(Path path) {
+        new DirCleaner(path).run();
+    }
+}
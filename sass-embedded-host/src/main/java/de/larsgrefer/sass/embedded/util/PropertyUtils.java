@@ -2,6 +2,7 @@ package de.larsgrefer.sass.embedded.util;
 
 import lombok.experimental.UtilityClass;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.Properties;
 
@@ -22,6 +23,16 @@ public class PropertyUtils {
         return properties.getProperty("dartSassVersion");
     }
 
+    /**
+     * @param packageSuffix The {@link PlatformUtils#getDartSassPackageSuffix() suffix} of a dart-sass release package.
+     * @return The SHA-256 checksum of the package of the {@link #getDartSassVersion() dart-sass version}, or
+     * {@code null} if it's unknown.
+     */
+    @Nullable
+    public String getDartSassSha256(String packageSuffix) {
+        return properties.getProperty("dartSassSha256." + packageSuffix);
+    }
+
     public String getEmbeddedProtocolVersion() {
         return properties.getProperty("embeddedProtocolVersion");
     }
@@ -0,0 +1,111 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest.StringInput;
+import com.sass_lang.embedded_protocol.Syntax;
+import de.larsgrefer.sass.embedded.functions.HostFunctionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompilationTimeoutTest {
+
+    private static final String ENDLESS_LOOP = "$i: 0; @while true { $i: $i + 1; } a { b: $i }";
+
+    private SassCompiler sassCompiler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sassCompiler = SassCompilerFactory.bundled();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sassCompiler.close();
+    }
+
+    @Test
+    void timeout() throws Exception {
+        CompileOptions options = sassCompiler.getCompileOptions().withTimeout(Duration.ofMillis(500));
+
+        assertThatThrownBy(() -> sassCompiler.compileString(scss(ENDLESS_LOOP), options))
+                .isInstanceOf(InterruptedIOException.class);
+
+        CompileSuccess compileSuccess = sassCompiler.compileString(scss("a { b: 1 + 2 }"), options);
+        assertThat(compileSuccess.getCss()).contains("b: 3");
+
+        // The process is replaced in the background.
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (sassCompiler.getRestartCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(sassCompiler.getRestartCount()).isEqualTo(1);
+    }
+
+    @Test
+    void otherCompilationsAreRetried() throws Exception {
+        ExecutorService callbackExecutor = Executors.newCachedThreadPool();
+        sassCompiler.setCallbackExecutor(callbackExecutor);
+
+        CountDownLatch called = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        sassCompiler.registerFunction(HostFunctionFactory.ofLambda("slow", () -> {
+            called.countDown();
+            release.await();
+            return "red";
+        }));
+
+        try {
+            CompletableFuture<CompileSuccess> other = sassCompiler.compileStringAsync(scss("a { color: slow() }"), sassCompiler.getCompileOptions());
+            assertThat(called.await(10, TimeUnit.SECONDS)).isTrue();
+
+            CompileOptions options = sassCompiler.getCompileOptions().withTimeout(Duration.ofMillis(500));
+            assertThatThrownBy(() -> sassCompiler.compileString(scss(ENDLESS_LOOP), options))
+                    .isInstanceOf(InterruptedIOException.class);
+
+            release.countDown();
+
+            assertThat(other.get(20, TimeUnit.SECONDS).getCss()).contains("red");
+        } finally {
+            callbackExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void asyncTimeout() throws Exception {
+        CompileOptions options = sassCompiler.getCompileOptions().withTimeout(Duration.ofMillis(500));
+
+        CompletableFuture<CompileSuccess> future = sassCompiler.compileStringAsync(scss(ENDLESS_LOOP), options);
+
+        assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(InterruptedIOException.class);
+
+        assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+    }
+
+    @Test
+    void cancel() throws Exception {
+        CompletableFuture<CompileSuccess> future = sassCompiler.compileStringAsync(scss(ENDLESS_LOOP), sassCompiler.getCompileOptions());
+
+        Thread.sleep(200);
+        assertThat(future.cancel(true)).isTrue();
+
+        assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+    }
+
+    private static StringInput scss(String source) {
+        return StringInput.newBuilder()
+                .setSource(source)
+                .setSyntax(Syntax.SCSS)
+                .build();
+    }
+}
@@ -0,0 +1,103 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest;
+import com.sass_lang.embedded_protocol.OutputStyle;
+import com.sass_lang.embedded_protocol.Syntax;
+import de.larsgrefer.sass.embedded.functions.HostFunctionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompileOptionsTest {
+
+    private SassCompiler sassCompiler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sassCompiler = SassCompilerFactory.bundled();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sassCompiler.close();
+    }
+
+    @Test
+    void requestTemplateIsBuiltOnce() {
+        CompileOptions options = CompileOptions.builder()
+                .outputStyle(OutputStyle.COMPRESSED)
+                .loadPath(new File("src/test/resources"))
+                .function(HostFunctionFactory.ofLambda("foo", () -> "bar"))
+                .build();
+
+        assertThat(options.getRequestTemplate()).isSameAs(options.getRequestTemplate());
+
+        CompileRequest request = options.newRequestBuilder().build();
+        assertThat(request.getStyle()).isEqualTo(OutputStyle.COMPRESSED);
+        assertThat(request.getImportersCount()).isEqualTo(1);
+        assertThat(request.getGlobalFunctionsList()).containsExactly("foo()");
+    }
+
+    @Test
+    void perCallOptions() throws Exception {
+        CompileOptions options = sassCompiler.getCompileOptions()
+                .withOutputStyle(OutputStyle.COMPRESSED)
+                .toBuilder()
+                .function(HostFunctionFactory.ofLambda("foo", () -> "red"))
+                .build();
+
+        CompileRequest.StringInput input = CompileRequest.StringInput.newBuilder()
+                .setSource("a { color: foo() }")
+                .setSyntax(Syntax.SCSS)
+                .build();
+
+        CompileSuccess compileSuccess = sassCompiler.compileString(input, options);
+
+        assertThat(compileSuccess.getCss()).startsWith("a{color:").contains("red");
+        assertThat(sassCompiler.getOutputStyle()).isEqualTo(OutputStyle.EXPANDED);
+        assertThat(sassCompiler.getCompileOptions().getFunctions()).isEmpty();
+    }
+
+    @Test
+    void settersReplaceOptions() {
+        CompileOptions before = sassCompiler.getCompileOptions();
+
+        sassCompiler.setGenerateSourceMaps(true);
+
+        assertThat(before.isGenerateSourceMaps()).isFalse();
+        assertThat(sassCompiler.isGenerateSourceMaps()).isTrue();
+        assertThat(sassCompiler.getCompileOptions()).isNotSameAs(before);
+    }
+
+    @Test
+    void addLoadPaths() {
+        File a = new File("a");
+        File b = new File("b");
+        File c = new File("c");
+
+        sassCompiler.addLoadPath(a);
+        sassCompiler.addLoadPaths(b, c);
+
+        assertThat(sassCompiler.getLoadPaths()).containsExactly(a, b, c);
+    }
+
+    @Test
+    void getLoadPathsWritesThrough() {
+        File a = new File("a");
+        File b = new File("b");
+        CompileOptions before = sassCompiler.getCompileOptions();
+
+        sassCompiler.getLoadPaths().add(a);
+        sassCompiler.getLoadPaths().add(b);
+        sassCompiler.getLoadPaths().remove(a);
+
+        assertThat(sassCompiler.getLoadPaths()).containsExactly(b);
+        assertThat(sassCompiler.getCompileOptions().getLoadPaths()).containsExactly(b);
+        assertThat(before.getLoadPaths()).isEmpty();
+    }
+}
@@ -0,0 +1,68 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompileSuccessTest {
+
+    private final CompileSuccess compileSuccess = new CompileSuccess(OutboundMessage.CompileResponse.newBuilder()
+            .setSuccess(OutboundMessage.CompileResponse.CompileSuccess.newBuilder()
+                    .setCss("a {\n  b: c;\n}")
+                    .setSourceMap("{\"version\":3}")
+            )
+            .build()
+    );
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writeToOutputStream() throws IOException {
+        ByteArrayOutputStream css = new ByteArrayOutputStream();
+        ByteArrayOutputStream sourceMap = new ByteArrayOutputStream();
+
+        compileSuccess.writeCssTo(css);
+        compileSuccess.writeSourceMapTo(sourceMap);
+
+        assertThat(css.toString("UTF-8")).isEqualTo(compileSuccess.getCss());
+        assertThat(sourceMap.toString("UTF-8")).isEqualTo(compileSuccess.getSourceMap());
+    }
+
+    @Test
+    void writeToChannel() throws IOException {
+        ByteArrayOutputStream css = new ByteArrayOutputStream();
+
+        compileSuccess.writeCssTo(Channels.newChannel(css));
+
+        assertThat(css.toString("UTF-8")).isEqualTo(compileSuccess.getCss());
+    }
+
+    @Test
+    void writeToFile() throws IOException {
+        Path css = tempDir.resolve("out/style.css");
+        Path sourceMap = tempDir.resolve("out/style.css.map");
+        Files.createDirectories(css.getParent());
+        Files.write(css, "old".getBytes(StandardCharsets.UTF_8));
+
+        compileSuccess.writeCssTo(css);
+        compileSuccess.writeSourceMapTo(sourceMap);
+
+        assertThat(new String(Files.readAllBytes(css), StandardCharsets.UTF_8)).isEqualTo(compileSuccess.getCss());
+        assertThat(new String(Files.readAllBytes(sourceMap), StandardCharsets.UTF_8)).isEqualTo(compileSuccess.getSourceMap());
+
+        try (Stream<Path> files = Files.list(css.getParent())) {
+            assertThat(files).hasSize(2);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.larsgrefer.sass.embedded;
+
+import de.larsgrefer.sass.embedded.functions.HostFunctionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentCompilationTest {
+
+    private SassCompiler sassCompiler;
+
+    private ExecutorService executorService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sassCompiler = SassCompilerFactory.bundled();
+        executorService = Executors.newFixedThreadPool(8);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        executorService.shutdownNow();
+        sassCompiler.close();
+    }
+
+    @Test
+    void parallelCompilations() throws Exception {
+        List<Future<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < 64; i++) {
+            int width = i;
+            results.add(executorService.submit(() -> sassCompiler.compileScssString(".foo { .bar { width: " + width + "px + 1px; } }").getCss()));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).get(30, TimeUnit.SECONDS)).contains("width: " + (i + 1) + "px");
+        }
+    }
+
+    @Test
+    void slowFunctionDoesNotBlockOtherCompilations() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        sassCompiler.registerFunction(HostFunctionFactory.ofLambda("waitForLatch", () -> {
+            if (!latch.await(30, TimeUnit.SECONDS)) {
+                throw new TimeoutException();
+            }
+            return "red";
+        }));
+
+        Future<CompileSuccess> slow = executorService.submit(() -> sassCompiler.compileScssString("a { color: waitForLatch() }"));
+
+        CompileSuccess fast = executorService.submit(() -> sassCompiler.compileScssString("b { color: blue }"))
+                .get(10, TimeUnit.SECONDS);
+        assertThat(fast.getCss()).contains("blue");
+        assertThat(slow).isNotDone();
+
+        latch.countDown();
+
+        assertThat(slow.get(10, TimeUnit.SECONDS).getCss()).contains("red");
+    }
+}
@@ -0,0 +1,113 @@
+package de.larsgrefer.sass.embedded;
+
+import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
+import de.larsgrefer.sass.embedded.connection.ProcessConnection;
+import de.larsgrefer.sass.embedded.functions.HostFunctionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CrashRecoveryTest {
+
+    private final List<ProcessConnection> connections = new CopyOnWriteArrayList<>();
+
+    @Test
+    void interruptedCompilationIsRunAgain() throws Exception {
+        try (SassCompiler sassCompiler = new SassCompiler(this::connect)) {
+            registerCrashingFunction(sassCompiler);
+
+            assertThat(sassCompiler.compileScssString("a { b: crash() }").getCss()).contains("b: 1");
+
+            assertThat(sassCompiler.getCrashCount()).isEqualTo(1);
+            assertThat(sassCompiler.getRestartCount()).isEqualTo(1);
+            assertThat(connections).hasSize(2);
+            assertThat(connections.get(0).isAlive()).isFalse();
+            assertThat(connections.get(1).isAlive()).isTrue();
+        }
+    }
+
+    @Test
+    void interruptedAsyncCompilationIsRunAgain() throws Exception {
+        try (SassCompiler sassCompiler = new SassCompiler(this::connect)) {
+            registerCrashingFunction(sassCompiler);
+
+            CompletableFuture<CompileSuccess> future = sassCompiler.compileScssStringAsync("a { b: crash() }");
+
+            assertThat(future.get(30, TimeUnit.SECONDS).getCss()).contains("b: 1");
+            assertThat(sassCompiler.getCrashCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void idleCrashIsNoticedOnNextCompilation() throws Exception {
+        try (SassCompiler sassCompiler = new SassCompiler(this::connect)) {
+            assertThat(sassCompiler.compileScssString("a { b: 1 + 1 }").getCss()).contains("b: 2");
+
+            connections.get(0).close();
+
+            assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+            assertThat(sassCompiler.getCrashCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void closeIsNotBlockedByTheRestartBackOff() throws Exception {
+        SassCompiler sassCompiler = new SassCompiler(() -> {
+            ProcessConnection connection = connect();
+            connection.close();
+            return connection;
+        });
+
+        AtomicBoolean closed = new AtomicBoolean();
+        Thread compiler = new Thread(() -> {
+            while (!closed.get()) {
+                try {
+                    sassCompiler.compileScssString("a { b: 1 + 1 }");
+                } catch (Exception e) {
+                    // Expected, the compiler keeps crashing.
+                }
+            }
+        });
+        compiler.setDaemon(true);
+        compiler.start();
+
+        // The restart after the fifth crash is delayed by 800ms.
+        while (sassCompiler.getCrashCount() < 5) {
+            Thread.sleep(10);
+        }
+
+        long start = System.nanoTime();
+        sassCompiler.close();
+        closed.set(true);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(400);
+
+        compiler.join(10_000);
+        assertThat(compiler.isAlive()).isFalse();
+    }
+
+    private ProcessConnection connect() throws IOException {
+        ProcessConnection connection = ConnectionFactory.bundled();
+        connections.add(connection);
+        return connection;
+    }
+
+    /**
+     * Registers a function which kills the compiler the first time it's called.
+     */
+    private void registerCrashingFunction(SassCompiler sassCompiler) {
+        AtomicBoolean crashed = new AtomicBoolean();
+        sassCompiler.registerFunction(HostFunctionFactory.ofLambda("crash", () -> {
+            if (crashed.compareAndSet(false, true)) {
+                connections.get(0).close();
+            }
+            return 1;
+        }));
+    }
+}
@@ -7,6 +7,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class NestedCompilationTest {
 
@@ -39,4 +45,38 @@ public class NestedCompilationTest {
 
         System.out.println(compileSuccess.getCss());
     }
+
+    @Test
+    void nestedCompilationOnCallbackExecutor() throws SassCompilationFailedException, IOException {
+        ExecutorService callbackExecutor = Executors.newCachedThreadPool();
+        sassCompiler.setCallbackExecutor(callbackExecutor);
+
+        try {
+            HostFunction dummyFunction = HostFunctionFactory.ofLambda("dummy", () -> {
+                assertThat(Thread.currentThread().getName()).startsWith("pool-");
+                return sassCompiler.compileScssString("a {b: 1+2}").getCss();
+            });
+
+            sassCompiler.registerFunction(dummyFunction);
+
+            CompileSuccess compileSuccess = sassCompiler.compileScssString("body { color: dummy()}");
+
+            assertThat(compileSuccess.getCss()).contains("b: 3");
+        } finally {
+            callbackExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectedCallback() {
+        sassCompiler.setCallbackExecutor(runnable -> {
+            throw new RejectedExecutionException("test");
+        });
+
+        sassCompiler.registerFunction(HostFunctionFactory.ofLambda("dummy", () -> "red"));
+
+        assertThatThrownBy(() -> sassCompiler.compileScssString("body { color: dummy()}"))
+                .isInstanceOf(IOException.class)
+                .hasRootCauseInstanceOf(RejectedExecutionException.class);
+    }
 }
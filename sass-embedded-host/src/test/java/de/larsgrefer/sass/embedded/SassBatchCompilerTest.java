@@ -0,0 +1,71 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest.StringInput;
+import com.sass_lang.embedded_protocol.Syntax;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SassBatchCompilerTest {
+
+    private SassCompilerPool pool;
+
+    private SassBatchCompiler batchCompiler;
+
+    @BeforeEach
+    void setUp() {
+        pool = new SassCompilerPool();
+        pool.setMaxSize(2);
+        batchCompiler = new SassBatchCompiler(pool);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void compileStrings() throws IOException {
+        List<StringInput> inputs = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            inputs.add(StringInput.newBuilder()
+                    .setSource(".a" + i + " { width: " + i + "px * 2 }")
+                    .setSyntax(Syntax.SCSS)
+                    .build());
+        }
+
+        SassBatchCompiler.Result<StringInput> result = batchCompiler.compileStrings(inputs);
+
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getEntries()).hasSize(20);
+        for (int i = 0; i < 20; i++) {
+            assertThat(result.getEntries().get(i).getCompileSuccess().getCss()).contains("width: " + (i * 2) + "px");
+        }
+    }
+
+    @Test
+    void partialFailure() throws IOException {
+        List<File> files = Arrays.asList(
+                new File("src/test/resources/foo/bar.scss"),
+                new File("src/test/resources/foo/missing.scss")
+        );
+
+        SassBatchCompiler.Result<File> result = batchCompiler.compileFiles(files);
+
+        assertThat(result.isSuccessful()).isFalse();
+        assertThat(result.getSuccesses()).hasSize(1);
+        assertThat(result.getFailures()).hasSize(1);
+
+        SassBatchCompiler.Entry<File> failure = result.getFailures().get(0);
+        assertThat(failure.getInput()).isEqualTo(files.get(1));
+        assertThat(failure.getFailure()).isInstanceOf(SassCompilationFailedException.class);
+    }
+}
@@ -1,10 +1,12 @@
 package de.larsgrefer.sass.embedded;
 
 import com.sass_lang.embedded_protocol.OutboundMessage;
+import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
 import de.larsgrefer.sass.embedded.util.PropertyUtils;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -20,6 +22,33 @@ class SassCompilerFactoryTest {
         testCompiler(SassCompilerFactory.downloaded());
     }
 
+    @Test
+    void bundledAsync() throws Exception {
+        try (SassCompiler sassCompiler = SassCompilerFactory.bundledAsync().get(30, TimeUnit.SECONDS)) {
+            assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+            testCompiler(sassCompiler);
+        }
+    }
+
+    @Test
+    void lazy() throws IOException {
+        int[] connections = new int[1];
+
+        SassCompiler sassCompiler = SassCompilerFactory.lazy(() -> {
+            connections[0]++;
+            return ConnectionFactory.bundled();
+        });
+
+        try {
+            assertThat(connections[0]).isEqualTo(0);
+            testCompiler(sassCompiler);
+            testCompiler(sassCompiler);
+            assertThat(connections[0]).isEqualTo(1);
+        } finally {
+            sassCompiler.close();
+        }
+    }
+
     private static void testCompiler(SassCompiler bundled) throws IOException {
         OutboundMessage.VersionResponse version = bundled.getVersion();
 
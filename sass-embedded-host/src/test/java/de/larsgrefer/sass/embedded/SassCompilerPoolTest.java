@@ -0,0 +1,240 @@
+package de.larsgrefer.sass.embedded;
+
+import com.sass_lang.embedded_protocol.OutputStyle;
+import de.larsgrefer.sass.embedded.cache.CompilationCache;
+import de.larsgrefer.sass.embedded.connection.CompilerConnection;
+import de.larsgrefer.sass.embedded.connection.ConnectionFactory;
+import de.larsgrefer.sass.embedded.logging.LoggingHandler;
+import de.larsgrefer.sass.embedded.logging.Slf4jLoggingHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SassCompilerPoolTest {
+
+    private SassCompilerPool pool;
+
+    @BeforeEach
+    void setUp() {
+        pool = new SassCompilerPool();
+        pool.setMinSize(0);
+        pool.setMaxSize(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void leaseReusesCompilers() throws Exception {
+        SassCompiler first;
+        try (SassCompiler sassCompiler = pool.lease()) {
+            first = sassCompiler;
+            assertThat(sassCompiler.compileScssString("a { b: c }").getCss()).contains("b: c");
+        }
+
+        try (SassCompiler sassCompiler = pool.lease()) {
+            assertThat(sassCompiler).isSameAs(first);
+            assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+        }
+
+        assertThat(pool.getSize()).isEqualTo(1);
+        assertThat(pool.getIdleCount()).isEqualTo(1);
+    }
+
+    @Test
+    void leaseTimeout() throws Exception {
+        pool.setLeaseTimeout(Duration.ofMillis(100));
+
+        try (SassCompiler a = pool.lease(); SassCompiler b = pool.lease()) {
+            assertThat(a).isNotSameAs(b);
+            assertThrows(InterruptedIOException.class, () -> pool.lease());
+        }
+    }
+
+    @Test
+    void settingsAreRestoredOnRelease() throws Exception {
+        LoggingHandler loggingHandler = new Slf4jLoggingHandler(LoggerFactory.getLogger(SassCompilerPoolTest.class));
+        CompilationCache compilationCache = new CompilationCache();
+        pool.setCompilerCustomizer(sassCompiler -> sassCompiler.setLoggingHandler(loggingHandler));
+
+        Executor asyncExecutor;
+        Executor callbackExecutor;
+        try (SassCompiler sassCompiler = pool.lease()) {
+            sassCompiler.compileScssString("a { b: c }");
+            asyncExecutor = sassCompiler.getAsyncExecutor();
+            callbackExecutor = sassCompiler.getCallbackExecutor();
+
+            sassCompiler.setLoggingHandler(logEvent -> {
+            });
+            sassCompiler.setCompilationCache(compilationCache);
+            sassCompiler.setAsyncExecutor(Runnable::run);
+            sassCompiler.setCallbackExecutor(runnable -> new Thread(runnable).start());
+        }
+
+        try (SassCompiler sassCompiler = pool.lease()) {
+            assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+            assertThat(sassCompiler.getLoggingHandler()).isSameAs(loggingHandler);
+            assertThat(sassCompiler.getCompilationCache()).isNull();
+            assertThat(sassCompiler.getAsyncExecutor()).isSameAs(asyncExecutor);
+            assertThat(sassCompiler.getCallbackExecutor()).isSameAs(callbackExecutor);
+        }
+    }
+
+    @Test
+    void recycling() throws Exception {
+        pool.setMaxCompilationsPerCompiler(2);
+
+        SassCompiler first = pool.lease();
+        first.compileScssString("a { b: c }");
+        first.compileScssString("a { b: c }");
+        first.close();
+
+        try (SassCompiler second = pool.lease()) {
+            assertThat(second.getCompilationCount()).isZero();
+        }
+        assertThat(pool.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    void useAfterClose() throws Exception {
+        pool.setMaxSize(1);
+
+        SassCompiler first = pool.lease();
+        first.close();
+
+        assertThrows(IllegalStateException.class, () -> first.compileScssString("a { b: c }"));
+        assertThrows(IllegalStateException.class, () -> first.compileScssStringAsync("a { b: c }"));
+        assertThrows(IllegalStateException.class, () -> first.setOutputStyle(OutputStyle.COMPRESSED));
+        assertThrows(IllegalStateException.class, () -> first.setLoggingHandler(logEvent -> {
+        }));
+        assertThrows(IllegalStateException.class, first::getCompileOptions);
+        assertThrows(IllegalStateException.class, first::getVersion);
+
+        // Closing again does not return the compiler a second time.
+        first.close();
+        assertThat(pool.getIdleCount()).isEqualTo(1);
+
+        try (SassCompiler second = pool.lease()) {
+            assertThat(second.getOutputStyle()).isEqualTo(OutputStyle.EXPANDED);
+            assertThat(second.compileScssString("a { b: c }").getCss()).contains("b: c");
+        }
+    }
+
+    @Test
+    void concurrentCloseReturnsTheCompilerOnce() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 100; round++) {
+                SassCompiler sassCompiler = pool.lease();
+                CountDownLatch start = new CountDownLatch(1);
+
+                List<Future<?>> closes = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    closes.add(executorService.submit(() -> {
+                        start.await();
+                        sassCompiler.close();
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (Future<?> close : closes) {
+                    close.get(10, TimeUnit.SECONDS);
+                }
+
+                assertThat(pool.getIdleCount()).isEqualTo(1);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentLeases() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executorService.submit(() -> {
+                    try (SassCompiler sassCompiler = pool.lease()) {
+                        return sassCompiler.compileScssString("a { b: 1 + 2 }").getCss();
+                    }
+                }));
+            }
+
+            for (Future<String> result : results) {
+                assertThat(result.get(30, TimeUnit.SECONDS)).contains("b: 3");
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertThat(pool.getSize()).isLessThanOrEqualTo(2);
+    }
+
+    @Test
+    void idleEviction() throws Exception {
+        pool.setIdleTimeout(Duration.ZERO);
+
+        pool.lease().close();
+        assertThat(pool.getSize()).isEqualTo(1);
+
+        Thread.sleep(10);
+        pool.maintain();
+
+        assertThat(pool.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    void deadCompilersAreRemoved() throws Exception {
+        List<CompilerConnection> connections = new ArrayList<>();
+        pool.close();
+        pool = new SassCompilerPool(() -> {
+            CompilerConnection connection = ConnectionFactory.bundled();
+            connections.add(connection);
+            return connection;
+        });
+        pool.setMinSize(0);
+
+        pool.lease().close();
+        connections.get(0).close();
+
+        pool.maintain();
+
+        assertThat(pool.getSize()).isEqualTo(0);
+        assertThat(connections).hasSize(1);
+    }
+
+    @Test
+    void healthyCompilersStayIdleAfterTheHealthCheck() throws Exception {
+        pool.setHealthCheckInterval(Duration.ZERO);
+
+        try (SassCompiler sassCompiler = pool.lease()) {
+            sassCompiler.compileScssString("a { b: c }");
+        }
+
+        pool.maintain();
+
+        assertThat(pool.getSize()).isEqualTo(1);
+        assertThat(pool.getIdleCount()).isEqualTo(1);
+        try (SassCompiler sassCompiler = pool.lease()) {
+            assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+        }
+    }
+}
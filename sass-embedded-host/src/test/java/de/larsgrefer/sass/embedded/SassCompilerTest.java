@@ -16,6 +16,9 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static de.larsgrefer.sass.embedded.BootstrapUtil.getBoostrapVersion;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -153,4 +156,27 @@ class SassCompilerTest {
         System.out.println(compileSuccess1.getSourceMap());
     }
 
-}
\ No newline at end of file
+    @Test
+    void compileStringAsync() throws Exception {
+        CompletableFuture<CompileSuccess> future = sassCompiler.compileScssStringAsync(".foo { .bar { color : #ffffff;}}");
+
+        assertThat(future.get(10, TimeUnit.SECONDS).getCss()).contains(".foo .bar");
+    }
+
+    @Test
+    void compileFileAsync() throws Exception {
+        CompletableFuture<CompileSuccess> future = sassCompiler.compileFileAsync(new File("src/test/resources/foo/bar.scss"), OutputStyle.COMPRESSED);
+
+        assertThat(future.get(10, TimeUnit.SECONDS).getCss()).contains("color:red");
+    }
+
+    @Test
+    void compileStringAsync_error() {
+        CompletableFuture<CompileSuccess> future = sassCompiler.compileScssStringAsync(".foo { .bar { color : ");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+
+        assertThat(e.getCause()).isInstanceOf(SassCompilationFailedException.class);
+    }
+
+}
@@ -0,0 +1,131 @@
+package de.larsgrefer.sass.embedded;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SassWatcherTest {
+
+    private SassCompiler sassCompiler;
+
+    private SassWatcher sassWatcher;
+
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sassCompiler = SassCompilerFactory.bundled();
+        sassWatcher = new SassWatcher(sassCompiler, new SassWatcher.Listener() {
+            @Override
+            public void onSuccess(File entrypoint, CompileSuccess compileSuccess) {
+                results.add(entrypoint.getName() + ": " + compileSuccess.getCss());
+            }
+
+            @Override
+            public void onFailure(File entrypoint, Throwable failure) {
+                results.add(entrypoint.getName() + ": " + failure);
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sassWatcher.close();
+        sassCompiler.close();
+    }
+
+    @Test
+    void onlyAffectedEntrypointsAreRecompiled() throws Exception {
+        Path partial = write("_colors.scss", "$main: red;");
+        File a = write("a.scss", "@use 'colors'; a { color: colors.$main }").toFile();
+        File b = write("b.scss", "b { color: green }").toFile();
+
+        sassWatcher.addEntrypoint(a);
+        sassWatcher.addEntrypoint(b);
+
+        assertThat(results.poll(10, TimeUnit.SECONDS)).isNotNull();
+        assertThat(results.poll(10, TimeUnit.SECONDS)).isNotNull();
+
+        assertThat(sassWatcher.getDependents(partial.toFile())).containsExactly(a.getAbsoluteFile());
+
+        // Wait for the watch keys to be effective.
+        Thread.sleep(100);
+        write("_colors.scss", "$main: blue;");
+
+        String result = results.poll(10, TimeUnit.SECONDS);
+        assertThat(result).startsWith("a.scss: ").contains("blue");
+        assertThat(results.poll(500, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void brokenEntrypointIsRetriedAfterFix() throws Exception {
+        File a = write("a.scss", "a { color: }").toFile();
+
+        sassWatcher.addEntrypoint(a);
+        assertThat(results.poll(10, TimeUnit.SECONDS)).contains("SassCompilationFailedException");
+
+        Thread.sleep(100);
+        write("a.scss", "a { color: red }");
+
+        assertThat(results.poll(10, TimeUnit.SECONDS)).startsWith("a.scss: ").contains("red");
+    }
+
+    @Test
+    void brokenPartialIsRetriedAfterFix() throws Exception {
+        write("_colors.scss", "$main: ;");
+        File a = write("a.scss", "@use 'colors'; a { color: colors.$main }").toFile();
+
+        sassWatcher.addEntrypoint(a);
+        assertThat(results.poll(10, TimeUnit.SECONDS)).contains("SassCompilationFailedException");
+
+        Thread.sleep(100);
+        write("_colors.scss", "$main: red;");
+
+        assertThat(results.poll(10, TimeUnit.SECONDS)).startsWith("a.scss: ").contains("red");
+    }
+
+    @Test
+    void recreatedDirectoryIsWatchedAgain() throws Exception {
+        Files.createDirectory(tempDir.resolve("theme"));
+        Path partial = write("theme/_colors.scss", "$main: red;");
+        File a = write("a.scss", "@use 'theme/colors'; a { color: colors.$main }").toFile();
+
+        sassWatcher.addEntrypoint(a);
+        assertThat(results.poll(10, TimeUnit.SECONDS)).contains("red");
+
+        Thread.sleep(100);
+        Files.delete(partial);
+        Files.delete(partial.getParent());
+        assertThat(results.poll(10, TimeUnit.SECONDS)).contains("SassCompilationFailedException");
+
+        Thread.sleep(100);
+        Files.createDirectory(tempDir.resolve("theme"));
+        write("theme/_colors.scss", "$main: blue;");
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        String result = null;
+        while (System.nanoTime() < end && (result == null || !result.contains("blue"))) {
+            result = results.poll(100, TimeUnit.MILLISECONDS);
+        }
+        assertThat(result).startsWith("a.scss: ").contains("blue");
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(tempDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,302 @@
+package de.larsgrefer.sass.embedded.cache;
+
+import de.larsgrefer.sass.embedded.CompileSuccess;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import de.larsgrefer.sass.embedded.SassCompilerFactory;
+import de.larsgrefer.sass.embedded.functions.HostFunctionFactory;
+import de.larsgrefer.sass.embedded.importer.FileImporter;
+import de.larsgrefer.sass.embedded.importer.Importer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompilationCacheTest {
+
+    private SassCompiler sassCompiler;
+
+    private MemoryCacheTier memoryTier;
+
+    private CompilationCache cache;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sassCompiler = SassCompilerFactory.bundled();
+        memoryTier = new MemoryCacheTier();
+        cache = new CompilationCache(memoryTier);
+        sassCompiler.setCompilationCache(cache);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sassCompiler.close();
+    }
+
+    @Test
+    void hitAndInvalidation() throws Exception {
+        Path partial = write("_colors.scss", "$main: red;");
+        File main = write("main.scss", "@use 'colors'; a { color: colors.$main }").toFile();
+
+        CompileSuccess first = sassCompiler.compileFile(main);
+        CompileSuccess second = sassCompiler.compileFile(main);
+
+        assertThat(second.getCss()).isEqualTo(first.getCss());
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+
+        write("_colors.scss", "$main: blue;");
+        Files.setLastModifiedTime(partial, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+
+        CompileSuccess third = sassCompiler.compileFile(main);
+
+        assertThat(third.getCss()).contains("blue");
+        assertThat(cache.getInvalidationCount()).isEqualTo(1);
+        assertThat(sassCompiler.getCompilationCount()).isEqualTo(2);
+    }
+
+    @Test
+    void urlCompilationsBypassTheCache() throws Exception {
+        Path jar = tempDir.resolve("styles.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("main.scss"));
+            out.write("a { b: 1 + 1 }".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        URL url = new URL("jar:" + jar.toUri() + "!/main.scss");
+
+        assertThat(sassCompiler.compile(url).getCss()).contains("b: 2");
+        assertThat(sassCompiler.compileAsync(url).get().getCss()).contains("b: 2");
+
+        assertThat(cache.getHitCount()).isEqualTo(0);
+        assertThat(cache.getMissCount()).isEqualTo(0);
+        assertThat(memoryTier.size()).isEqualTo(0);
+    }
+
+    @Test
+    void fileFingerprintsAreBounded() throws Exception {
+        cache.setMaxFileFingerprints(1);
+
+        write("_a.scss", "$a: red;");
+        write("_b.scss", "$b: blue;");
+        File main = write("main.scss", "@use 'a'; @use 'b'; x { color: a.$a; background: b.$b }").toFile();
+
+        sassCompiler.compileFile(main);
+        CompileSuccess second = sassCompiler.compileFile(main);
+
+        assertThat(second.getCss()).contains("red", "blue");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+    }
+
+    @Test
+    void differentOptionsAreDifferentEntries() throws Exception {
+        sassCompiler.compileScssString("a { b: c }");
+        sassCompiler.setGenerateSourceMaps(true);
+        sassCompiler.compileScssString("a { b: c }");
+
+        assertThat(cache.getHitCount()).isEqualTo(0);
+        assertThat(memoryTier.size()).isEqualTo(2);
+    }
+
+    @Test
+    void lruEviction() throws Exception {
+        memoryTier.setMaxEntries(2);
+
+        sassCompiler.compileScssString("a { b: 1 }");
+        sassCompiler.compileScssString("a { b: 2 }");
+        sassCompiler.compileScssString("a { b: 1 }");
+        sassCompiler.compileScssString("a { b: 3 }");
+
+        assertThat(memoryTier.size()).isEqualTo(2);
+        assertThat(memoryTier.getEvictionCount()).isEqualTo(1);
+
+        sassCompiler.compileScssString("a { b: 1 }");
+        assertThat(cache.getHitCount()).isEqualTo(2);
+    }
+
+    @Test
+    void diskTierSurvivesRestart() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+        File main = write("main.scss", "a { b: 1 + 2 }").toFile();
+
+        sassCompiler.setCompilationCache(new CompilationCache(new MemoryCacheTier(), new DiskCacheTier(cacheDir)));
+        CompileSuccess first = sassCompiler.compileFile(main);
+
+        // A new cache simulates a restarted application.
+        MemoryCacheTier newMemoryTier = new MemoryCacheTier();
+        CompilationCache newCache = new CompilationCache(newMemoryTier, new DiskCacheTier(cacheDir));
+        sassCompiler.setCompilationCache(newCache);
+
+        CompileSuccess second = sassCompiler.compileFile(main);
+
+        assertThat(second.getCss()).isEqualTo(first.getCss());
+        assertThat(newCache.getHitCount()).isEqualTo(1);
+        assertThat(newMemoryTier.size()).isEqualTo(1);
+        assertThat(sassCompiler.getCompilationCount()).isEqualTo(1);
+    }
+
+    @Test
+    void otherCompilerVersionsDontShareEntries() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+
+        sassCompiler.setCompilationCache(new CompilationCache(new DiskCacheTier(cacheDir)));
+        sassCompiler.compileScssString("a { b: 1 + 2 }");
+
+        // Simulates a restart after an upgrade of dart-sass.
+        CompilationCache upgradedCache = new CompilationCache(new DiskCacheTier(cacheDir));
+        upgradedCache.setCompilerIdentity(upgradedCache.getCompilerIdentity() + "-next");
+        sassCompiler.setCompilationCache(upgradedCache);
+        sassCompiler.compileScssString("a { b: 1 + 2 }");
+
+        assertThat(upgradedCache.getHitCount()).isEqualTo(0);
+        assertThat(sassCompiler.getCompilationCount()).isEqualTo(2);
+    }
+
+    @Test
+    void importerCompilationsAreNotPersisted() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+        Path red = Files.createDirectories(tempDir.resolve("red"));
+        Path blue = Files.createDirectories(tempDir.resolve("blue"));
+        Files.write(red.resolve("_theme.scss"), "$color: red;".getBytes(StandardCharsets.UTF_8));
+        Files.write(blue.resolve("_theme.scss"), "$color: blue;".getBytes(StandardCharsets.UTF_8));
+        String scss = "@use 'theme'; a { color: theme.$color }";
+
+        AtomicInteger idCounter = importerIdCounter();
+        int firstId = idCounter.get();
+
+        sassCompiler.setCompilationCache(new CompilationCache(new DiskCacheTier(cacheDir)));
+        sassCompiler.registerImporter(directoryImporter(red));
+        sassCompiler.registerImporter(directoryImporter(blue));
+
+        assertThat(sassCompiler.compileScssString(scss).getCss()).contains("red");
+
+        // Simulates a restart, which reuses the importer ids for importers created in a different order.
+        sassCompiler.close();
+        idCounter.set(firstId);
+
+        sassCompiler = SassCompilerFactory.bundled();
+        CompilationCache restartedCache = new CompilationCache(new DiskCacheTier(cacheDir));
+        sassCompiler.setCompilationCache(restartedCache);
+        sassCompiler.registerImporter(directoryImporter(blue));
+        sassCompiler.registerImporter(directoryImporter(red));
+
+        assertThat(sassCompiler.compileScssString(scss).getCss()).contains("blue");
+        assertThat(restartedCache.getHitCount()).isEqualTo(0);
+
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void functionCompilationsAreNotPersisted() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+        String scss = "a { color: themeColor() }";
+
+        sassCompiler.setCompilationCache(new CompilationCache(new DiskCacheTier(cacheDir)));
+        sassCompiler.registerFunction(HostFunctionFactory.ofLambda("themeColor", () -> "red"));
+
+        assertThat(sassCompiler.compileScssString(scss).getCss()).contains("red");
+
+        // Simulates a deployment, which changes the implementation of the function, but not its signature.
+        sassCompiler.close();
+        sassCompiler = SassCompilerFactory.bundled();
+        CompilationCache restartedCache = new CompilationCache(new DiskCacheTier(cacheDir));
+        sassCompiler.setCompilationCache(restartedCache);
+        sassCompiler.registerFunction(HostFunctionFactory.ofLambda("themeColor", () -> "blue"));
+
+        assertThat(sassCompiler.compileScssString(scss).getCss()).contains("blue");
+        assertThat(restartedCache.getHitCount()).isEqualTo(0);
+
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void corruptDiskEntriesAreDropped() throws Exception {
+        Path cacheDir = tempDir.resolve("cache");
+        DiskCacheTier diskTier = new DiskCacheTier(cacheDir);
+        CompilationCache diskCache = new CompilationCache(diskTier);
+        sassCompiler.setCompilationCache(diskCache);
+
+        sassCompiler.compileScssString("a { b: 1 + 2 }");
+
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                byte[] bytes = Files.readAllBytes(file);
+                bytes[bytes.length - 1] ^= 1;
+                Files.write(file, bytes);
+            }
+        }
+
+        assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+        assertThat(diskCache.getHitCount()).isEqualTo(0);
+        assertThat(sassCompiler.getCompilationCount()).isEqualTo(2);
+    }
+
+    @Test
+    void diskTierSizeLimit() throws Exception {
+        DiskCacheTier diskTier = new DiskCacheTier(tempDir.resolve("cache"));
+        diskTier.setMaxBytes(1000);
+        sassCompiler.setCompilationCache(new CompilationCache(diskTier));
+
+        for (int i = 0; i < 20; i++) {
+            sassCompiler.compileScssString(".a" + i + " { b: " + i + " }");
+        }
+
+        assertThat(diskTier.getCurrentBytes()).isLessThanOrEqualTo(1000);
+    }
+
+    @Test
+    void onlyStaleTempFilesAreDeleted() throws Exception {
+        Path cacheDir = Files.createDirectories(tempDir.resolve("cache"));
+        Path stale = Files.write(cacheDir.resolve("stale.tmp"), new byte[1]);
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        Path inProgress = Files.write(cacheDir.resolve("in-progress.tmp"), new byte[1]);
+
+        new DiskCacheTier(cacheDir);
+
+        assertThat(stale).doesNotExist();
+        assertThat(inProgress).exists();
+    }
+
+    private static FileImporter directoryImporter(Path directory) {
+        return new FileImporter() {
+            @Override
+            public File handleImport(String url, boolean fromImport) {
+                return directory.resolve(url).toFile();
+            }
+        };
+    }
+
+    private static AtomicInteger importerIdCounter() throws ReflectiveOperationException {
+        Field field = Importer.class.getDeclaredField("idCounter");
+        field.setAccessible(true);
+        return (AtomicInteger) field.get(null);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(tempDir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
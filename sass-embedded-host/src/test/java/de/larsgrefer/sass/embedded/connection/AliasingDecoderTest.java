@@ -0,0 +1,57 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage.CompileResponse;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AliasingDecoderTest {
+
+    @Test
+    void compileSuccessIsAliased() throws Exception {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            css.append(".a").append(i).append(" { b: c; }\n");
+        }
+
+        OutboundMessage message = OutboundMessage.newBuilder()
+                .setCompileResponse(CompileResponse.newBuilder()
+                        .setSuccess(CompileResponse.CompileSuccess.newBuilder()
+                                .setCss(css.toString())
+                                .setSourceMap("{\"version\":3}"))
+                        .addLoadedUrls("file:///a.scss")
+                        .addLoadedUrls("file:///_b.scss"))
+                .build();
+
+        Packet<OutboundMessage> packet = new Packet<>(42, message);
+        byte[] buffer = new byte[packet.getDelimitedSize()];
+        packet.writeDelimitedTo(buffer, 0);
+
+        int prefixLength = buffer.length - packet.getSerializedSize();
+        Packet<OutboundMessage> decoded = AliasingDecoder.parse(buffer, prefixLength, packet.getSerializedSize());
+
+        // Changing the frame changes the decoded css, so it has not been copied.
+        // (This has to be checked first, because getCss() replaces the aliased bytes with a decoded String.)
+        int cssStart = new String(buffer, "ISO-8859-1").indexOf(".a0");
+        buffer[cssStart + 1] = 'x';
+        assertThat(decoded.getMessage().getCompileResponse().getSuccess().getCssBytes().toStringUtf8()).startsWith(".x0");
+        buffer[cssStart + 1] = 'a';
+
+        assertThat(decoded).isEqualTo(packet);
+    }
+
+    @Test
+    void otherMessages() throws Exception {
+        OutboundMessage message = OutboundMessage.newBuilder()
+                .setLogEvent(OutboundMessage.LogEvent.newBuilder().setMessage("Hello"))
+                .build();
+
+        Packet<OutboundMessage> packet = new Packet<>(1, message);
+        byte[] buffer = new byte[packet.getDelimitedSize()];
+        packet.writeDelimitedTo(buffer, 0);
+
+        int prefixLength = buffer.length - packet.getSerializedSize();
+        assertThat(AliasingDecoder.parse(buffer, prefixLength, packet.getSerializedSize())).isEqualTo(packet);
+    }
+}
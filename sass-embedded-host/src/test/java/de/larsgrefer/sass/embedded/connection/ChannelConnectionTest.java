@@ -0,0 +1,222 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import de.larsgrefer.sass.embedded.CompileSuccess;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChannelConnectionTest {
+
+    private ConnectionSelector selector;
+
+    private final List<ProcessConnection> processConnections = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        selector = new ConnectionSelector();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        selector.close();
+        for (ProcessConnection processConnection : processConnections) {
+            processConnection.close();
+        }
+    }
+
+    @Test
+    void fragmentedPackets() throws Exception {
+        Pipe pipe = Pipe.open();
+        ChannelConnection connection = new ChannelConnection(pipe.source(), Channels.newChannel(new ByteArrayOutputStream()), selector);
+        WireStatistics statistics = new WireStatistics();
+        connection.setWireListener(statistics);
+
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            css.append(".a").append(i).append(" { b: c }\n");
+        }
+
+        Packet<OutboundMessage> small = packet(1, "a { b: c }");
+        Packet<OutboundMessage> large = packet(2, css.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        small.writeDelimitedTo(bytes);
+        large.writeDelimitedTo(bytes);
+        small.writeDelimitedTo(bytes);
+
+        byte[] data = bytes.toByteArray();
+        for (int offset = 0; offset < data.length; offset += 7) {
+            pipe.sink().write(ByteBuffer.wrap(data, offset, Math.min(7, data.length - offset)));
+            if (offset < 100) {
+                // Make sure the length prefix arrives in separate reads.
+                Thread.sleep(1);
+            }
+        }
+        pipe.sink().close();
+
+        assertThat(connection.readResponse()).isEqualTo(small);
+        assertThat(connection.readResponse()).isEqualTo(large);
+        assertThat(connection.readResponse()).isEqualTo(small);
+        assertThrows(IOException.class, connection::readResponse);
+
+        assertThat(statistics.getReceivedMessages(OutboundMessage.MessageCase.COMPILE_RESPONSE)).isEqualTo(3);
+        assertThat(statistics.getTotalReceivedBytes()).isEqualTo(data.length);
+    }
+
+    @Test
+    void receiveTimeStartsAtTheLengthPrefix() throws Exception {
+        Pipe pipe = Pipe.open();
+        ChannelConnection connection = new ChannelConnection(pipe.source(), Channels.newChannel(new ByteArrayOutputStream()), selector);
+        List<Long> durations = new ArrayList<>();
+        connection.setWireListener(new WireListener() {
+            @Override
+            public void onReceived(Packet<OutboundMessage> packet, int size, long startNanos, long endNanos) {
+                durations.add(endNanos - startNanos);
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        packet(1, "a { b: c }").writeDelimitedTo(bytes);
+        byte[] data = bytes.toByteArray();
+
+        // The frame arrives in two parts.
+        pipe.sink().write(ByteBuffer.wrap(data, 0, 5));
+        Thread.sleep(100);
+        pipe.sink().write(ByteBuffer.wrap(data, 5, data.length - 5));
+
+        assertThat(connection.readResponse().getCompilationId()).isEqualTo(1);
+        assertThat(durations).hasSize(1);
+        assertThat(durations.get(0)).isGreaterThanOrEqualTo(50_000_000L);
+    }
+
+    @Test
+    void oversizedFrames() throws Exception {
+        Pipe pipe = Pipe.open();
+        ChannelConnection connection = new ChannelConnection(pipe.source(), Channels.newChannel(new ByteArrayOutputStream()), selector);
+        connection.setMaxFrameSize(1024);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        packet(1, "a { b: c }").writeDelimitedTo(bytes);
+        packet(2, String.join("", Collections.nCopies(2048, "a"))).writeDelimitedTo(bytes);
+        pipe.sink().write(ByteBuffer.wrap(bytes.toByteArray()));
+
+        assertThat(connection.readResponse().getCompilationId()).isEqualTo(1);
+        IOException exception = assertThrows(IOException.class, connection::readResponse);
+        assertThat(exception).hasMessageContaining("exceeds the limit");
+    }
+
+    @Test
+    void reportsPacketsToTheWireListener() throws Exception {
+        ChannelConnection connection = bridge(ConnectionFactory.bundled());
+        WireStatistics statistics = new WireStatistics();
+        connection.setWireListener(statistics);
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            assertThat(sassCompiler.compileScssString("a { b: c }").getCss()).contains("b: c");
+        }
+
+        assertThat(statistics.getSentMessages(InboundMessage.MessageCase.COMPILE_REQUEST)).isEqualTo(1);
+        assertThat(statistics.getReceivedMessages(OutboundMessage.MessageCase.COMPILE_RESPONSE)).isEqualTo(1);
+        assertThat(statistics.getSentBytes(InboundMessage.MessageCase.COMPILE_REQUEST)).isPositive();
+    }
+
+    @Test
+    void manyCompilersOnOneSelector() throws Exception {
+        List<SassCompiler> sassCompilers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            sassCompilers.add(new SassCompiler(bridge(ConnectionFactory.bundled())));
+        }
+
+        assertThat(selector.getConnectionCount()).isEqualTo(4);
+
+        try {
+            List<CompletableFuture<CompileSuccess>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(sassCompilers.get(i % 4).compileScssStringAsync(".a { b: " + i + " * 2 }"));
+            }
+
+            for (int i = 0; i < 20; i++) {
+                assertThat(futures.get(i).get().getCss()).contains("b: " + i * 2);
+            }
+        } finally {
+            for (SassCompiler sassCompiler : sassCompilers) {
+                sassCompiler.close();
+            }
+        }
+    }
+
+    /**
+     * The pipes of a process are not selectable, so the output of the compiler is pumped into a {@link Pipe}.
+     */
+    private ChannelConnection bridge(ProcessConnection processConnection) throws IOException {
+        processConnections.add(processConnection);
+
+        Pipe pipe = Pipe.open();
+        InputStream inputStream = processConnection.getInputStream();
+
+        Thread pump = new Thread(() -> {
+            try (OutputStream outputStream = Channels.newOutputStream(pipe.sink())) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) >= 0) {
+                    outputStream.write(buffer, 0, read);
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        pump.setDaemon(true);
+        pump.start();
+
+        OutputStream processInput = processConnection.getOutputStream();
+        WritableByteChannel sink = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int length = src.remaining();
+                processInput.write(src.array(), src.arrayOffset() + src.position(), length);
+                processInput.flush();
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                processInput.close();
+            }
+        };
+
+        return new ChannelConnection(pipe.source(), sink, selector);
+    }
+
+    private static Packet<OutboundMessage> packet(int compilationId, String css) {
+        return new Packet<>(compilationId, OutboundMessage.newBuilder()
+                .setCompileResponse(OutboundMessage.CompileResponse.newBuilder()
+                        .setSuccess(OutboundMessage.CompileResponse.CompileSuccess.newBuilder().setCss(css))
+                )
+                .build()
+        );
+    }
+}
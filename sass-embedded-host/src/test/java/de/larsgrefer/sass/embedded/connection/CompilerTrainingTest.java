@@ -0,0 +1,57 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import de.larsgrefer.sass.embedded.CompileSuccess;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CompilerTrainingTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void warmUp() throws Exception {
+        ProcessConnection connection = ConnectionFactory.bundled();
+        CompilerTraining.warmUp(connection);
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            CompileSuccess success = sassCompiler.compileScssString(".a { .b { color: red; } }");
+            assertThat(success.getCss()).contains(".a .b");
+        }
+    }
+
+    @Test
+    void isAotSnapshot() throws IOException {
+        File elf = Files.write(tempDir.resolve("aot.snapshot"), new byte[]{0x7f, 'E', 'L', 'F', 2, 1}).toFile();
+        File jit = Files.write(tempDir.resolve("jit.snapshot"), new byte[]{(byte) 0xf5, (byte) 0xf5, (byte) 0xdc, (byte) 0xdc}).toFile();
+        File empty = Files.write(tempDir.resolve("empty.snapshot"), new byte[0]).toFile();
+
+        assertThat(CompilerTraining.isAotSnapshot(elf)).isTrue();
+        assertThat(CompilerTraining.isAotSnapshot(jit)).isFalse();
+        assertThat(CompilerTraining.isAotSnapshot(empty)).isFalse();
+    }
+
+    @Test
+    void aotSnapshotsAreNotTrained() throws IOException {
+        Path snapshot = Files.write(tempDir.resolve("sass.snapshot"), new byte[]{0x7f, 'E', 'L', 'F', 2, 1});
+        List<String> command = Arrays.asList(tempDir.resolve("dart").toString(), snapshot.toString(), "--embedded");
+
+        assertThat(CompilerTraining.trainAppJitSnapshot(command, tempDir)).isSameAs(command);
+        assertThat(CompilerTraining.trainAppJitSnapshot(command, null)).isSameAs(command);
+
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertThat(files).containsExactly(snapshot);
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package de.larsgrefer.sass.embedded.connection;
 
+import de.larsgrefer.sass.embedded.util.PlatformUtils;
+import de.larsgrefer.sass.embedded.util.PropertyUtils;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -20,4 +26,28 @@ class DownloadingPackageProviderTest {
         assertThat(dartSassExecutable).isNotNull();
         assertThat(dartSassExecutable).isFile();
     }
-}
\ No newline at end of file
+
+    @Test
+    void checksumIsShippedForThisPlatform() {
+        String sha256 = PropertyUtils.getDartSassSha256(PlatformUtils.getDartSassPackageSuffix());
+
+        assertThat(sha256).matches("[0-9a-f]{64}");
+    }
+
+    @Test
+    void unusableCacheFallsBackToTheDirectUrl(@TempDir Path tempDir) throws IOException {
+        String version = PropertyUtils.getDartSassVersion();
+        Path mirror = Files.createDirectories(tempDir.resolve("mirror").resolve(version));
+        Path archive = Files.write(mirror.resolve("dart-sass-" + version + "-" + PlatformUtils.getDartSassPackageSuffix()), new byte[]{1, 2, 3});
+
+        // The cache directory can't be created below a regular file.
+        Path notADirectory = Files.write(tempDir.resolve("file"), new byte[0]);
+
+        provider.setMirror(tempDir.resolve("mirror").toUri().toString());
+        provider.setCacheDirectory(notADirectory.resolve("cache"));
+
+        URL packageUrl = provider.getPackageUrl();
+
+        assertThat(packageUrl).isEqualTo(archive.toUri().toURL());
+    }
+}
@@ -0,0 +1,225 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import de.larsgrefer.sass.embedded.CompileSuccess;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LoadBalancingConnectionTest {
+
+    @Test
+    void compilationsAreSpread() throws Exception {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+
+        LoadBalancingConnection connection = new LoadBalancingConnection(Arrays.asList(
+                counting(first, ConnectionFactory::bundled),
+                counting(second, ConnectionFactory::bundled)
+        ));
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            List<CompletableFuture<CompileSuccess>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(sassCompiler.compileScssStringAsync("a { b: " + i + " + 1 }"));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertThat(futures.get(i).get().getCss()).contains("b: " + (i + 1));
+            }
+        }
+
+        assertThat(first).hasValue(1);
+        assertThat(second).hasValue(1);
+    }
+
+    @Test
+    void unreachableEndpointIsSkipped() throws Exception {
+        AtomicInteger unreachable = new AtomicInteger();
+
+        LoadBalancingConnection connection = new LoadBalancingConnection(Arrays.asList(
+                counting(unreachable, () -> {
+                    throw new ConnectException("Connection refused");
+                }),
+                ConnectionFactory::bundled
+        ));
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            for (int i = 0; i < 5; i++) {
+                assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+            }
+        }
+
+        // The endpoint is backing off after the first failure.
+        assertThat(unreachable).hasValue(1);
+        assertThat(connection.getAvailableEndpointCount()).isEqualTo(1);
+    }
+
+    @Test
+    void undeliveredCompilationIsRetried() throws Exception {
+        LoadBalancingConnection connection = new LoadBalancingConnection(Arrays.asList(
+                CrashingConnection::new,
+                CrashingConnection::new,
+                ConnectionFactory::bundled
+        ));
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+        }
+
+        assertThat(connection.getAvailableEndpointCount()).isEqualTo(1);
+    }
+
+    @Test
+    void failedChannelEndpointIsFailedOver() throws Exception {
+        LoadBalancingConnection connection = new LoadBalancingConnection(Arrays.asList(
+                LoadBalancingConnectionTest::crashingChannel,
+                LoadBalancingConnectionTest::crashingChannel,
+                ConnectionFactory::bundled
+        ));
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            assertThat(sassCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+        }
+
+        assertThat(connection.getAvailableEndpointCount()).isEqualTo(1);
+    }
+
+    @Test
+    void connectingEndpointDoesNotBlockOthers() throws Exception {
+        CountDownLatch connecting = new CountDownLatch(1);
+        CountDownLatch timeout = new CountDownLatch(1);
+
+        LoadBalancingConnection connection = new LoadBalancingConnection(Arrays.asList(
+                () -> {
+                    // A black-holed host, which only fails once its connect timeout expires.
+                    connecting.countDown();
+                    try {
+                        timeout.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new ConnectException("Connect timed out");
+                },
+                ConnectionFactory::bundled
+        ));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            // The first compilation is started on the first endpoint.
+            Future<CompileSuccess> blocked = executor.submit(() -> sassCompiler.compileScssString("a { b: 1 + 1 }"));
+            assertThat(connecting.await(10, TimeUnit.SECONDS)).isTrue();
+
+            for (int i = 0; i < 3; i++) {
+                CompletableFuture<CompileSuccess> future = sassCompiler.compileScssStringAsync("a { b: " + i + " + 3 }");
+                assertThat(future.get(10, TimeUnit.SECONDS).getCss()).contains("b: " + (i + 3));
+            }
+            assertThat(blocked).isNotDone();
+
+            // Once the connect timeout expires, the compilation is restarted on the other endpoint.
+            timeout.countDown();
+            assertThat(blocked.get(10, TimeUnit.SECONDS).getCss()).contains("b: 2");
+        } finally {
+            timeout.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void lostVersionRequestIsRetried() throws Exception {
+        LoadBalancingConnection connection = new LoadBalancingConnection(Arrays.asList(
+                CrashingConnection::new,
+                ConnectionFactory::bundled
+        ));
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            CompletableFuture<String> version = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return sassCompiler.getVersion().getProtocolVersion();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertThat(version.get(10, TimeUnit.SECONDS)).isEqualTo(ConnectionFactory.getExpectedProtocolVersion());
+        }
+    }
+
+    private static ConnectionSupplier counting(AtomicInteger counter, ConnectionSupplier delegate) {
+        return () -> {
+            counter.incrementAndGet();
+            return delegate.get();
+        };
+    }
+
+    /**
+     * A {@link ChannelConnection} which accepts the compile request, but dies before it responds.
+     */
+    private static ChannelConnection crashingChannel() throws IOException {
+        Pipe pipe = Pipe.open();
+
+        WritableByteChannel sink = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int length = src.remaining();
+                src.position(src.limit());
+                pipe.sink().close();
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        return new ChannelConnection(pipe.source(), sink, ConnectionSelector.getShared());
+    }
+
+    /**
+     * Accepts the compile request, but dies before it responds.
+     */
+    private static class CrashingConnection implements CompilerConnection {
+
+        private final CountDownLatch received = new CountDownLatch(1);
+
+        @Override
+        public void sendMessage(Packet<InboundMessage> inboundMessagePacket) {
+            received.countDown();
+        }
+
+        @Override
+        public Packet<OutboundMessage> readResponse() throws IOException {
+            try {
+                received.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Crashed");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
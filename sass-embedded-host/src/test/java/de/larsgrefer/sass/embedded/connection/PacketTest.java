@@ -0,0 +1,104 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.InboundMessage.CompileRequest;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PacketTest {
+
+    @Test
+    void roundTrip() throws IOException {
+        Packet<InboundMessage> first = packet(1, "a { b: c }");
+        Packet<InboundMessage> second = packet(300, "d { e: f }");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.writeDelimitedTo(out);
+
+        byte[] buffer = new byte[second.getDelimitedSize()];
+        assertThat(second.writeDelimitedTo(buffer, 0)).isEqualTo(buffer.length);
+        out.write(buffer);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        assertThat(Packet.parseDelimitedFrom(in, InboundMessage.parser())).isEqualTo(first);
+        assertThat(Packet.parseDelimitedFrom(in, InboundMessage.parser())).isEqualTo(second);
+        assertThatThrownBy(() -> Packet.parseDelimitedFrom(in, InboundMessage.parser()))
+                .isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    void truncatedPacket() throws IOException {
+        Packet<InboundMessage> packet = packet(1, "a { b: c }");
+
+        byte[] buffer = new byte[packet.getDelimitedSize()];
+        packet.writeDelimitedTo(buffer, 0);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(Arrays.copyOf(buffer, buffer.length - 1));
+
+        assertThatThrownBy(() -> Packet.parseDelimitedFrom(in, InboundMessage.parser()))
+                .isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    void oversizedFrames() throws IOException {
+        Packet<OutboundMessage> packet = new Packet<>(1, OutboundMessage.newBuilder()
+                .setCompileResponse(OutboundMessage.CompileResponse.newBuilder()
+                        .setSuccess(OutboundMessage.CompileResponse.CompileSuccess.newBuilder().setCss("a { b: c }"))
+                )
+                .build()
+        );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packet.writeDelimitedTo(out);
+
+        StreamConnection connection = streamConnection(out.toByteArray());
+        connection.setMaxFrameSize(packet.getSerializedSize() - 1);
+        assertThatThrownBy(connection::readResponse)
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("exceeds the limit");
+
+        // A length prefix of 2^32 - 1, which does not fit into an int
+        StreamConnection negative = streamConnection(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f});
+        assertThatThrownBy(negative::readResponse)
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("exceeds the limit");
+    }
+
+    private static StreamConnection streamConnection(byte[] input) {
+        InputStream inputStream = new ByteArrayInputStream(input);
+        return new StreamConnection() {
+            @Override
+            protected InputStream getInputStream() {
+                return inputStream;
+            }
+
+            @Override
+            protected OutputStream getOutputStream() {
+                return new ByteArrayOutputStream();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Packet<InboundMessage> packet(int compilationId, String source) {
+        CompileRequest compileRequest = CompileRequest.newBuilder()
+                .setString(CompileRequest.StringInput.newBuilder().setSource(source))
+                .build();
+
+        return new Packet<>(compilationId, InboundMessage.newBuilder().setCompileRequest(compileRequest).build());
+    }
+}
@@ -0,0 +1,54 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProtocolVersionCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void probesOncePerExecutable() throws IOException {
+        Path executable = Files.write(tempDir.resolve("sass"), new byte[]{1, 2, 3});
+        List<String> command = Arrays.asList(executable.toString(), "--embedded");
+        Path file = tempDir.resolve("protocol-version.properties");
+
+        AtomicInteger probes = new AtomicInteger();
+        ProtocolVersionCache.Probe probe = cmd -> "2." + probes.incrementAndGet() + ".0";
+
+        assertThat(new ProtocolVersionCache(file).getProtocolVersion(command, probe)).isEqualTo("2.1.0");
+
+        ProtocolVersionCache cache = new ProtocolVersionCache(file);
+        assertThat(cache.getProtocolVersion(command, probe)).isEqualTo("2.1.0");
+        assertThat(cache.getProtocolVersion(command, probe)).isEqualTo("2.1.0");
+        assertThat(probes).hasValue(1);
+
+        // A replaced executable is probed again.
+        Files.setLastModifiedTime(executable, FileTime.fromMillis(Files.getLastModifiedTime(executable).toMillis() - 10_000));
+        assertThat(cache.getProtocolVersion(command, probe)).isEqualTo("2.2.0");
+        assertThat(probes).hasValue(2);
+    }
+
+    @Test
+    void bundledProvider() throws IOException {
+        BundledPackageProvider provider = new BundledPackageProvider();
+
+        List<String> command = provider.getCommand();
+        assertThat(command).endsWith("--embedded");
+        assertThat(provider.getCommand()).isSameAs(command);
+
+        String protocolVersion = provider.getProtocolVersionCache().getProtocolVersion(command, ConnectionFactory::findProtocolVersion);
+        assertThat(protocolVersion).isEqualTo(ConnectionFactory.getExpectedProtocolVersion());
+    }
+}
@@ -0,0 +1,83 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.Value;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import de.larsgrefer.sass.embedded.functions.HostFunction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RecordingConnectionTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recordAndReplay() throws Exception {
+        Path recording = tempDir.resolve("compiler.rec");
+
+        AtomicInteger calls = new AtomicInteger();
+        String recordedCss;
+        try (SassCompiler sassCompiler = new SassCompiler(new RecordingConnection(ConnectionFactory.bundled(), recording))) {
+            registerFunction(sassCompiler, calls);
+            recordedCss = sassCompiler.compileScssString("a { b: one() + one() }").getCss();
+            sassCompiler.compileScssString("c { d: 1 + 2 }");
+        }
+        assertThat(calls).hasValue(2);
+
+        ReplayingConnection replay = new ReplayingConnection(recording);
+        try (SassCompiler sassCompiler = new SassCompiler(replay)) {
+            registerFunction(sassCompiler, calls);
+            assertThat(sassCompiler.compileScssString("a { b: one() + one() }").getCss()).isEqualTo(recordedCss);
+            assertThat(sassCompiler.compileScssString("c { d: 1 + 2 }").getCss()).contains("d: 3");
+        }
+        assertThat(calls).hasValue(4);
+        assertThat(replay.getRemainingResponses()).isZero();
+    }
+
+    @Test
+    void stopsAtTheMaximumFileSize() throws Exception {
+        Path recording = tempDir.resolve("compiler.rec");
+
+        RecordingConnection connection = new RecordingConnection(ConnectionFactory.bundled(), recording);
+        connection.setMaxFileSize(1024);
+
+        try (SassCompiler sassCompiler = new SassCompiler(connection)) {
+            for (int i = 0; i < 20; i++) {
+                assertThat(sassCompiler.compileScssString(".a" + i + " { b: " + i + " * 2 }").getCss()).contains("b: " + i * 2);
+            }
+        }
+
+        assertThat(Files.size(recording)).isBetween(1L, 1024L);
+
+        ReplayingConnection replay = new ReplayingConnection(recording);
+        assertThat(replay.getRemainingResponses()).isPositive();
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = Files.write(tempDir.resolve("other.txt"), "foo".getBytes());
+
+        assertThatThrownBy(() -> new ReplayingConnection(file))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static void registerFunction(SassCompiler sassCompiler, AtomicInteger calls) {
+        sassCompiler.registerFunction(new HostFunction("one", Collections.emptyList()) {
+            @Override
+            public Value invoke(List<Value> arguments) {
+                calls.incrementAndGet();
+                return Value.newBuilder().setNumber(Value.Number.newBuilder().setValue(1)).build();
+            }
+        });
+    }
+}
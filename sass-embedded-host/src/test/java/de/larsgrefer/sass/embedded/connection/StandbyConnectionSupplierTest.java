@@ -0,0 +1,101 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import de.larsgrefer.sass.embedded.SassCompiler;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StandbyConnectionSupplierTest {
+
+    private final List<ProcessConnection> connections = new CopyOnWriteArrayList<>();
+
+    private ProcessConnection connect() throws IOException {
+        ProcessConnection connection = ConnectionFactory.bundled();
+        connections.add(connection);
+        return connection;
+    }
+
+    @Test
+    void handsOverTheSpare() throws Exception {
+        try (StandbyConnectionSupplier standby = new StandbyConnectionSupplier(this::connect);
+             SassCompiler sassCompiler = new SassCompiler(standby)) {
+
+            assertThat(sassCompiler.compileScssString("a { b: 1 + 1 }").getCss()).contains("b: 2");
+            assertThat(standby.getHandovers()).isEqualTo(1);
+            assertThat(standby.getFallbacks()).isZero();
+
+            // The next spare is started right away.
+            awaitConnections(2);
+            assertThat(connections.get(0).isAlive()).isTrue();
+            assertThat(connections.get(1).isAlive()).isTrue();
+
+            try (SassCompiler secondCompiler = new SassCompiler(standby)) {
+                assertThat(secondCompiler.compileScssString("a { b: 1 + 2 }").getCss()).contains("b: 3");
+            }
+            assertThat(standby.getHandovers()).isEqualTo(2);
+            awaitConnections(3);
+        }
+
+        // A spare which is still starting is closed once it's ready.
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (connections.stream().anyMatch(ProcessConnection::isAlive) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(connections).noneMatch(ProcessConnection::isAlive);
+    }
+
+    @Test
+    void deadSpareIsReplaced() throws Exception {
+        try (StandbyConnectionSupplier standby = new StandbyConnectionSupplier(this::connect)) {
+            standby.get().close();
+
+            awaitConnections(2);
+            connections.get(1).close();
+
+            ProcessConnection connection = (ProcessConnection) standby.get();
+            assertThat(connection).isNotSameAs(connections.get(1));
+            assertThat(connection.isAlive()).isTrue();
+            assertThat(standby.getFallbacks()).isEqualTo(1);
+            connection.close();
+        }
+    }
+
+    @Test
+    void failedSpareFallsBackToTheDelegate() throws Exception {
+        AtomicBoolean fail = new AtomicBoolean(true);
+
+        try (StandbyConnectionSupplier standby = new StandbyConnectionSupplier(() -> {
+            if (fail.getAndSet(false)) {
+                throw new IOException("failed");
+            }
+            return connect();
+        })) {
+            CompilerConnection connection = standby.get();
+            assertThat(connection).isInstanceOf(ProcessConnection.class);
+            assertThat(standby.getFallbacks()).isEqualTo(1);
+            connection.close();
+        }
+    }
+
+    @Test
+    void closedSupplierFails() throws Exception {
+        StandbyConnectionSupplier standby = new StandbyConnectionSupplier(this::connect);
+        standby.close();
+
+        assertThatThrownBy(standby::get).isInstanceOf(IOException.class);
+    }
+
+    private void awaitConnections(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (connections.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(connections).hasSizeGreaterThanOrEqualTo(count);
+    }
+}
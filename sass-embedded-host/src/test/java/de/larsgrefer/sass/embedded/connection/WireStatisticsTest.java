@@ -0,0 +1,49 @@
+package de.larsgrefer.sass.embedded.connection;
+
+import com.sass_lang.embedded_protocol.InboundMessage;
+import com.sass_lang.embedded_protocol.OutboundMessage;
+import com.sass_lang.embedded_protocol.Value;
+import de.larsgrefer.sass.embedded.SassCompiler;
+import de.larsgrefer.sass.embedded.functions.HostFunction;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WireStatisticsTest {
+
+    @Test
+    void countsByMessageType() throws Exception {
+        WireStatistics streamStatistics = new WireStatistics();
+        WireStatistics decoratorStatistics = new WireStatistics();
+
+        ProcessConnection processConnection = ConnectionFactory.bundled();
+        processConnection.setWireListener(streamStatistics);
+
+        try (SassCompiler sassCompiler = new SassCompiler(new MonitoredConnection(processConnection, decoratorStatistics))) {
+            sassCompiler.registerFunction(new HostFunction("one", Collections.emptyList()) {
+                @Override
+                public Value invoke(List<Value> arguments) {
+                    return Value.newBuilder().setNumber(Value.Number.newBuilder().setValue(1)).build();
+                }
+            });
+
+            sassCompiler.compileScssString("a { b: one() + one() + one() }");
+        }
+
+        for (WireStatistics statistics : new WireStatistics[]{streamStatistics, decoratorStatistics}) {
+            assertThat(statistics.getSentMessages(InboundMessage.MessageCase.COMPILE_REQUEST)).isEqualTo(1);
+            assertThat(statistics.getReceivedMessages(OutboundMessage.MessageCase.FUNCTION_CALL_REQUEST)).isEqualTo(3);
+            assertThat(statistics.getSentMessages(InboundMessage.MessageCase.FUNCTION_CALL_RESPONSE)).isEqualTo(3);
+            assertThat(statistics.getReceivedMessages(OutboundMessage.MessageCase.COMPILE_RESPONSE)).isEqualTo(1);
+            assertThat(statistics.getReceivedBytes(OutboundMessage.MessageCase.COMPILE_RESPONSE)).isPositive();
+            assertThat(statistics.toString()).contains("<-- FUNCTION_CALL_REQUEST: 3 messages");
+        }
+
+        // Both encode the sent packets the same way.
+        // The received sizes may differ, because the compiler does not necessarily use the shortest encoding.
+        assertThat(decoratorStatistics.getTotalSentBytes()).isEqualTo(streamStatistics.getTotalSentBytes());
+    }
+}
@@ -0,0 +1,162 @@
+package de.larsgrefer.sass.embedded.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DownloadCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private HttpServer server;
+
+    @AfterEach
+    void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void cachedCopyIsReused() throws IOException {
+        Path source = Files.write(tempDir.resolve("package.tar.gz"), randomBytes(10_000));
+        String sha256 = DownloadCache.sha256(source);
+        DownloadCache cache = new DownloadCache(tempDir.resolve("cache"));
+
+        Path cached = cache.get(source.toUri().toURL(), null);
+
+        assertThat(cached).hasFileName("package.tar.gz").hasSameBinaryContentAs(source);
+        assertThat(cached.getParent()).hasFileName(sha256);
+
+        // Works offline afterwards.
+        Files.delete(source);
+        assertThat(cache.get(source.toUri().toURL(), null)).isEqualTo(cached);
+        assertThat(cache.get(source.toUri().toURL(), sha256)).isEqualTo(cached);
+    }
+
+    @Test
+    void checksumMismatch() throws IOException {
+        Path source = Files.write(tempDir.resolve("package.zip"), randomBytes(1000));
+        DownloadCache cache = new DownloadCache(tempDir.resolve("cache"));
+        URL url = source.toUri().toURL();
+
+        String wrongSha256 = "0123456789012345678901234567890123456789012345678901234567890123";
+        assertThatThrownBy(() -> cache.get(url, wrongSha256))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Checksum mismatch");
+
+        // The mirror's .sha256 file is used as well.
+        Files.write(tempDir.resolve("package.zip.sha256"), (wrongSha256 + "  package.zip\n").getBytes(StandardCharsets.US_ASCII));
+        assertThatThrownBy(() -> cache.get(url, null))
+                .isInstanceOf(IOException.class);
+
+        Files.write(tempDir.resolve("package.zip.sha256"), DownloadCache.sha256(source).getBytes(StandardCharsets.US_ASCII));
+        assertThat(cache.get(url, null)).hasSameBinaryContentAs(source);
+    }
+
+    @Test
+    void partialDownloadIsResumed() throws IOException {
+        byte[] content = randomBytes(100_000);
+        List<String> ranges = new CopyOnWriteArrayList<>();
+        startServer(content, "\"v1\"", ranges);
+
+        Path cacheDir = tempDir.resolve("cache");
+        Path partialFile = Files.createDirectories(cacheDir.resolve("partial")).resolve("package.tar.gz.part");
+        Files.write(partialFile, Arrays.copyOf(content, 40_000));
+        Files.write(partialFile.resolveSibling("package.tar.gz.part.validator"), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+
+        Path cached = new DownloadCache(cacheDir).get(serverUrl(), null);
+
+        assertThat(ranges).containsExactly("bytes=40000- if \"v1\"");
+        assertThat(Files.readAllBytes(cached)).isEqualTo(content);
+        assertThat(partialFile).doesNotExist();
+    }
+
+    @Test
+    void changedFileIsNotSpliced() throws IOException {
+        byte[] oldContent = randomBytes(100_000);
+        byte[] content = randomBytes(90_000);
+        List<String> ranges = new CopyOnWriteArrayList<>();
+        startServer(content, "\"v2\"", ranges);
+
+        Path cacheDir = tempDir.resolve("cache");
+        Path partialFile = Files.createDirectories(cacheDir.resolve("partial")).resolve("package.tar.gz.part");
+        Files.write(partialFile, Arrays.copyOf(oldContent, 40_000));
+        Files.write(partialFile.resolveSibling("package.tar.gz.part.validator"), "\"v1\"".getBytes(StandardCharsets.UTF_8));
+
+        Path cached = new DownloadCache(cacheDir).get(serverUrl(), null);
+
+        assertThat(ranges).containsExactly("bytes=40000- if \"v1\"");
+        assertThat(Files.readAllBytes(cached)).isEqualTo(content);
+    }
+
+    @Test
+    void unverifiablePartialDownloadIsNotResumed() throws IOException {
+        byte[] content = randomBytes(100_000);
+        List<String> ranges = new CopyOnWriteArrayList<>();
+        startServer(content, "\"v1\"", ranges);
+
+        Path cacheDir = tempDir.resolve("cache");
+        Path partialFile = Files.createDirectories(cacheDir.resolve("partial")).resolve("package.tar.gz.part");
+        Files.write(partialFile, randomBytes(40_000));
+
+        Path cached = new DownloadCache(cacheDir).get(serverUrl(), null);
+
+        assertThat(ranges).containsExactly("null");
+        assertThat(Files.readAllBytes(cached)).isEqualTo(content);
+    }
+
+    /**
+     * Serves the given content with the given ETag and honors {@code Range} requests only if their {@code If-Range}
+     * matches it.
+     */
+    private void startServer(byte[] content, String etag, List<String> ranges) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            if (!exchange.getRequestURI().getPath().equals("/package.tar.gz")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            ranges.add(range != null ? range + " if " + ifRange : "null");
+
+            boolean partial = range != null && etag.equals(ifRange);
+            int start = partial ? Integer.parseInt(range.substring("bytes=".length(), range.length() - 1)) : 0;
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.sendResponseHeaders(partial ? 206 : 200, content.length - start);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, content.length - start);
+            }
+        });
+        server.start();
+    }
+
+    private URL serverUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/package.tar.gz");
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,154 @@
+package de.larsgrefer.sass.embedded.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PackageInstallerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final URL bundledPackage = getClass().getResource("/de/larsgrefer/sass/embedded/bundled/dart-sass-" + PlatformUtils.getDartSassPackageSuffix());
+
+    @Test
+    void install() throws IOException {
+        Path target = tempDir.resolve("package");
+
+        Path installation = PackageInstaller.install(bundledPackage, target);
+
+        assertThat(PackageInstaller.isInstalled(target)).isTrue();
+        assertThat(installation.getParent()).isEqualTo(target);
+        File[] executables = installation.resolve("dart-sass").toFile().listFiles(file -> file.getName().startsWith("sass"));
+        assertThat(executables).hasSize(1);
+        assertThat(executables[0].canExecute()).isTrue();
+
+        // Nothing to do on later starts.
+        Path manifest = installation.resolve(PackageInstaller.MANIFEST);
+        FileTime installed = Files.getLastModifiedTime(manifest);
+        assertThat(PackageInstaller.install(bundledPackage, target)).isEqualTo(installation);
+        assertThat(Files.getLastModifiedTime(manifest)).isEqualTo(installed);
+    }
+
+    @Test
+    void damagedInstallationIsReplaced() throws IOException {
+        Path target = tempDir.resolve("package");
+        Path damaged = PackageInstaller.install(bundledPackage, target);
+
+        File executable = damaged.resolve("dart-sass").toFile().listFiles(file -> file.getName().startsWith("sass"))[0];
+        Files.write(executable.toPath(), new byte[0]);
+        assertThat(PackageInstaller.isInstalled(target)).isFalse();
+
+        Path installation = PackageInstaller.install(bundledPackage, target);
+        assertThat(PackageInstaller.isInstalled(target)).isTrue();
+        assertThat(installation).isNotEqualTo(damaged);
+        assertThat(installation.resolve("dart-sass").resolve(executable.getName())).isNotEmptyFile();
+
+        // The damaged installation might still be used by another JVM, so it's left alone.
+        assertThat(executable).exists();
+    }
+
+    @Test
+    void concurrentInstallations() throws Exception {
+        Path target = tempDir.resolve("package");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Path>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> PackageInstaller.install(bundledPackage, target)));
+            }
+            Path installation = futures.get(0).get();
+            for (Future<Path> future : futures) {
+                assertThat(future.get()).isEqualTo(installation);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(PackageInstaller.isInstalled(target)).isTrue();
+        try (Stream<Path> children = Files.list(target)) {
+            assertThat(children.map(path -> path.getFileName().toString()))
+                    .noneMatch(name -> name.startsWith(".staging-"));
+        }
+    }
+
+    @Test
+    void entriesOutsideOfTheTargetAreRejected() throws IOException {
+        Path zip = tempDir.resolve("evil.zip");
+        try (OutputStream out = Files.newOutputStream(zip); ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            zipOut.putNextEntry(new ZipEntry("../evil.txt"));
+            zipOut.write(1);
+            zipOut.closeEntry();
+        }
+
+        assertThatThrownBy(() -> PackageInstaller.install(zip.toUri().toURL(), tempDir.resolve("package")))
+                .isInstanceOf(IOException.class);
+        assertThat(tempDir.resolve("evil.txt")).doesNotExist();
+    }
+
+    @Test
+    void linksOutsideOfTheTargetAreRejected() throws IOException {
+        Path outside = Files.createDirectories(tempDir.resolve("outside"));
+
+        for (String linkName : new String[]{outside.toString(), "../outside", "b/../../outside"}) {
+            Path tar = tempDir.resolve("evil.tar.gz");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tar))) {
+                out.write(tarHeader("a", '2', 0, linkName));
+                out.write(tarHeader("a/evil.txt", '0', 1, ""));
+                out.write(new byte[512]);
+                out.write(new byte[1024]);
+            }
+
+            assertThatThrownBy(() -> PackageInstaller.install(tar.toUri().toURL(), tempDir.resolve("package")))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("outside of the target directory");
+            assertThat(outside.resolve("evil.txt")).doesNotExist();
+        }
+    }
+
+    private static byte[] tarHeader(String name, char type, int size, String linkName) {
+        byte[] header = new byte[512];
+        putString(header, 0, name);
+        putString(header, 100, "0000644");
+        putString(header, 124, String.format("%011o", size));
+        putString(header, 136, "00000000000");
+        header[156] = (byte) type;
+        putString(header, 157, linkName);
+        putString(header, 257, "ustar");
+
+        // The checksum is calculated with spaces in the checksum field.
+        putString(header, 148, "        ");
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        putString(header, 148, String.format("%06o\0 ", checksum));
+        return header;
+    }
+
+    private static void putString(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}